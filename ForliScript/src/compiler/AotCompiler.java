@@ -0,0 +1,355 @@
+package compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+import expressions.Primitive;
+import expressions.ValArray;
+import expressions.ValArrayConst;
+import expressions.ValBoolean;
+import expressions.ValNull;
+import expressions.ValNumber;
+import expressions.ValString;
+import expressions.Value;
+import expressions.Variable;
+import instruction.Instruction;
+
+
+/**
+ * Compiles a {@link Program} ahead of time into a runnable JAR.
+ * <p>
+ * The JAR contains the class {@value #MAIN_CLASS}, with the method generated by {@link JvmProgram} and a main method which creates the variables, the
+ * constants and the instructions of the program, then runs it. It also contains the runtime: the classes of the packages expressions and instruction, and
+ * the classes of the package compiler used during the execution. The classes which parse the source and read the compiled files are not included.
+ * <p>
+ * Since the JAR doesn't parse anything at startup, it can be used with the class data sharing of the JVM (AppCDS) to start even faster.
+ *
+ * @author MarcoForlini
+ */
+final class AotCompiler {
+
+	/** The name of the main class of the JAR */
+	static final String						MAIN_CLASS	= "compiler.Script";
+
+	/** The packages of the runtime */
+	private static final String[]			PACKAGES	= { "compiler/", "expressions/", "instruction/" };
+	/** The classes of the package compiler which are only used to compile or load a program */
+	private static final List <String>		FRONT_END	= Arrays.asList ("AotCompiler", "BadStructureException", "ClassWriter", "Compiler", "FileManager",
+			"JvmProgram", "Lexer", "ParsedLine", "Parser", "ProgramArchive", "ProgramFile", "ProgramFormatException", "SymbolTable", "UnrecognizedTokenException");
+
+	private static final String				MAP			= "java/util/HashMap";
+	private static final String				VARIABLE	= "expressions/Variable";
+	private static final String				LIST		= "java/util/ArrayList";
+	private static final String				INIT		= "<init>";
+	private static final String				LINE		= "(Ljava/lang/String;IILexpressions/Expression;)V";
+
+
+	private AotCompiler () {}
+
+
+
+	/**
+	 * Compile a program into a runnable JAR
+	 *
+	 * @param program The program
+	 * @return The content of the JAR
+	 * @throws IOException If the runtime classes can't be read
+	 * @throws CompilatorException If the program can't be compiled ahead of time
+	 */
+	static byte[] compile (Program program) throws IOException, CompilatorException {
+		byte[] main = compileClass (program);
+
+		Manifest manifest = new Manifest ();
+		manifest.getMainAttributes ().put (Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes ().put (Attributes.Name.MAIN_CLASS, MAIN_CLASS);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+		try (JarOutputStream jar = new JarOutputStream (bytes, manifest)) {
+			jar.putNextEntry (new JarEntry (MAIN_CLASS.replace ('.', '/') + ".class"));
+			jar.write (main);
+			jar.closeEntry ();
+			for (Map.Entry <String, byte[]> entry : runtime ().entrySet ()) {
+				jar.putNextEntry (new JarEntry (entry.getKey ()));
+				jar.write (entry.getValue ());
+				jar.closeEntry ();
+			}
+		}
+		return bytes.toByteArray ();
+	}
+
+
+	/**
+	 * Compile a program into the main class
+	 *
+	 * @param program The program
+	 * @return The class file
+	 * @throws CompilatorException If the program can't be compiled ahead of time
+	 */
+	private static byte[] compileClass (Program program) throws CompilatorException {
+		Bytecode bytecode = Bytecode.compile (program);
+		for (int pc = 0; pc < bytecode.code.length; pc += Bytecode.length (bytecode.code, pc)) {
+			if (bytecode.code[pc] == Bytecode.EXECUTE) {
+				throw new CompilatorException ("Instruction " + bytecode.instructions[bytecode.code[pc + 1]] + " can't be compiled ahead of time");
+			}
+		}
+		try {
+			ClassWriter writer = new ClassWriter (MAIN_CLASS.replace ('.', '/'));
+			JvmProgram.addRun (writer, bytecode);
+			addMain (writer, program, bytecode);
+			return writer.toByteArray (ClassWriter.ACC_PUBLIC | ClassWriter.ACC_FINAL);
+		} catch (IllegalStateException e) {
+			throw new CompilatorException ("The program is too large to be compiled ahead of time", e);
+		}
+	}
+
+
+	/**
+	 * Add the main method, which creates the program and runs it. It uses the local variables:
+	 * <ol start="0">
+	 * <li>The arguments (not used)</li>
+	 * <li>The map of the variables</li>
+	 * <li>The values of the registers</li>
+	 * <li>The instructions</li>
+	 * <li>The program</li>
+	 * </ol>
+	 *
+	 * @param writer The class
+	 * @param program The program
+	 * @param bytecode The bytecode of the program
+	 * @throws CompilatorException If a constant can't be compiled ahead of time
+	 */
+	private static void addMain (ClassWriter writer, Program program, Bytecode bytecode) throws CompilatorException {
+		ClassWriter.Code out = new ClassWriter.Code (writer);
+
+		// The variables of the program, and the ones created by the expressions
+		Map <String, Boolean> variables = new LinkedHashMap<> ();
+		for (Variable variable : program.getVariables ().values ()) {
+			variables.put (variable.name, variable.isConstant ());
+		}
+		for (Value value : bytecode.values) {
+			if (value instanceof Variable) {
+				variables.putIfAbsent (((Variable) value).name, ((Variable) value).isConstant ());
+			}
+		}
+		out.type (ClassWriter.NEW, MAP);
+		out.emit (ClassWriter.DUP);
+		out.invoke (ClassWriter.INVOKESPECIAL, MAP, INIT, "()V");
+		out.local (ClassWriter.ASTORE, 1);
+		for (Map.Entry <String, Boolean> variable : variables.entrySet ()) {
+			out.local (ClassWriter.ALOAD, 1);
+			out.push (variable.getKey ());
+			out.type (ClassWriter.NEW, VARIABLE);
+			out.emit (ClassWriter.DUP);
+			out.push (variable.getKey ());
+			out.push (variable.getValue () ? 1 : 0);
+			out.invoke (ClassWriter.INVOKESPECIAL, VARIABLE, INIT, "(Ljava/lang/String;Z)V");
+			out.invoke (ClassWriter.INVOKEVIRTUAL, MAP, "put", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+			out.emit (ClassWriter.POP);
+		}
+
+		// The values of the registers
+		out.push (bytecode.values.length);
+		out.type (ClassWriter.ANEWARRAY, "java/lang/Object");
+		out.local (ClassWriter.ASTORE, 2);
+		int maxStack = 10;
+		for (int r = 0; r < bytecode.values.length; r++) {
+			out.local (ClassWriter.ALOAD, 2);
+			out.push (r);
+			maxStack = Math.max (maxStack, 2 + value (out, bytecode.values[r]));
+			out.emit (ClassWriter.AASTORE);
+		}
+
+		// The instructions, only used in the error messages
+		Instruction[] instructions = bytecode.instructions;
+		out.push (instructions.length);
+		out.type (ClassWriter.ANEWARRAY, "instruction/Instruction");
+		out.local (ClassWriter.ASTORE, 3);
+		for (int i = 0; i < instructions.length; i++) {
+			Instruction instruction = instructions[i];
+			String type = "instruction/InstructionExpression";
+			out.local (ClassWriter.ALOAD, 3);
+			out.push (i);
+			out.type (ClassWriter.NEW, type);
+			out.emit (ClassWriter.DUP);
+			out.push (instruction.getLine ());
+			out.push (instruction.getLineNumber () - 1);
+			out.push (instruction.getCompiledLineNumber ());
+			out.emit (ClassWriter.ACONST_NULL);
+			out.invoke (ClassWriter.INVOKESPECIAL, type, INIT, LINE);
+			out.emit (ClassWriter.AASTORE);
+		}
+
+		out.type (ClassWriter.NEW, "compiler/Program");
+		out.emit (ClassWriter.DUP);
+		out.local (ClassWriter.ALOAD, 3);
+		out.invoke (ClassWriter.INVOKESTATIC, "java/util/Arrays", "asList", "([Ljava/lang/Object;)Ljava/util/List;");
+		out.local (ClassWriter.ALOAD, 1);
+		out.invoke (ClassWriter.INVOKESPECIAL, "compiler/Program", INIT, "(Ljava/util/List;Ljava/util/Map;)V");
+		out.local (ClassWriter.ASTORE, 4);
+
+		out.local (ClassWriter.ALOAD, 2);
+		out.local (ClassWriter.ALOAD, 3);
+		out.local (ClassWriter.ALOAD, 4);
+		out.field (ClassWriter.GETSTATIC, "compiler/Input", "STANDARD", "Lcompiler/Input;");
+		out.field (ClassWriter.GETSTATIC, "compiler/Output", "STANDARD", "Lcompiler/Output;");
+		out.invoke (ClassWriter.INVOKESTATIC, MAIN_CLASS.replace ('.', '/'), "run", JvmProgram.RUN_TYPE.toMethodDescriptorString ());
+		out.emit (ClassWriter.RETURN);
+		out.method (ClassWriter.ACC_PUBLIC, "main", "([Ljava/lang/String;)V", maxStack, new int[5], new int[0]);
+	}
+
+
+	/**
+	 * Push a value of a register
+	 *
+	 * @param out The code
+	 * @param value The value: a variable or a constant
+	 * @return The size of the stack needed to create the value
+	 * @throws CompilatorException If the value can't be compiled ahead of time
+	 */
+	private static int value (ClassWriter.Code out, Value value) throws CompilatorException {
+		if (value instanceof Variable) {
+			variable (out, ((Variable) value).name);
+			return 2;
+		} else if (value == ValBoolean.objTrue || value == ValBoolean.objFalse) {
+			out.field (ClassWriter.GETSTATIC, "expressions/ValBoolean", value == ValBoolean.objTrue ? "objTrue" : "objFalse", "Lexpressions/ValBoolean;");
+			return 1;
+		} else if (value == ValNull.objNull) {
+			out.field (ClassWriter.GETSTATIC, "expressions/ValNull", "objNull", "Lexpressions/ValNull;");
+			return 1;
+		} else if (value.getClass () == ValNumber.class) {
+			out.push (((ValNumber) value).value ());
+			out.invoke (ClassWriter.INVOKESTATIC, "expressions/ValNumber", "getNumber", "(F)Lexpressions/ValNumber;");
+			return 1;
+		} else if (value.getClass () == ValString.class) {
+			out.type (ClassWriter.NEW, "expressions/ValString");
+			out.emit (ClassWriter.DUP);
+			out.push (value.toString ());
+			out.invoke (ClassWriter.INVOKESPECIAL, "expressions/ValString", INIT, "(Ljava/lang/String;)V");
+			return 3;
+		} else if (value.getClass () == ValArray.class || value.getClass () == ValArrayConst.class) {
+			String type = value.getClass () == ValArray.class ? "expressions/ValArray" : "expressions/ValArrayConst";
+			List <Primitive> elements = ((ValArray) value).getElements ();
+			out.type (ClassWriter.NEW, type);
+			out.emit (ClassWriter.DUP);
+			out.type (ClassWriter.NEW, LIST);
+			out.emit (ClassWriter.DUP);
+			out.push (elements.size ());
+			out.invoke (ClassWriter.INVOKESPECIAL, LIST, INIT, "(I)V");
+			int stack = 5;
+			for (Primitive element : elements) {
+				out.emit (ClassWriter.DUP);
+				stack = Math.max (stack, 4 + value (out, element));
+				out.invoke (ClassWriter.INVOKEVIRTUAL, LIST, "add", "(Ljava/lang/Object;)Z");
+				out.emit (ClassWriter.POP);
+			}
+			out.invoke (ClassWriter.INVOKESPECIAL, type, INIT, "(Ljava/util/List;)V");
+			return stack;
+		}
+		throw new CompilatorException ("The constant " + value + " can't be compiled ahead of time");
+	}
+
+
+	/**
+	 * Push a variable, from the map in the local variable 1
+	 *
+	 * @param out The code
+	 * @param name The name of the variable
+	 */
+	private static void variable (ClassWriter.Code out, String name) {
+		out.local (ClassWriter.ALOAD, 1);
+		out.push (name);
+		out.invoke (ClassWriter.INVOKEVIRTUAL, MAP, "get", "(Ljava/lang/Object;)Ljava/lang/Object;");
+		out.type (ClassWriter.CHECKCAST, VARIABLE);
+	}
+
+
+
+	/**
+	 * Read the classes of the runtime, from the directory or the JAR which contains the compiler
+	 *
+	 * @return The classes, by name of the entry
+	 * @throws IOException If the classes can't be read
+	 */
+	private static Map <String, byte[]> runtime () throws IOException {
+		Map <String, byte[]> classes = new LinkedHashMap<> ();
+		CodeSource source = AotCompiler.class.getProtectionDomain ().getCodeSource ();
+		if (source == null) {
+			throw new IOException ("Can't find the classes of the runtime");
+		}
+		Path path;
+		try {
+			path = Paths.get (source.getLocation ().toURI ());
+		} catch (URISyntaxException e) {
+			throw new IOException ("Can't find the classes of the runtime", e);
+		}
+		if (Files.isDirectory (path)) {
+			for (String name : PACKAGES) {
+				Path directory = path.resolve (name);
+				if (!Files.isDirectory (directory)) {
+					continue;
+				}
+				try (Stream <Path> files = Files.list (directory)) {
+					for (Path file : (Iterable <Path>) files.sorted ()::iterator) {
+						String entry = name + file.getFileName ();
+						if (isRuntime (entry)) {
+							classes.put (entry, Files.readAllBytes (file));
+						}
+					}
+				}
+			}
+		} else {
+			try (JarFile jar = new JarFile (path.toFile ())) {
+				for (Enumeration <JarEntry> entries = jar.entries (); entries.hasMoreElements ();) {
+					JarEntry entry = entries.nextElement ();
+					if (isRuntime (entry.getName ())) {
+						try (InputStream stream = jar.getInputStream (entry)) {
+							classes.put (entry.getName (), stream.readAllBytes ());
+						}
+					}
+				}
+			}
+		}
+		return classes;
+	}
+
+
+	/**
+	 * Check if an entry is a class of the runtime
+	 *
+	 * @param entry The name of the entry
+	 * @return true if the class must be copied in the JAR
+	 */
+	private static boolean isRuntime (String entry) {
+		if (!entry.endsWith (".class") || entry.equals (MAIN_CLASS.replace ('.', '/') + ".class")) {
+			return false;
+		}
+		for (String name : PACKAGES) {
+			if (entry.startsWith (name) && entry.indexOf ('/', name.length ()) < 0) {
+				if (!name.equals ("compiler/")) {
+					return true;
+				}
+				String simpleName = entry.substring (name.length (), entry.length () - 6);
+				int inner = simpleName.indexOf ('$');
+				return !FRONT_END.contains (inner < 0 ? simpleName : simpleName.substring (0, inner));
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,118 @@
+package compiler;
+
+import expressions.Expression;
+import expressions.Operator;
+import expressions.Value;
+import expressions.Variable;
+
+
+/**
+ * An expression which assigns a value to a target: a variable or an element of an array. Besides =, it handles the operators which combine the
+ * content of the target with the value and assign the result, like += and -=.
+ * <p>
+ * Assignments to a {@link Variable} and the += and -= of numbers take the same fast paths of {@link Bytecode}, the others apply the operator.
+ *
+ * @author MarcoForlini
+ */
+final class AssignNode implements Node {
+
+	private static final long	serialVersionUID	= -5120385529318227405L;
+
+	private final Operator		oper;
+	private final Expression	target;
+	private final Expression	value;
+
+
+
+	/**
+	 * Create a new {@link AssignNode}
+	 *
+	 * @param oper The assignment operator
+	 * @param target The expression which returns the variable or the element to assign
+	 * @param value The value
+	 */
+	AssignNode (Operator oper, Expression target, Expression value) {
+		this.oper = oper;
+		this.target = target;
+		this.value = value;
+	}
+
+
+
+	/**
+	 * Check if an operator assigns a value to its left operand
+	 *
+	 * @param oper The operator
+	 * @return true if the operator is an assignment
+	 */
+	static boolean isAssignment (Operator oper) {
+		switch (oper) {
+			case assign:
+			case sumAndAssign:
+			case diffAndAssign:
+			case multAndAssign:
+			case divAndAssign:
+			case modAndAssign:
+			case powerAndAssign:
+			case bitAndAndSet:
+			case bitOrAndSet:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+
+
+	@Override
+	public Value eval () throws ExecutionException {
+		Value l = target.eval (), r = value.eval ();
+		switch (oper) {
+			case assign:
+				return Bytecode.assign (l, r, oper.ordinal ());
+			case sumAndAssign:
+				return Bytecode.addSet (l, r, oper.ordinal ());
+			case diffAndAssign:
+				return Bytecode.subtractSet (l, r, oper.ordinal ());
+			default:
+				return oper.binaryOp.eval (l, r);
+		}
+	}
+
+
+	@Override
+	public <R> R accept (NodeVisitor <R> visitor) {
+		return visitor.visitAssign (this);
+	}
+
+
+	@Override
+	public Expression[] getChildren () {
+		return new Expression[] { target, value };
+	}
+
+
+	/**
+	 * @return The assignment operator
+	 */
+	Operator getOperator () {
+		return oper;
+	}
+
+
+	/**
+	 * @return The expression which returns the variable or the element to assign
+	 */
+	Expression getTarget () {
+		return target;
+	}
+
+
+	/**
+	 * @return The value
+	 */
+	Expression getValue () {
+		return value;
+	}
+
+}
@@ -0,0 +1,542 @@
+package compiler;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import expressions.Primitive;
+
+
+/**
+ * Executes a {@link CompiledProgram} once for each record of a batch, on a pool of worker threads. This is the entry point to run a program
+ * over many inputs.
+ * <p>
+ * A record binds some variables of the program: a number, a text or null for each variable. Each worker executes the records with its own
+ * {@link ExecutionContext}, reset to its initial values before each record, and collects the values of the output variables into a
+ * {@link Result}. The results are given to a consumer, in the order of the records or as soon as they're ready; the consumer is called by one
+ * thread at a time. A record which fails doesn't stop the batch: its result contains the error. An {@link Error} thrown by a record, like a
+ * {@link StackOverflowError}, is wrapped into an {@link ExecutionException}.
+ * <p>
+ * The contexts of the workers share the {@link Output} and the {@link Input} of the prototype, so the records which print or read must use a
+ * thread-safe channel, like the ones created by the factories of {@link Output} and {@link Input}: each line is read by only one record, and
+ * the text of each Print and Println is written as a whole, interleaved with the text of the other records.
+ * <p>
+ * The runner keeps its contexts between two batches, so it can be used many times. It must not run two batches at the same time.
+ *
+ * @author MarcoForlini
+ */
+public final class BatchRunner {
+
+	/** The records read from the input and not delivered yet, for each worker */
+	private static final int	WINDOW	= 64;
+	/** The task which stops a worker */
+	private static final Task	END		= new Task (-1, null);
+
+	private final ProgramPool	pool;
+	private final int			parallelism;
+	private final boolean		ordered;
+	/** The names of the output variables */
+	private final String[]		outputs;
+	private final int[]			outputSlots;
+
+
+
+	/**
+	 * Create a new {@link BatchRunner}, whose records start with all the variables null
+	 *
+	 * @param program The compiled program
+	 * @param parallelism The number of worker threads
+	 * @param ordered If true, the results are given in the order of the records, otherwise in the order they're ready
+	 * @param outputs The names of the variables collected into the results
+	 * @throws ExecutionException If the program has no variable with one of the given names
+	 * @throws IllegalArgumentException If the parallelism is not positive
+	 */
+	public BatchRunner (CompiledProgram program, int parallelism, boolean ordered, String... outputs) throws ExecutionException {
+		this (program.newContext (), parallelism, ordered, outputs);
+	}
+
+
+	/**
+	 * Create a new {@link BatchRunner}, whose records start with the current values of the given context
+	 *
+	 * @param prototype The context which contains the initial values
+	 * @param parallelism The number of worker threads
+	 * @param ordered If true, the results are given in the order of the records, otherwise in the order they're ready
+	 * @param outputs The names of the variables collected into the results
+	 * @throws ExecutionException If the program has no variable with one of the given names
+	 * @throws IllegalArgumentException If the parallelism is not positive
+	 */
+	public BatchRunner (ExecutionContext prototype, int parallelism, boolean ordered, String... outputs) throws ExecutionException {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException ("The parallelism must be positive: " + parallelism);
+		}
+		outputSlots = new int[outputs.length];
+		for (int i = 0; i < outputs.length; i++) {
+			outputSlots[i] = prototype.getProgram ().slot (outputs[i]);
+		}
+		this.outputs = outputs.clone ();
+		this.parallelism = parallelism;
+		this.ordered = ordered;
+		pool = new ProgramPool (prototype, parallelism);
+	}
+
+
+
+	/**
+	 * Execute the program for each record
+	 *
+	 * @param records The records: the value of some variables, by name
+	 * @param results The consumer of the results
+	 * @return The report of the batch
+	 * @throws InterruptedException If the thread is interrupted while waiting for the workers
+	 * @throws RuntimeException If reading the records or consuming a result fails: the batch stops after the records already started
+	 */
+	public Report run (Iterable <? extends Map <String, ?>> records, Consumer <? super Result> results) throws InterruptedException {
+		return run (records.iterator (), results);
+	}
+
+
+	/**
+	 * Execute the program for each record
+	 *
+	 * @param records The records: the value of some variables, by name
+	 * @param results The consumer of the results
+	 * @return The report of the batch
+	 * @throws InterruptedException If the thread is interrupted while waiting for the workers
+	 * @throws RuntimeException If reading the records or consuming a result fails: the batch stops after the records already started
+	 */
+	public Report run (Stream <? extends Map <String, ?>> records, Consumer <? super Result> results) throws InterruptedException {
+		return run (records.iterator (), results);
+	}
+
+
+	/**
+	 * Execute the program for each record of a columnar batch: the n-th record binds each variable to the n-th value of its column
+	 *
+	 * @param columns The values of each variable, by name. All the columns must have the same size.
+	 * @param results The consumer of the results
+	 * @return The report of the batch
+	 * @throws ExecutionException If the program has no variable with the name of a column
+	 * @throws InterruptedException If the thread is interrupted while waiting for the workers
+	 * @throws IllegalArgumentException If the columns have different sizes
+	 * @throws RuntimeException If consuming a result fails: the batch stops after the records already started
+	 */
+	public Report runColumns (Map <String, ? extends List <?>> columns, Consumer <? super Result> results) throws ExecutionException, InterruptedException {
+		int[] slots = new int[columns.size ()];
+		List <?>[] values = new List <?>[columns.size ()];
+		int size = -1, c = 0;
+		for (Map.Entry <String, ? extends List <?>> column : columns.entrySet ()) {
+			slots[c] = pool.getProgram ().slot (column.getKey ());
+			values[c] = column.getValue ();
+			if (size >= 0 && size != values[c].size ()) {
+				throw new IllegalArgumentException ("The columns have different sizes");
+			}
+			size = values[c++].size ();
+		}
+		int records = Math.max (size, 0);
+		int[] next = { 0 };
+		return execute (() -> {
+			if (next[0] >= records) {
+				return null;
+			}
+			int row = next[0]++;
+			return context -> {
+				for (int i = 0; i < slots.length; i++) {
+					bind (context, slots[i], values[i].get (row));
+				}
+			};
+		}, results);
+	}
+
+
+
+	private Report run (Iterator <? extends Map <String, ?>> records, Consumer <? super Result> results) throws InterruptedException {
+		CompiledProgram program = pool.getProgram ();
+		return execute (() -> {
+			if (!records.hasNext ()) {
+				return null;
+			}
+			Map <String, ?> bindings = records.next ();
+			return context -> {
+				for (Map.Entry <String, ?> binding : bindings.entrySet ()) {
+					bind (context, program.slot (binding.getKey ()), binding.getValue ());
+				}
+			};
+		}, results);
+	}
+
+
+	/**
+	 * Bind a value to a variable
+	 *
+	 * @param context The context
+	 * @param slot The slot of the variable
+	 * @param value The value: a number, a text or null
+	 * @throws ExecutionException If the value is of another type, or the variable is constant
+	 */
+	private static void bind (ExecutionContext context, int slot, Object value) throws ExecutionException {
+		if (value == null) {
+			context.setVariable (slot);
+		} else if (value instanceof Number) {
+			context.setVariable (slot, ((Number) value).floatValue ());
+		} else if (value instanceof String) {
+			context.setVariable (slot, (String) value);
+		} else {
+			throw new ExecutionException ("Can't assign a value of type " + value.getClass ().getSimpleName () + " to a variable");
+		}
+	}
+
+
+	/**
+	 * Execute the records given by the input, until it returns null
+	 *
+	 * @param input The input
+	 * @param results The consumer of the results
+	 * @return The report of the batch
+	 * @throws InterruptedException If the thread is interrupted while waiting for the workers
+	 */
+	private Report execute (Supplier <Record> input, Consumer <? super Result> results) throws InterruptedException {
+		Batch batch = new Batch (results);
+		ExecutorService workers = Executors.newFixedThreadPool (parallelism);
+		long start = System.nanoTime ();
+		long count = 0;
+		try {
+			for (int i = 0; i < parallelism; i++) {
+				workers.execute (batch::work);
+			}
+			for (Record record; batch.failure == null && (record = input.get ()) != null; count++) {
+				batch.window.acquire ();
+				batch.queue.add (new Task (count, record));
+			}
+			for (int i = 0; i < parallelism; i++) {
+				batch.queue.add (END);
+			}
+			workers.shutdown ();
+			workers.awaitTermination (Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} finally {
+			workers.shutdownNow (); // Stops the workers if the input failed or the thread has been interrupted
+		}
+		if (batch.failure instanceof RuntimeException) {
+			throw (RuntimeException) batch.failure;
+		} else if (batch.failure instanceof Error) {
+			throw (Error) batch.failure;
+		}
+		return new Report (count, batch.failed.get (), System.nanoTime () - start, parallelism);
+	}
+
+
+
+	/**
+	 * Binds the variables of a record
+	 */
+	@FunctionalInterface
+	private interface Record {
+
+		void bind (ExecutionContext context) throws ExecutionException;
+
+	}
+
+
+	/**
+	 * A record and its position in the batch
+	 */
+	private static final class Task {
+
+		final long		index;
+		final Record	record;
+
+		Task (long index, Record record) {
+			this.index = index;
+			this.record = record;
+		}
+
+	}
+
+
+	/**
+	 * The state of a batch, shared by the workers
+	 */
+	private final class Batch {
+
+		final BlockingQueue <Task>		queue		= new LinkedBlockingQueue<> ();
+		/** The records which can be read before the oldest one is delivered */
+		final Semaphore					window		= new Semaphore (parallelism * WINDOW);
+		final AtomicLong				failed		= new AtomicLong ();
+		private final Consumer <? super Result>	consumer;
+		/** The results ready before the previous ones, when the results are ordered */
+		private final Map <Long, Result>	pending		= new HashMap<> ();
+		private long						nextIndex;
+		/** The first exception thrown by the consumer */
+		volatile Throwable					failure;
+
+		Batch (Consumer <? super Result> consumer) {
+			this.consumer = consumer;
+		}
+
+
+		/**
+		 * Execute the tasks of the queue with a context of the pool, until the end of the batch
+		 */
+		void work () {
+			ExecutionContext context;
+			try {
+				context = pool.borrow ();
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				for (Task task = queue.take (); task != END; task = queue.take ()) {
+					deliver (execute (context, task));
+				}
+			} catch (InterruptedException e) {
+				// The batch has been stopped
+			} finally {
+				pool.release (context);
+			}
+		}
+
+
+		private Result execute (ExecutionContext context, Task task) {
+			try {
+				context.reset ();
+				task.record.bind (context);
+				context.run ();
+				Primitive[] values = new Primitive[outputSlots.length];
+				for (int i = 0; i < values.length; i++) {
+					values[i] = context.getValue (outputSlots[i]);
+				}
+				return new Result (task.index, outputs, values, null);
+			} catch (ExecutionException | RuntimeException e) {
+				failed.incrementAndGet ();
+				return new Result (task.index, outputs, null, e);
+			} catch (Error e) { // Like a StackOverflowError: the record fails, but the worker goes on and its result is delivered
+				failed.incrementAndGet ();
+				return new Result (task.index, outputs, null, new ExecutionException ("The program failed: " + e, e));
+			}
+		}
+
+
+		private synchronized void deliver (Result result) {
+			if (!ordered) {
+				accept (result);
+				return;
+			}
+			pending.put (result.index, result);
+			for (Result next; (next = pending.remove (nextIndex)) != null; nextIndex++) {
+				accept (next);
+			}
+		}
+
+
+		private void accept (Result result) {
+			if (failure == null) {
+				try {
+					consumer.accept (result);
+				} catch (RuntimeException | Error e) {
+					failure = e;
+				}
+			}
+			window.release ();
+		}
+
+	}
+
+
+
+	/**
+	 * The result of a record: the values of the output variables, or the error which stopped the program
+	 *
+	 * @author MarcoForlini
+	 */
+	public static final class Result {
+
+		private final long			index;
+		private final String[]		names;
+		private final Primitive[]	values;
+		private final Exception		error;
+
+		Result (long index, String[] names, Primitive[] values, Exception error) {
+			this.index = index;
+			this.names = names;
+			this.values = values;
+			this.error = error;
+		}
+
+
+		/**
+		 * Get the position of the record in the batch
+		 *
+		 * @return The index of the record, from 0
+		 */
+		public long getIndex () {
+			return index;
+		}
+
+
+		/**
+		 * Check if the program failed
+		 *
+		 * @return true if the program failed
+		 */
+		public boolean isFailed () {
+			return error != null;
+		}
+
+
+		/**
+		 * Get the error which stopped the program
+		 *
+		 * @return The error, or null if the program didn't fail
+		 */
+		public Exception getError () {
+			return error;
+		}
+
+
+		/**
+		 * Get the value of an output variable
+		 *
+		 * @param output The position of the variable in the outputs of the runner
+		 * @return The value
+		 * @throws IllegalStateException If the program failed
+		 */
+		public Primitive get (int output) {
+			if (error != null) {
+				throw new IllegalStateException ("The record " + index + " failed", error);
+			}
+			return values[output];
+		}
+
+
+		/**
+		 * Get the value of an output variable
+		 *
+		 * @param name The name of the variable
+		 * @return The value
+		 * @throws IllegalArgumentException If the variable is not an output of the runner
+		 * @throws IllegalStateException If the program failed
+		 */
+		public Primitive get (String name) {
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].equals (name)) {
+					return get (i);
+				}
+			}
+			throw new IllegalArgumentException ("The variable " + name + " is not an output");
+		}
+
+
+		/**
+		 * Get the values of the output variables
+		 *
+		 * @return A new map with the value of each output variable, by name
+		 * @throws IllegalStateException If the program failed
+		 */
+		public Map <String, Primitive> toMap () {
+			Map <String, Primitive> map = new LinkedHashMap<> (names.length * 4 / 3 + 1);
+			for (int i = 0; i < names.length; i++) {
+				map.put (names[i], get (i));
+			}
+			return map;
+		}
+
+
+		@Override
+		public String toString () {
+			return index + ": " + (error != null ? error.toString () : toMap ().toString ());
+		}
+
+	}
+
+
+
+	/**
+	 * The throughput of a batch
+	 *
+	 * @author MarcoForlini
+	 */
+	public static final class Report {
+
+		private final long	records;
+		private final long	failed;
+		private final long	nanos;
+		private final int	parallelism;
+
+		Report (long records, long failed, long nanos, int parallelism) {
+			this.records = records;
+			this.failed = failed;
+			this.nanos = nanos;
+			this.parallelism = parallelism;
+		}
+
+
+		/**
+		 * Get the number of records executed
+		 *
+		 * @return The number of records
+		 */
+		public long getRecords () {
+			return records;
+		}
+
+
+		/**
+		 * Get the number of records whose program failed
+		 *
+		 * @return The number of failed records
+		 */
+		public long getFailed () {
+			return failed;
+		}
+
+
+		/**
+		 * Get the time spent by the batch
+		 *
+		 * @return The time, in nanoseconds
+		 */
+		public long getElapsedNanos () {
+			return nanos;
+		}
+
+
+		/**
+		 * Get the number of worker threads
+		 *
+		 * @return The parallelism
+		 */
+		public int getParallelism () {
+			return parallelism;
+		}
+
+
+		/**
+		 * Get the throughput of the batch
+		 *
+		 * @return The records executed per second
+		 */
+		public double getThroughput () {
+			return nanos > 0 ? records * 1e9 / nanos : 0;
+		}
+
+
+		@Override
+		public String toString () {
+			return String.format ("%d records (%d failed) in %.3f ms with %d workers: %.0f records/s", records, failed, nanos / 1e6, parallelism, getThroughput ());
+		}
+
+	}
+
+}
@@ -0,0 +1,293 @@
+package compiler;
+
+import expressions.Expression;
+import expressions.Operator;
+import expressions.Primitive;
+import expressions.ValArray;
+import expressions.ValNumber;
+import expressions.ValString;
+import expressions.Value;
+import expressions.Variable;
+
+
+/**
+ * An expression which applies a binary {@link Operator} to two expressions, and specializes itself on the types of the operands it sees.
+ * <p>
+ * The node starts in the generic state and records the types of its first evaluations. If they always have the same types, and the operator has a fast
+ * path for them, the node switches to a specialized state: the fast path skips the dispatch of the operator, the delegation of {@link Variable} and the
+ * instanceof checks of the values. Each specialized state is guarded: if the operands don't match, the node deoptimizes and starts recording again,
+ * until it gives up and stays generic.
+ * <p>
+ * The fast paths produce exactly the same results and errors of the operator. The state is not serialized: a node read from a file warms up again.
+ * <p>
+ * The lazy operators, the assignments and the element access have their own nodes: {@link LazyNode}, {@link AssignNode} and {@link ElementAtNode}.
+ *
+ * @author MarcoForlini
+ */
+final class BinaryNode implements Node {
+
+	private static final long	serialVersionUID	= 3470212375815346610L;
+
+	/** The number of evaluations recorded before choosing a state */
+	private static final int	WARMUP				= 8;
+	/** The number of deoptimizations after which the node stays generic */
+	private static final int	MAX_DEOPTIMIZATIONS	= 4;
+
+	/** Recording the types of the operands */
+	private static final int	UNINITIALIZED		= 0;
+	/** Apply the operator */
+	private static final int	GENERIC				= 1;
+	/** Both operands are numbers */
+	private static final int	NUMBERS				= 2;
+	/** Concatenate a string with any value */
+	private static final int	STRING_ADD			= 3;
+	/** Append any value to an array */
+	private static final int	ARRAY_ADD			= 4;
+
+	/** The kinds of the operands, recorded while warming up */
+	private static final int	OTHER				= 0;
+	private static final int	NUMBER				= 1;
+	private static final int	STRING				= 2;
+	private static final int	ARRAY				= 3;
+
+	private final Operator		oper;
+	/** The opcode of the operator in {@link Bytecode}, which selects the fast path */
+	private final transient int	opcode;
+	private final Expression	lExpr;
+	private final Expression	rExpr;
+	private transient int		state;
+	/** The combinations of kinds seen while warming up, one bit for each (left, right) pair */
+	private transient int		seen;
+	private transient int		samples;
+	private transient int		deoptimizations;
+
+
+
+	/**
+	 * Create a new {@link BinaryNode}
+	 *
+	 * @param oper The operator
+	 * @param lExpr The left operand
+	 * @param rExpr The right operand
+	 */
+	BinaryNode (Operator oper, Expression lExpr, Expression rExpr) {
+		this.oper = oper;
+		this.lExpr = lExpr;
+		this.rExpr = rExpr;
+		opcode = Bytecode.opcode (oper);
+		state = opcode == Bytecode.BINARY ? GENERIC : UNINITIALIZED;
+	}
+
+
+	/**
+	 * Start from the initial state when the node is read from a file
+	 *
+	 * @return A new node
+	 */
+	private Object readResolve () {
+		return new BinaryNode (oper, lExpr, rExpr);
+	}
+
+
+
+	@Override
+	public Value eval () throws ExecutionException {
+		Value l = lExpr.eval (), r = rExpr.eval ();
+		switch (state) {
+			case NUMBERS:
+				ValNumber ln = Bytecode.number (l);
+				if (ln != null) {
+					Value result = numbers (ln, r);
+					if (result != null) {
+						return result;
+					}
+				}
+				break;
+			case STRING_ADD:
+				Primitive ls = content (l, ValString.class);
+				if (ls != null) {
+					return ls.add (l == ls ? r : r.getPrimitive ());
+				}
+				break;
+			case ARRAY_ADD:
+				Primitive la = content (l, ValArray.class);
+				if (la != null) {
+					return la.add (r);
+				}
+				break;
+			case UNINITIALIZED:
+				record (l, r);
+				return oper.binaryOp.eval (l, r);
+			default:
+				return oper.binaryOp.eval (l, r);
+		}
+		deoptimize ();
+		return oper.binaryOp.eval (l, r);
+	}
+
+
+	/**
+	 * Apply the operator to two numbers
+	 *
+	 * @param ln The number of the left operand
+	 * @param r The right operand
+	 * @return The result, or null if the operands don't match the fast path
+	 */
+	private Value numbers (ValNumber ln, Value r) {
+		ValNumber rn = rightNumber (r);
+		if (rn == null) {
+			return null;
+		}
+		float lv = ln.value (), rv = rn.value ();
+		switch (opcode) {
+			case Bytecode.ADD:
+				return Bytecode.result (ln, lv + rv);
+			case Bytecode.SUBTRACT:
+				return Bytecode.result (ln, lv - rv);
+			case Bytecode.MULTIPLY:
+				return Bytecode.result (ln, lv * rv);
+			case Bytecode.DIVIDE:
+				return Bytecode.result (ln, lv / rv);
+			case Bytecode.MODULE:
+				return Bytecode.result (ln, lv % rv);
+			case Bytecode.LESS:
+				return lv < rv ? Value.True : Value.False;
+			case Bytecode.LESS_EQUAL:
+				return lv <= rv ? Value.True : Value.False;
+			case Bytecode.GREATER:
+				return lv > rv ? Value.True : Value.False;
+			case Bytecode.GREATER_EQUAL:
+				return lv >= rv ? Value.True : Value.False;
+			case Bytecode.EQUAL:
+				return lv == rv ? Value.True : Value.False;
+			case Bytecode.DIFFERENT:
+				return lv != rv ? Value.True : Value.False;
+			default:
+				return null;
+		}
+	}
+
+
+	/**
+	 * Get the number of the right operand, if the fast path accepts it. Subtract only accepts a number, not a variable which contains a
+	 * number, since {@link ValNumber#subtract(Value)} rejects the variables.
+	 *
+	 * @param r The right operand
+	 * @return The number, or null
+	 */
+	private ValNumber rightNumber (Value r) {
+		if (opcode == Bytecode.SUBTRACT) {
+			return r.getClass () == ValNumber.class ? (ValNumber) r : null;
+		}
+		return Bytecode.number (r);
+	}
+
+
+	@Override
+	public <R> R accept (NodeVisitor <R> visitor) {
+		return visitor.visitBinary (this);
+	}
+
+
+	@Override
+	public Expression[] getChildren () {
+		return new Expression[] { lExpr, rExpr };
+	}
+
+
+	/**
+	 * @return The operator
+	 */
+	Operator getOperator () {
+		return oper;
+	}
+
+
+	/**
+	 * @return The left operand
+	 */
+	Expression getLeft () {
+		return lExpr;
+	}
+
+
+	/**
+	 * @return The right operand
+	 */
+	Expression getRight () {
+		return rExpr;
+	}
+
+
+
+	/**
+	 * Record the kinds of the operands, then choose the state at the end of the warm up
+	 *
+	 * @param l The left operand
+	 * @param r The right operand
+	 */
+	private void record (Value l, Value r) {
+		int rightKind = kind (r);
+		if (rightKind == NUMBER && rightNumber (r) == null) {
+			rightKind = OTHER;
+		}
+		seen |= 1 << (kind (l) << 2 | rightKind);
+		if (++samples < WARMUP) {
+			return;
+		}
+		state = GENERIC;
+		if (Integer.bitCount (seen) == 1) {
+			int left = Integer.numberOfTrailingZeros (seen) >> 2, right = Integer.numberOfTrailingZeros (seen) & 3;
+			if (left == NUMBER && right == NUMBER) {
+				state = NUMBERS;
+			} else if (oper == Operator.sum && left == STRING) {
+				state = STRING_ADD;
+			} else if (oper == Operator.sum && left == ARRAY) {
+				state = ARRAY_ADD;
+			}
+		}
+	}
+
+
+	/**
+	 * Go back to the generic state after a guard failed, and record the types again unless the node deoptimized too many times
+	 */
+	private void deoptimize () {
+		seen = 0;
+		samples = 0;
+		state = ++deoptimizations < MAX_DEOPTIMIZATIONS ? UNINITIALIZED : GENERIC;
+	}
+
+
+	private static int kind (Value value) {
+		if (Bytecode.number (value) != null) {
+			return NUMBER;
+		} else if (content (value, ValString.class) != null) {
+			return STRING;
+		} else if (content (value, ValArray.class) != null) {
+			return ARRAY;
+		}
+		return OTHER;
+	}
+
+
+	/**
+	 * Get the primitive of a value, if the value or the content of the variable is exactly of the given class (not a subclass)
+	 *
+	 * @param value The value
+	 * @param type The class
+	 * @return The primitive, or null
+	 */
+	private static Primitive content (Value value, Class <? extends Primitive> type) {
+		if (value.getClass () == type) {
+			return (Primitive) value;
+		} else if (value.getClass () == Variable.class) {
+			Primitive primitive = ((Variable) value).getValue ();
+			if (primitive.getClass () == type) {
+				return primitive;
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,190 @@
+package compiler;
+
+import java.time.Duration;
+
+
+/**
+ * The limits of an execution: the number of instructions it executes, the number of times it repeats a loop and the time it runs. An
+ * execution which exceeds one of them fails with a {@link BudgetExceededException}, so a program which never ends can't keep its thread busy
+ * forever.
+ * <p>
+ * The limits are only checked when a loop is repeated, so the executions without a budget pay nothing and the others pay a few operations
+ * for each iteration. Each iteration counts all the instructions of the loop, even the ones it skips, and the instructions outside the loops
+ * are not counted: since they're executed at most once between two iterations, the program can't exceed the limit by more than its own
+ * length. The time is the time spent executing: an execution suspended on a Read, or which has yielded, doesn't consume it.
+ * <p>
+ * A budget is immutable and can be shared by many programs and contexts: each execution has its own count.
+ *
+ * @author MarcoForlini
+ */
+public final class Budget {
+
+	/**
+	 * A limit of a {@link Budget}
+	 *
+	 * @author MarcoForlini
+	 */
+	public enum Limit {
+		/** The number of instructions executed */
+		INSTRUCTIONS,
+		/** The number of iterations of the loops */
+		BACK_EDGES,
+		/** The time spent executing */
+		TIME
+	}
+
+	/** The number of instructions executed between two reads of the clock */
+	private static final int	CLOCK	= 4096;
+
+	private final long			instructions;
+	private final long			backEdges;
+	private final long			nanos;
+
+
+
+	/**
+	 * Create a new {@link Budget}
+	 *
+	 * @param instructions The maximum number of instructions, or 0 for no limit
+	 * @param backEdges The maximum number of loop iterations, or 0 for no limit
+	 * @param time The maximum time, or null for no limit
+	 * @throws IllegalArgumentException If a limit is negative, or if the time is zero
+	 */
+	public Budget (long instructions, long backEdges, Duration time) {
+		if (instructions < 0) {
+			throw new IllegalArgumentException ("The number of instructions can't be negative: " + instructions);
+		} else if (backEdges < 0) {
+			throw new IllegalArgumentException ("The number of loop iterations can't be negative: " + backEdges);
+		} else if (time != null && (time.isNegative () || time.isZero ())) {
+			throw new IllegalArgumentException ("The time must be positive: " + time);
+		}
+		this.instructions = instructions;
+		this.backEdges = backEdges;
+		nanos = time != null ? saturatedNanos (time) : 0;
+	}
+
+
+
+	/**
+	 * Get the maximum number of instructions
+	 *
+	 * @return The number of instructions, or 0 if there's no limit
+	 */
+	public long getInstructions () {
+		return instructions;
+	}
+
+
+	/**
+	 * Get the maximum number of loop iterations
+	 *
+	 * @return The number of iterations, or 0 if there's no limit
+	 */
+	public long getBackEdges () {
+		return backEdges;
+	}
+
+
+	/**
+	 * Get the maximum time
+	 *
+	 * @return The time, or null if there's no limit
+	 */
+	public Duration getTime () {
+		return nanos > 0 ? Duration.ofNanos (nanos) : null;
+	}
+
+
+	@Override
+	public String toString () {
+		return "Budget [instructions=" + instructions + ", backEdges=" + backEdges + ", time=" + getTime () + "]";
+	}
+
+
+	/**
+	 * Start counting an execution
+	 *
+	 * @return The meter of the execution, whose time is already running
+	 */
+	Meter meter () {
+		return new Meter ();
+	}
+
+
+	private static long saturatedNanos (Duration time) {
+		try {
+			return time.toNanos ();
+		} catch (ArithmeticException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+
+
+	/**
+	 * The count of an execution: what's left of each limit. The limits which don't exist start from {@link Long#MAX_VALUE}, so they're never
+	 * reached and the checks don't need to know which limits exist.
+	 *
+	 * @author MarcoForlini
+	 */
+	final class Meter {
+
+		private long	instructions	= Budget.this.instructions > 0 ? Budget.this.instructions : Long.MAX_VALUE;
+		private long	backEdges		= Budget.this.backEdges > 0 ? Budget.this.backEdges : Long.MAX_VALUE;
+		/** The time left when the execution is suspended */
+		private long	nanos			= Budget.this.nanos;
+		/** The value of {@link System#nanoTime()} when the time ends */
+		private long	deadline;
+		/** The instructions left before the next read of the clock */
+		private int		clock			= CLOCK;
+
+
+
+		private Meter () {
+			resume ();
+		}
+
+
+
+		/**
+		 * Count an iteration of a loop
+		 *
+		 * @param length The number of instructions of the loop
+		 * @throws BudgetExceededException If a limit has been exceeded
+		 */
+		void backEdge (int length) throws BudgetExceededException {
+			if ((instructions -= length) < 0) {
+				throw new BudgetExceededException (Limit.INSTRUCTIONS, "The program has executed more than " + Budget.this.instructions + " instructions");
+			} else if (--backEdges < 0) {
+				throw new BudgetExceededException (Limit.BACK_EDGES, "The program has repeated its loops more than " + Budget.this.backEdges + " times");
+			} else if ((clock -= length) <= 0) {
+				clock = CLOCK;
+				if (nanos > 0 && System.nanoTime () - deadline > 0) {
+					throw new BudgetExceededException (Limit.TIME, "The program has run for more than " + getTime ());
+				}
+			}
+		}
+
+
+		/**
+		 * Stop the time, when the execution is suspended
+		 */
+		void pause () {
+			if (nanos > 0) {
+				nanos = Math.max (deadline - System.nanoTime (), 1);
+			}
+		}
+
+
+		/**
+		 * Restart the time, when the execution continues
+		 */
+		void resume () {
+			if (nanos > 0) {
+				deadline = System.nanoTime () + nanos; // Compared by difference, so it can overflow
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,31 @@
+package compiler;
+
+/**
+ * Exception for the executions which exceed their {@link Budget}
+ * @author MarcoForlini
+ */
+public class BudgetExceededException extends ExecutionException {
+
+	private static final long serialVersionUID = -4127603958221347780L;
+
+	private final Budget.Limit limit;
+
+	/**
+	 * Creates a new {@link BudgetExceededException}
+	 * @param limit		The limit which has been exceeded
+	 * @param message	The message
+	 */
+	public BudgetExceededException (Budget.Limit limit, String message) {
+		super (message);
+		this.limit = limit;
+	}
+
+	/**
+	 * Get the limit which has been exceeded
+	 * @return	The limit
+	 */
+	public Budget.Limit getLimit () {
+		return limit;
+	}
+
+}
@@ -0,0 +1,124 @@
+package compiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * An {@link Output} which collects the text in a buffer and writes it in blocks, when the buffer is full or when its {@link FlushPolicy}
+ * requires it. Created by the factories of {@link Output}.
+ * <p>
+ * The output can be shared by many contexts: the text of each Print and Println is written as a whole, but the texts of the contexts which
+ * run at the same time are interleaved.
+ * @author MarcoForlini
+ */
+public final class BufferedOutput implements Output, Closeable {
+
+	/**
+	 * When a {@link BufferedOutput} writes the text
+	 * @author MarcoForlini
+	 */
+	public enum FlushPolicy {
+		/** After each Print and Println */
+		EACH_PRINT,
+		/** After each Println */
+		EACH_LINE,
+		/** At the end of each execution of the program */
+		EACH_RUN,
+		/** Only when the buffer is full, or when {@link BufferedOutput#flush()} or {@link BufferedOutput#close()} is called */
+		MANUAL
+	}
+
+	private static final String NEW_LINE = System.lineSeparator();
+	private static final int SIZE = 8192;
+
+	private final Writer writer;
+	private final FlushPolicy policy;
+	/** If true, {@link #close()} closes the writer */
+	private final boolean closes;
+	private final char[] buffer = new char[SIZE];
+	private int size;
+
+	/**
+	 * Create a new {@link BufferedOutput}
+	 * @param writer	The writer which receives the text
+	 * @param policy	When the text is flushed
+	 * @param closes	If true, {@link #close()} closes the writer
+	 */
+	BufferedOutput(Writer writer, FlushPolicy policy, boolean closes){
+		this.writer = writer;
+		this.policy = policy;
+		this.closes = closes;
+	}
+
+	/**
+	 * Get the flush policy
+	 * @return	When the text is flushed
+	 */
+	public FlushPolicy getPolicy(){
+		return policy;
+	}
+
+	@Override
+	public synchronized void print(String text) throws IOException {
+		append(text);
+		if (policy == FlushPolicy.EACH_PRINT){
+			flush();
+		}
+	}
+
+	@Override
+	public synchronized void println(String text) throws IOException {
+		append(text);
+		append(NEW_LINE);
+		if (policy == FlushPolicy.EACH_PRINT || policy == FlushPolicy.EACH_LINE){
+			flush();
+		}
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		writeBuffer();
+		writer.flush();
+	}
+
+	@Override
+	public synchronized void endRun() throws IOException {
+		if (policy != FlushPolicy.MANUAL){
+			flush();
+		}
+	}
+
+	/**
+	 * Flush the text, then close the writer (unless it's the standard output)
+	 * @throws IOException	If the text can't be written
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		flush();
+		if (closes){
+			writer.close();
+		}
+	}
+
+	private void append(String text) throws IOException {
+		int length = text.length();
+		if (length > SIZE - size){
+			writeBuffer();
+			if (length > SIZE){
+				writer.write(text);
+				return;
+			}
+		}
+		text.getChars(0, length, buffer, size);
+		size += length;
+	}
+
+	private void writeBuffer() throws IOException {
+		if (size > 0){
+			writer.write(buffer, 0, size);
+			size = 0;
+		}
+	}
+
+}
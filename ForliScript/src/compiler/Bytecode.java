@@ -0,0 +1,1220 @@
+package compiler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import expressions.Expression;
+import expressions.Operator;
+import expressions.Primitive;
+import expressions.STDFunction;
+import expressions.ValNumber;
+import expressions.Value;
+import expressions.Variable;
+import instruction.Instruction;
+import instruction.InstructionCheckpoint;
+import instruction.InstructionElse;
+import instruction.InstructionElseIf;
+import instruction.InstructionEndIf;
+import instruction.InstructionExpression;
+import instruction.InstructionIf;
+import instruction.InstructionJump;
+import instruction.InstructionLoop;
+import instruction.InstructionPrint;
+import instruction.InstructionPrintln;
+import instruction.InstructionRead;
+import instruction.InstructionReturn;
+import instruction.InstructionWhile;
+
+
+/**
+ * A {@link Program} compiled into a dense stream of opcodes, executed by {@link Engine#BYTECODE}.
+ * <p>
+ * The code works on a frame of registers: the variables of the program in the order of their slots, the constant values, then the temporary registers which
+ * contain the partial results of the expressions. Each operation reads its operands from the frame and writes its result into a temporary register,
+ * so the code only contains integers. The control flow instructions become jumps to the position of their destination in the code.
+ * Instructions without a specific opcode are executed by calling {@link Instruction#execute(Program)}.
+ * <p>
+ * The code is never modified by an execution: the frame is created by each execution from the values of an {@link ExecutionContext}, so the
+ * same code can be executed by many threads at the same time.
+ * <p>
+ * The code produces exactly the same output and errors of the instructions it's compiled from.
+ *
+ * @author MarcoForlini
+ */
+final class Bytecode {
+
+	/** UNARY op dst a: apply the unary operator op to a */
+	static final int	UNARY			= 0;
+	/** BINARY op dst a b: apply the binary operator op to a and b */
+	static final int	BINARY			= 1;
+	/** ADD op dst a b: like BINARY, with a fast path for numbers */
+	static final int	ADD				= 2;
+	/** SUBTRACT op dst a b: like BINARY, with a fast path for numbers */
+	static final int	SUBTRACT		= 3;
+	/** MULTIPLY op dst a b: like BINARY, with a fast path for numbers */
+	static final int	MULTIPLY		= 4;
+	/** DIVIDE op dst a b: like BINARY, with a fast path for numbers */
+	static final int	DIVIDE			= 5;
+	/** MODULE op dst a b: like BINARY, with a fast path for numbers */
+	static final int	MODULE			= 6;
+	/** ASSIGN op dst a b: like BINARY, with a fast path for variables */
+	static final int	ASSIGN			= 7;
+	/** LESS op dst a b: like BINARY, with a fast path for numbers */
+	static final int	LESS			= 8;
+	/** LESS_EQUAL op dst a b: like BINARY, with a fast path for numbers */
+	static final int	LESS_EQUAL		= 9;
+	/** GREATER op dst a b: like BINARY, with a fast path for numbers */
+	static final int	GREATER			= 10;
+	/** GREATER_EQUAL op dst a b: like BINARY, with a fast path for numbers */
+	static final int	GREATER_EQUAL	= 11;
+	/** EQUAL op dst a b: like BINARY, with a fast path for numbers */
+	static final int	EQUAL			= 12;
+	/** DIFFERENT op dst a b: like BINARY, with a fast path for numbers */
+	static final int	DIFFERENT		= 13;
+	/** ADD_SET op dst a b: like BINARY, with a fast path for variables which contain a number */
+	static final int	ADD_SET			= 14;
+	/** SUBTRACT_SET op dst a b: like BINARY, with a fast path for variables which contain a number */
+	static final int	SUBTRACT_SET	= 15;
+	/** CALL f n dst a1...an: call the function f with n parameters */
+	static final int	CALL			= 16;
+	/** PRINT a: print a */
+	static final int	PRINT			= 17;
+	/** PRINTLN a: print a and a new line */
+	static final int	PRINTLN			= 18;
+	/** JUMP pos: continue from the position pos */
+	static final int	JUMP			= 19;
+	/** JUMP_IF_FALSE a pos: continue from the position pos if a is false */
+	static final int	JUMP_IF_FALSE	= 20;
+	/** EXECUTE i: execute the instruction i */
+	static final int	EXECUTE			= 21;
+	/** HALT: stop the program */
+	static final int	HALT			= 22;
+	/** TRAP: a jump to an invalid instruction */
+	static final int	TRAP			= 23;
+	/** TEST dst a: dst = true if a is true, false otherwise */
+	static final int	TEST			= 24;
+	/** JUMP_IF_TRUE a pos: continue from the position pos if a is true */
+	static final int	JUMP_IF_TRUE	= 25;
+	/** READ a: read a line from the input into the variable a */
+	static final int	READ			= 26;
+	/** CHECKPOINT: save a checkpoint, if the context has a sink */
+	static final int	CHECKPOINT		= 27;
+
+	private static final Operator[]		OPERATORS	= Operator.values ();
+	private static final STDFunction[]	FUNCTIONS	= STDFunction.values ();
+
+
+	final int[]			code;
+	/** The variables and the constants, at the start of the frame */
+	final Value[]		values;
+	/** The number of variables of the program: the registers of their slots */
+	final int			variables;
+	final int			temporaries;
+	final Instruction[]	instructions;
+	/** The position in the code of each instruction */
+	final int[]			starts;
+	/** True if the code contains a READ, which can suspend the execution */
+	final boolean		reads;
+	/** The number of operations of each loop, at the position of the JUMP which repeats it */
+	final int[]			loopCosts;
+	/** The number of instructions of each loop, at the position of the JUMP which repeats it */
+	final int[]			loopLengths;
+
+
+
+	/**
+	 * Create a new {@link Bytecode}
+	 *
+	 * @param builder The builder which contains the code
+	 * @param instructions The instructions
+	 * @param starts The position in the code of each instruction
+	 */
+	private Bytecode (Builder builder, Instruction[] instructions, int[] starts) {
+		code = Arrays.copyOf (builder.code, builder.length);
+		values = builder.values.toArray (new Value[builder.values.size ()]);
+		variables = builder.variables;
+		temporaries = builder.temporaries;
+		this.instructions = instructions;
+		this.starts = starts;
+		boolean reads = false;
+		int[] ordinals = new int[code.length];
+		int operations = 0;
+		for (int pc = 0; pc < code.length; pc += length (code, pc)) {
+			reads |= code[pc] == READ;
+			ordinals[pc] = operations++;
+		}
+		this.reads = reads;
+		loopCosts = new int[code.length];
+		loopLengths = new int[code.length];
+		for (int pc = 0; pc < code.length; pc += length (code, pc)) {
+			if (code[pc] == JUMP && code[pc + 1] <= pc) {
+				loopCosts[pc] = ordinals[pc] - ordinals[code[pc + 1]] + 1;
+				loopLengths[pc] = instructionAt (pc) - instructionAt (code[pc + 1]) + 1; // Like the jump of the Loop to its While
+			}
+		}
+	}
+
+
+
+	/**
+	 * Compile a program into bytecode
+	 *
+	 * @param program The program
+	 * @return The compiled code
+	 */
+	static Bytecode compile (Program program) {
+		List <Instruction> list = program.getInstructions ();
+		int n = list.size ();
+		Instruction[] instructions = list.toArray (new Instruction[n]);
+		int[] starts = new int[n];
+		Builder builder = new Builder (program.getSlots ());
+		List <Integer> jumps = new ArrayList<> ();
+
+		for (int i = 0; i < n; i++) {
+			Instruction instruction = instructions[i];
+			starts[i] = builder.length;
+			if (instruction instanceof InstructionElse || instruction instanceof InstructionEndIf) {
+				continue;
+			} else if (instruction instanceof InstructionReturn) {
+				builder.emit (HALT);
+				continue;
+			} else if (instruction instanceof InstructionLoop) {
+				jumps.add (builder.emit (JUMP, ((InstructionLoop) instruction).getJumpBack ()) + 1);
+				continue;
+			} else if (instruction instanceof InstructionJump) {
+				jumps.add (builder.emit (JUMP, ((InstructionJump) instruction).getJump ()) + 1);
+				continue;
+			}
+
+			int next;
+			int falseJump = 0;
+			if (instruction instanceof InstructionExpression) {
+				next = -1;
+			} else if (instruction instanceof InstructionPrint) {
+				next = PRINT;
+			} else if (instruction instanceof InstructionPrintln) {
+				next = PRINTLN;
+			} else if (instruction instanceof InstructionIf) {
+				next = JUMP_IF_FALSE;
+				falseJump = ((InstructionIf) instruction).getFalseJump ();
+			} else if (instruction instanceof InstructionElseIf) {
+				next = JUMP_IF_FALSE;
+				falseJump = ((InstructionElseIf) instruction).getFalseJump ();
+			} else if (instruction instanceof InstructionWhile) {
+				next = JUMP_IF_FALSE;
+				falseJump = ((InstructionWhile) instruction).getFalseJump ();
+			} else if (instruction instanceof InstructionRead) {
+				builder.emit (READ, builder.register (((InstructionRead) instruction).getVariable ()));
+				continue;
+			} else if (instruction instanceof InstructionCheckpoint) {
+				builder.emit (CHECKPOINT);
+				continue;
+			} else { // Unknown instructions
+				builder.emit (EXECUTE, i);
+				continue;
+			}
+
+			Expression expression = instruction.getExpression ();
+			if (expression == null || !builder.tree (expression)) {
+				builder.emit (EXECUTE, i); // Fails like the instruction does
+				continue;
+			}
+			int result = builder.expression ();
+			if (next == JUMP_IF_FALSE) {
+				jumps.add (builder.emit (JUMP_IF_FALSE, result, falseJump) + 2);
+			} else if (next >= 0) {
+				builder.emit (next, result);
+			}
+		}
+
+		int end = builder.emit (HALT);
+		int trap = builder.emit (TRAP);
+		for (int jump : jumps) {
+			int destination = builder.code[jump];
+			if (destination < 0) {
+				builder.code[jump] = trap;
+			} else if (destination >= n) {
+				builder.code[jump] = end;
+			} else {
+				builder.code[jump] = starts[destination];
+			}
+		}
+		builder.placeTemporaries ();
+		return new Bytecode (builder, instructions, starts);
+	}
+
+
+
+	/**
+	 * Execute the code
+	 *
+	 * @param context The context, whose values fill the first registers of the frame
+	 * @param program The program which the code is compiled from
+	 * @throws ExecutionException If the program contains an error
+	 */
+	void run (ExecutionContext context, Program program) throws ExecutionException {
+		execute (frame (context.values), 0, program, context, false);
+	}
+
+
+	/**
+	 * Create the frame of an execution
+	 *
+	 * @param values The variables and the constants, which fill the first registers of the frame
+	 * @return The frame
+	 */
+	Object[] frame (Value[] values) {
+		return Arrays.copyOf (values, values.length + temporaries, Object[].class);
+	}
+
+
+	/**
+	 * Execute the code from the given position
+	 *
+	 * @param frame The frame, created by {@link #frame(Value[])}
+	 * @param start The position
+	 * @param program The program which the code is compiled from
+	 * @param context The context: its input, its output, its checkpoints and its budget
+	 * @param suspend If true, each Read suspends the execution instead of reading the input, and the execution yields when the quantum of
+	 *            the context has been used
+	 * @return The position of the Read which suspended the execution, {@link #yielded(int)} of the position where it yielded, or -1 if the
+	 *         execution has ended
+	 * @throws ExecutionException If the program contains an error
+	 */
+	int execute (final Object[] frame, int start, Program program, ExecutionContext context, boolean suspend) throws ExecutionException {
+		final int[] code = this.code;
+		final boolean checkpoints = context.checkpoints != null;
+		final boolean sliced = suspend && context.quantum > 0;
+		final Budget.Meter meter = context.meter;
+		final boolean loops = checkpoints || sliced || meter != null; // Something to do at each loop iteration
+		int slice = context.quantum;
+		final Input input = context.input;
+		final Output output = context.output;
+		int pc = start;
+		trap: try {
+			for (;;) {
+				switch (code[pc]) {
+					case UNARY:
+						frame[code[pc + 2]] = unary (frame[code[pc + 3]], code[pc + 1]);
+						pc += 4;
+						break;
+					case BINARY:
+						frame[code[pc + 2]] = binary (frame[code[pc + 3]], frame[code[pc + 4]], code[pc + 1]);
+						pc += 5;
+						break;
+					case ADD:
+						frame[code[pc + 2]] = add (frame[code[pc + 3]], frame[code[pc + 4]], code[pc + 1]);
+						pc += 5;
+						break;
+					case SUBTRACT:
+						frame[code[pc + 2]] = subtract (frame[code[pc + 3]], frame[code[pc + 4]], code[pc + 1]);
+						pc += 5;
+						break;
+					case MULTIPLY:
+						frame[code[pc + 2]] = multiply (frame[code[pc + 3]], frame[code[pc + 4]], code[pc + 1]);
+						pc += 5;
+						break;
+					case DIVIDE:
+						frame[code[pc + 2]] = divide (frame[code[pc + 3]], frame[code[pc + 4]], code[pc + 1]);
+						pc += 5;
+						break;
+					case MODULE:
+						frame[code[pc + 2]] = module (frame[code[pc + 3]], frame[code[pc + 4]], code[pc + 1]);
+						pc += 5;
+						break;
+					case ASSIGN:
+						frame[code[pc + 2]] = assign (frame[code[pc + 3]], frame[code[pc + 4]], code[pc + 1]);
+						pc += 5;
+						break;
+					case LESS:
+						frame[code[pc + 2]] = less (frame[code[pc + 3]], frame[code[pc + 4]], code[pc + 1]);
+						pc += 5;
+						break;
+					case LESS_EQUAL:
+						frame[code[pc + 2]] = lessEqual (frame[code[pc + 3]], frame[code[pc + 4]], code[pc + 1]);
+						pc += 5;
+						break;
+					case GREATER:
+						frame[code[pc + 2]] = greater (frame[code[pc + 3]], frame[code[pc + 4]], code[pc + 1]);
+						pc += 5;
+						break;
+					case GREATER_EQUAL:
+						frame[code[pc + 2]] = greaterEqual (frame[code[pc + 3]], frame[code[pc + 4]], code[pc + 1]);
+						pc += 5;
+						break;
+					case EQUAL:
+						frame[code[pc + 2]] = equal (frame[code[pc + 3]], frame[code[pc + 4]], code[pc + 1]);
+						pc += 5;
+						break;
+					case DIFFERENT:
+						frame[code[pc + 2]] = different (frame[code[pc + 3]], frame[code[pc + 4]], code[pc + 1]);
+						pc += 5;
+						break;
+					case ADD_SET:
+						frame[code[pc + 2]] = addSet (frame[code[pc + 3]], frame[code[pc + 4]], code[pc + 1]);
+						pc += 5;
+						break;
+					case SUBTRACT_SET:
+						frame[code[pc + 2]] = subtractSet (frame[code[pc + 3]], frame[code[pc + 4]], code[pc + 1]);
+						pc += 5;
+						break;
+					case CALL:
+						int size = code[pc + 2];
+						Value[] params = new Value[size];
+						for (int i = 0; i < size; i++) {
+							params[i] = (Value) frame[code[pc + 4 + i]];
+						}
+						frame[code[pc + 3]] = call (params, code[pc + 1]);
+						pc += 4 + size;
+						break;
+					case PRINT:
+						print (output, frame[code[pc + 1]]);
+						pc += 2;
+						break;
+					case PRINTLN:
+						println (output, frame[code[pc + 1]]);
+						pc += 2;
+						break;
+					case JUMP:
+						if (loops && code[pc + 1] <= pc) { // A loop: the temporaries are free
+							if (meter != null) {
+								meter.backEdge (loopLengths[pc]);
+							}
+							if (checkpoints && context.checkpointDue ()) {
+								context.saveCheckpoint (code[pc + 1]);
+							}
+							if (sliced && (slice -= loopCosts[pc]) <= 0) {
+								return yielded (code[pc + 1]);
+							}
+						}
+						pc = code[pc + 1];
+						break;
+					case JUMP_IF_FALSE:
+						pc = isTrue (frame[code[pc + 1]]) ? pc + 3 : code[pc + 2];
+						break;
+					case TEST:
+						frame[code[pc + 1]] = test (frame[code[pc + 2]]);
+						pc += 3;
+						break;
+					case JUMP_IF_TRUE:
+						pc = isTrue (frame[code[pc + 1]]) ? code[pc + 2] : pc + 3;
+						break;
+					case EXECUTE:
+						instructions[code[pc + 1]].execute (program);
+						pc += 2;
+						break;
+					case READ:
+						if (suspend) {
+							return pc;
+						}
+						read (frame[code[pc + 1]], input);
+						pc += 2;
+						break;
+					case CHECKPOINT:
+						if (checkpoints) {
+							context.saveCheckpoint (pc + 1);
+						}
+						pc++;
+						break;
+					case HALT:
+						return -1;
+					case TRAP:
+						break trap;
+					default:
+						throw new IllegalStateException ("Unknown opcode " + code[pc] + " at " + pc);
+				}
+			}
+		} catch (BudgetExceededException e) {
+			throw e;
+		} catch (Exception e) {
+			throw failure (e, instructions, instructionAt (pc));
+		}
+		throw trap (instructions);
+	}
+
+
+	/**
+	 * Encode the position where an execution yielded, or decode it: the result of {@link #execute} is less than -1
+	 *
+	 * @param pc The position, or the encoded position
+	 * @return The encoded position, or the position
+	 */
+	static int yielded (int pc) {
+		return -2 - pc;
+	}
+
+
+	/**
+	 * Assign a line to the variable of the Read which suspended the execution
+	 *
+	 * @param frame The frame of the execution
+	 * @param pc The position of the Read
+	 * @param line The line
+	 * @throws ExecutionException If the variable can't be assigned
+	 */
+	void supply (Object[] frame, int pc, String line) throws ExecutionException {
+		try {
+			((Variable) frame[code[pc + 1]]).set (InstructionRead.parse (line));
+		} catch (Exception e) {
+			throw failure (e, instructions, instructionAt (pc));
+		}
+	}
+
+
+	/**
+	 * Get the instruction which starts at the given position of the code
+	 *
+	 * @param pc The position: the start of an instruction or the end of the program
+	 * @return The index of the instruction, or the number of instructions if the position is the end of the program
+	 */
+	int instructionStartingAt (int pc) {
+		int i = instructionAt (pc);
+		return i >= 0 && starts[i] == pc ? i : instructions.length;
+	}
+
+
+	/**
+	 * Get the position where an instruction starts
+	 *
+	 * @param instruction The index of the instruction, or the number of instructions for the end of the program
+	 * @return The position
+	 */
+	int start (int instruction) {
+		return instruction < starts.length ? starts[instruction] : code.length - 2; // The end: HALT and TRAP
+	}
+
+
+	/**
+	 * Get the instruction which contains the given position of the code
+	 *
+	 * @param pc The position
+	 * @return The index of the instruction
+	 */
+	private int instructionAt (int pc) {
+		int i = Arrays.binarySearch (starts, pc);
+		if (i < 0) {
+			return -i - 2;
+		}
+		while (i + 1 < starts.length && starts[i + 1] == pc) {
+			i++;
+		}
+		return i;
+	}
+
+
+	/*
+	 * The operations, shared by the interpreter and the classes generated by JvmProgram.
+	 * The registers are passed as Object, to avoid the costly checks of the interface Value when they're stored in the frame.
+	 * Each operation takes the ordinal of its Operator, which is applied when the fast path doesn't.
+	 */
+
+	static Value unary (Object a, int oper) throws ExecutionException {
+		return OPERATORS[oper].unaryOp.eval ((Value) a);
+	}
+
+
+	static Value binary (Object l, Object r, int oper) throws ExecutionException {
+		return OPERATORS[oper].binaryOp.eval ((Value) l, (Value) r);
+	}
+
+
+	static Value add (Object l, Object r, int oper) throws ExecutionException {
+		ValNumber ln = number (l), rn = number (r);
+		if (ln != null && rn != null) {
+			return result (ln, ln.value () + rn.value ());
+		}
+		return OPERATORS[oper].binaryOp.eval ((Value) l, (Value) r);
+	}
+
+
+	static Value subtract (Object l, Object r, int oper) throws ExecutionException {
+		ValNumber ln = number (l);
+		if (ln != null && r.getClass () == ValNumber.class) { // The right operand must be a number, not a variable
+			return result (ln, ln.value () - ((ValNumber) r).value ());
+		}
+		return OPERATORS[oper].binaryOp.eval ((Value) l, (Value) r);
+	}
+
+
+	static Value multiply (Object l, Object r, int oper) throws ExecutionException {
+		ValNumber ln = number (l), rn = number (r);
+		if (ln != null && rn != null) {
+			return result (ln, ln.value () * rn.value ());
+		}
+		return OPERATORS[oper].binaryOp.eval ((Value) l, (Value) r);
+	}
+
+
+	static Value divide (Object l, Object r, int oper) throws ExecutionException {
+		ValNumber ln = number (l), rn = number (r);
+		if (ln != null && rn != null) {
+			return result (ln, ln.value () / rn.value ());
+		}
+		return OPERATORS[oper].binaryOp.eval ((Value) l, (Value) r);
+	}
+
+
+	static Value module (Object l, Object r, int oper) throws ExecutionException {
+		ValNumber ln = number (l), rn = number (r);
+		if (ln != null && rn != null) {
+			return result (ln, ln.value () % rn.value ());
+		}
+		return OPERATORS[oper].binaryOp.eval ((Value) l, (Value) r);
+	}
+
+
+	static Value assign (Object l, Object r, int oper) throws ExecutionException {
+		if (l.getClass () == Variable.class) {
+			return ((Variable) l).set ((Value) r);
+		}
+		return OPERATORS[oper].binaryOp.eval ((Value) l, (Value) r);
+	}
+
+
+	static Value less (Object l, Object r, int oper) throws ExecutionException {
+		ValNumber ln = number (l), rn = number (r);
+		if (ln != null && rn != null) {
+			return ln.value () < rn.value () ? Value.True : Value.False;
+		}
+		return OPERATORS[oper].binaryOp.eval ((Value) l, (Value) r);
+	}
+
+
+	static Value lessEqual (Object l, Object r, int oper) throws ExecutionException {
+		ValNumber ln = number (l), rn = number (r);
+		if (ln != null && rn != null) {
+			return ln.value () <= rn.value () ? Value.True : Value.False;
+		}
+		return OPERATORS[oper].binaryOp.eval ((Value) l, (Value) r);
+	}
+
+
+	static Value greater (Object l, Object r, int oper) throws ExecutionException {
+		ValNumber ln = number (l), rn = number (r);
+		if (ln != null && rn != null) {
+			return ln.value () > rn.value () ? Value.True : Value.False;
+		}
+		return OPERATORS[oper].binaryOp.eval ((Value) l, (Value) r);
+	}
+
+
+	static Value greaterEqual (Object l, Object r, int oper) throws ExecutionException {
+		ValNumber ln = number (l), rn = number (r);
+		if (ln != null && rn != null) {
+			return ln.value () >= rn.value () ? Value.True : Value.False;
+		}
+		return OPERATORS[oper].binaryOp.eval ((Value) l, (Value) r);
+	}
+
+
+	static Value equal (Object l, Object r, int oper) throws ExecutionException {
+		ValNumber ln = number (l), rn = number (r);
+		if (ln != null && rn != null) {
+			return ln.value () == rn.value () ? Value.True : Value.False;
+		}
+		return OPERATORS[oper].binaryOp.eval ((Value) l, (Value) r);
+	}
+
+
+	static Value different (Object l, Object r, int oper) throws ExecutionException {
+		ValNumber ln = number (l), rn = number (r);
+		if (ln != null && rn != null) {
+			return ln.value () != rn.value () ? Value.True : Value.False;
+		}
+		return OPERATORS[oper].binaryOp.eval ((Value) l, (Value) r);
+	}
+
+
+	static Value addSet (Object l, Object r, int oper) throws ExecutionException {
+		ValNumber ln = number (l), rn = number (r);
+		if (ln != null && l != ln && rn != null) {
+			return ((Variable) l).set (result (ln, ln.value () + rn.value ()));
+		}
+		return OPERATORS[oper].binaryOp.eval ((Value) l, (Value) r);
+	}
+
+
+	static Value subtractSet (Object l, Object r, int oper) throws ExecutionException {
+		ValNumber ln = number (l);
+		if (ln != null && l != ln && r.getClass () == ValNumber.class) { // The right operand must be a number, not a variable
+			return ((Variable) l).set (result (ln, ln.value () - ((ValNumber) r).value ()));
+		}
+		return OPERATORS[oper].binaryOp.eval ((Value) l, (Value) r);
+	}
+
+
+	static Value call (Value[] params, int fun) throws ExecutionException {
+		return FUNCTIONS[fun].getFunctionCode ().execute (params);
+	}
+
+
+	static boolean isTrue (Object value) {
+		return ((Value) value).isTrue ();
+	}
+
+
+	static void read (Object variable, Input input) throws ExecutionException {
+		((Variable) variable).set (InstructionRead.input (input));
+	}
+
+
+	static void print (Output output, Object value) throws ExecutionException {
+		try {
+			output.print (String.valueOf (value));
+		} catch (IOException e) {
+			throw new ExecutionException ("Can't write the output", e);
+		}
+	}
+
+
+	static void println (Output output, Object value) throws ExecutionException {
+		try {
+			output.println (String.valueOf (value));
+		} catch (IOException e) {
+			throw new ExecutionException ("Can't write the output", e);
+		}
+	}
+
+
+	static Value test (Object value) {
+		return ((Value) value).isTrue () ? Value.True : Value.False;
+	}
+
+
+
+	/*
+	 * The operations on the unboxed numbers of JvmProgram, see TypeInference.
+	 * The arithmetic is inlined in the generated code, the comparisons are methods so that the code has no branches inside the expressions.
+	 */
+
+	static boolean less (float l, float r) {
+		return l < r;
+	}
+
+
+	static boolean lessEqual (float l, float r) {
+		return l <= r;
+	}
+
+
+	static boolean greater (float l, float r) {
+		return l > r;
+	}
+
+
+	static boolean greaterEqual (float l, float r) {
+		return l >= r;
+	}
+
+
+	static boolean equal (float l, float r) {
+		return l == r;
+	}
+
+
+	static boolean different (float l, float r) {
+		return l != r;
+	}
+
+
+	/**
+	 * Store the unboxed value of a number variable back into the variable, when the program ends
+	 *
+	 * @param variable The variable
+	 * @param assigned true if the program assigned the variable
+	 * @param value The value
+	 * @throws ExecutionException Never, number variables are not constant
+	 */
+	static void store (Object variable, boolean assigned, float value) throws ExecutionException {
+		if (assigned) {
+			((Variable) variable).set (ValNumber.getNumber (value));
+		}
+	}
+
+
+	/**
+	 * Create the exception thrown when an instruction fails, like {@link Program#run()} does
+	 *
+	 * @param e The cause
+	 * @param instructions The instructions
+	 * @param index The index of the failed instruction
+	 * @return The exception
+	 */
+	static ExecutionException failure (Exception e, Instruction[] instructions, int index) {
+		return new ExecutionException ("Error while executing instruction:\n\t\t" + instructions[index], e);
+	}
+
+
+	/**
+	 * Create the exception thrown by a jump to an invalid instruction, like {@link Program#run()} does
+	 *
+	 * @param instructions The instructions
+	 * @return The exception
+	 */
+	static IndexOutOfBoundsException trap (Instruction[] instructions) {
+		return new IndexOutOfBoundsException ("Index -1 out of bounds for length " + instructions.length);
+	}
+
+
+	/**
+	 * Get the number of a value, if the value is a {@link ValNumber} or a variable which contains a {@link ValNumber}.
+	 * Values of other classes (even subclasses) return null and must be handled by their operators.
+	 *
+	 * @param value The value
+	 * @return The number, or null
+	 */
+	static ValNumber number (Object value) {
+		if (value.getClass () == ValNumber.class) {
+			return (ValNumber) value;
+		} else if (value.getClass () == Variable.class) {
+			Primitive primitive = ((Variable) value).getValue ();
+			if (primitive.getClass () == ValNumber.class) {
+				return (ValNumber) primitive;
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Get the result of an operation on a number, reusing the number if the value doesn't change (like the operations of {@link ValNumber})
+	 *
+	 * @param number The left operand
+	 * @param result The result
+	 * @return The number which represents the result
+	 */
+	static ValNumber result (ValNumber number, float result) {
+		return number.value () == result ? number : ValNumber.getNumber (result);
+	}
+
+
+	/**
+	 * Get the opcode of a binary operator
+	 *
+	 * @param oper The operator
+	 * @return The opcode, or {@link #BINARY} if the operator has no specific opcode
+	 */
+	static int opcode (Operator oper) {
+		switch (oper) {
+			case sum:
+				return ADD;
+			case diff:
+				return SUBTRACT;
+			case mult:
+				return MULTIPLY;
+			case div:
+				return DIVIDE;
+			case mod:
+				return MODULE;
+			case assign:
+				return ASSIGN;
+			case lessThan:
+				return LESS;
+			case lessEqualsThan:
+				return LESS_EQUAL;
+			case greaterThan:
+				return GREATER;
+			case greaterEqualsThan:
+				return GREATER_EQUAL;
+			case equalTo:
+				return EQUAL;
+			case differentThan:
+				return DIFFERENT;
+			case sumAndAssign:
+				return ADD_SET;
+			case diffAndAssign:
+				return SUBTRACT_SET;
+			default:
+				return BINARY;
+		}
+	}
+
+
+	/**
+	 * Get the length of an operation
+	 *
+	 * @param code The code
+	 * @param pc The position of the operation
+	 * @return The number of integers used by the opcode and its operands
+	 */
+	static int length (int[] code, int pc) {
+		switch (code[pc]) {
+			case UNARY:
+				return 4;
+			case CALL:
+				return 4 + code[pc + 2];
+			case PRINT:
+			case PRINTLN:
+			case JUMP:
+			case EXECUTE:
+			case READ:
+				return 2;
+			case JUMP_IF_FALSE:
+			case JUMP_IF_TRUE:
+			case TEST:
+				return 3;
+			case HALT:
+			case TRAP:
+			case CHECKPOINT:
+				return 1;
+			default:
+				return 5;
+		}
+	}
+
+
+
+	/**
+	 * Collects the code of the program. The tree of each expression is walked in postfix order, then the expression is translated into
+	 * operations on the registers.
+	 *
+	 * @author MarcoForlini
+	 */
+	static final class Builder {
+
+		/** VALUE i: a constant or a variable */
+		private static final int	VALUE		= 0;
+		/** OPERATOR op: an operator */
+		private static final int	OPERATOR	= 1;
+		/** FUNCTION f n: a function call with n parameters */
+		private static final int	FUNCTION	= 2;
+		/** SHORT_CIRCUIT op: the end of the left operand of the lazy operator op, whose right operand may be skipped */
+		private static final int	SHORT_CIRCUIT	= 3;
+
+		private final List <Value>				values			= new ArrayList<> ();
+		private final int						variables;
+		private final Map <Value, Integer>		constantIndex	= new IdentityHashMap<> ();
+		private final Map <String, Integer>		variableIndex	= new HashMap<> ();
+		/** The expression in postfix order */
+		private int[]							postfix			= new int[32];
+		private int								size;
+		private int[]							operands		= new int[16];
+		/** The positions of the jumps over the right operands of the open lazy operators */
+		private int[]							skips			= new int[16];
+		private int[]							code			= new int[64];
+		private int								length;
+		private int								temporaries;
+		private final Emitter					emitter			= new Emitter ();
+
+		/**
+		 * Create a new {@link Builder}
+		 *
+		 * @param slots The variables of the program, which fill the first registers: the register of each variable is its slot
+		 */
+		Builder (Variable[] slots) {
+			for (Variable variable : slots) {
+				variableIndex.put (variable.name, values.size ());
+				values.add (variable);
+			}
+			variables = slots.length;
+		}
+
+
+		/**
+		 * Add an expression tree to the current expression, in the order of the evaluation: the operands of each node, then its operator
+		 *
+		 * @param expression The root of the tree
+		 * @return false if the tree contains an expression which is not a {@link Node} nor a {@link Value}: nothing has been added
+		 */
+		boolean tree (Expression expression) {
+			if (!isTree (expression)) {
+				return false;
+			}
+			Node.accept (expression, emitter);
+			return true;
+		}
+
+
+		private static boolean isTree (Expression expression) {
+			if (expression instanceof Value) {
+				return true;
+			} else if (expression instanceof Node == false) {
+				return false;
+			}
+			for (Expression child : ((Node) expression).getChildren ()) {
+				if (!isTree (child)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+
+		/**
+		 * Add a value (a constant or a variable) to the current expression
+		 *
+		 * @param value The value
+		 */
+		private void value (Value value) {
+			Integer index;
+			if (value instanceof Variable) {
+				index = register ((Variable) value);
+			} else {
+				index = constantIndex.get (value);
+				if (index == null) {
+					index = values.size ();
+					values.add (value);
+					constantIndex.put (value, index);
+				}
+			}
+			add (VALUE, index, 0);
+		}
+
+
+		/**
+		 * Get the register of a variable
+		 *
+		 * @param variable The variable
+		 * @return The register, which is the slot of the variable if it's a variable of the program
+		 */
+		int register (Variable variable) {
+			Integer index = variableIndex.get (variable.name);
+			if (index == null) { // Not a variable of the program
+				index = values.size ();
+				values.add (variable);
+				variableIndex.put (variable.name, index);
+			}
+			return index;
+		}
+
+
+		/**
+		 * Add an operator to the current expression
+		 *
+		 * @param oper The operator
+		 */
+		private void operator (Operator oper) {
+			add (OPERATOR, oper.ordinal (), 0);
+		}
+
+
+		/**
+		 * Mark the end of the left operand of a lazy operator, so the code can skip its right operand
+		 *
+		 * @param oper The operator: {@link Operator#and} or {@link Operator#or}
+		 */
+		private void shortCircuit (Operator oper) {
+			add (SHORT_CIRCUIT, oper.ordinal (), 0);
+		}
+
+
+		/**
+		 * Add a function call to the current expression
+		 *
+		 * @param fun The function
+		 * @param size The number of parameters
+		 */
+		private void call (STDFunction fun, int size) {
+			add (FUNCTION, fun.ordinal (), size);
+		}
+
+
+		private void add (int kind, int operand1, int operand2) {
+			if (size + 3 > postfix.length) {
+				postfix = Arrays.copyOf (postfix, postfix.length << 1);
+			}
+			postfix[size] = kind;
+			postfix[size + 1] = operand1;
+			postfix[size + 2] = operand2;
+			size += 3;
+		}
+
+
+		/**
+		 * Translate the current expression into operations on the registers, then clear it.
+		 * The partial results are written in the temporary registers, the n-th operand of the postfix expression in the n-th temporary register.
+		 * The temporary registers are numbered -1, -2... until {@link #placeTemporaries()} moves them after the values.
+		 * <p>
+		 * A lazy operator tests its left operand, then jumps over its right operand if the left one decides the result:
+		 * <pre>
+		 * TEST t left; JUMP_IF_FALSE t end (JUMP_IF_TRUE for or); ...right...; TEST t right; end:
+		 * </pre>
+		 *
+		 * @return The register which contains the result
+		 */
+		int expression () {
+			if (operands.length < size) {
+				operands = new int[size];
+				skips = new int[size];
+			}
+			int depth = 0, nSkips = 0;
+			for (int i = 0; i < size; i += 3) {
+				int operand = postfix[i + 1];
+				switch (postfix[i]) {
+					case VALUE:
+						operands[depth++] = operand;
+						break;
+					case SHORT_CIRCUIT:
+						emit (TEST, temporary (depth - 1), operands[depth - 1]);
+						operands[depth - 1] = temporary (depth - 1);
+						skips[nSkips++] = emit (OPERATORS[operand] == Operator.and ? JUMP_IF_FALSE : JUMP_IF_TRUE, temporary (depth - 1), 0) + 2;
+						break;
+					case OPERATOR:
+						Operator oper = OPERATORS[operand];
+						if (oper.lazyOp != null) {
+							depth--;
+							emit (TEST, temporary (depth - 1), operands[depth]);
+							code[skips[--nSkips]] = length;
+						} else if (oper.binaryOp == null) {
+							emit (UNARY, operand, temporary (depth - 1), operands[depth - 1]);
+						} else {
+							depth--;
+							emit (opcode (oper), operand, temporary (depth - 1), operands[depth - 1], operands[depth]);
+						}
+						operands[depth - 1] = temporary (depth - 1);
+						break;
+					default:
+						int n = postfix[i + 2];
+						depth -= n;
+						emit (CALL, operand, n, temporary (depth));
+						for (int j = 0; j < n; j++) {
+							emit (operands[depth + j]);
+						}
+						operands[depth] = temporary (depth);
+						depth++;
+				}
+			}
+			size = 0;
+			return operands[0];
+		}
+
+
+		private int temporary (int depth) {
+			temporaries = Math.max (temporaries, depth + 1);
+			return -1 - depth;
+		}
+
+
+		/**
+		 * Move the temporary registers after the constants and the variables
+		 */
+		void placeTemporaries () {
+			int base = values.size ();
+			for (int pc = 0; pc < length; pc += Bytecode.length (code, pc)) {
+				int from, to;
+				switch (code[pc]) {
+					case CALL:
+						from = pc + 3;
+						to = pc + 4 + code[pc + 2];
+						break;
+					case PRINT:
+					case PRINTLN:
+					case JUMP_IF_FALSE:
+					case JUMP_IF_TRUE:
+						from = pc + 1;
+						to = pc + 2;
+						break;
+					case TEST:
+						from = pc + 1;
+						to = pc + 3;
+						break;
+					case JUMP:
+					case EXECUTE:
+					case READ:
+					case HALT:
+					case TRAP:
+					case CHECKPOINT:
+						continue;
+					default:
+						from = pc + 2;
+						to = pc + Bytecode.length (code, pc);
+				}
+				for (int i = from; i < to; i++) {
+					if (code[i] < 0) {
+						code[i] = base - 1 - code[i];
+					}
+				}
+			}
+		}
+
+
+		int emit (int... operation) {
+			if (length + operation.length > code.length) {
+				code = Arrays.copyOf (code, Math.max (code.length << 1, length + operation.length));
+			}
+			System.arraycopy (operation, 0, code, length, operation.length);
+			length += operation.length;
+			return length - operation.length;
+		}
+
+
+
+		/**
+		 * Adds the nodes of a tree to the current expression
+		 *
+		 * @author MarcoForlini
+		 */
+		private final class Emitter implements NodeVisitor <Void> {
+
+			@Override
+			public Void visitValue (Value value) {
+				value (value);
+				return null;
+			}
+
+
+			@Override
+			public Void visitUnary (UnaryNode node) {
+				Node.accept (node.getOperand (), this);
+				operator (node.getOperator ());
+				return null;
+			}
+
+
+			@Override
+			public Void visitBinary (BinaryNode node) {
+				Node.accept (node.getLeft (), this);
+				Node.accept (node.getRight (), this);
+				operator (node.getOperator ());
+				return null;
+			}
+
+
+			@Override
+			public Void visitLazy (LazyNode node) {
+				Node.accept (node.getLeft (), this);
+				shortCircuit (node.getOperator ()); // The left operand is complete
+				Node.accept (node.getRight (), this);
+				operator (node.getOperator ());
+				return null;
+			}
+
+
+			@Override
+			public Void visitAssign (AssignNode node) {
+				Node.accept (node.getTarget (), this);
+				Node.accept (node.getValue (), this);
+				operator (node.getOperator ());
+				return null;
+			}
+
+
+			@Override
+			public Void visitElementAt (ElementAtNode node) {
+				Node.accept (node.getArray (), this);
+				Node.accept (node.getIndex (), this);
+				operator (Operator.elementAt);
+				return null;
+			}
+
+
+			@Override
+			public Void visitCall (CallNode node) {
+				Expression[] params = node.getChildren ();
+				for (Expression param : params) {
+					Node.accept (param, this);
+				}
+				call (node.getFunction (), params.length);
+				return null;
+			}
+
+		}
+
+	}
+
+}
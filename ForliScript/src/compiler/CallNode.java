@@ -0,0 +1,64 @@
+package compiler;
+
+import expressions.Expression;
+import expressions.STDFunction;
+import expressions.Value;
+
+
+/**
+ * An expression which calls a {@link STDFunction} with the values of its parameters
+ *
+ * @author MarcoForlini
+ */
+final class CallNode implements Node {
+
+	private static final long	serialVersionUID	= -7453946026127604187L;
+
+	private final STDFunction	fun;
+	private final Expression[]	params;
+
+
+
+	/**
+	 * Create a new {@link CallNode}
+	 *
+	 * @param fun The function
+	 * @param params The parameters
+	 */
+	CallNode (STDFunction fun, Expression[] params) {
+		this.fun = fun;
+		this.params = params;
+	}
+
+
+
+	@Override
+	public Value eval () throws ExecutionException {
+		Value[] values = new Value[params.length];
+		for (int i = 0; i < params.length; i++) {
+			values[i] = params[i].eval ();
+		}
+		return fun.getFunctionCode ().execute (values);
+	}
+
+
+	@Override
+	public <R> R accept (NodeVisitor <R> visitor) {
+		return visitor.visitCall (this);
+	}
+
+
+	@Override
+	public Expression[] getChildren () {
+		return params.clone ();
+	}
+
+
+	/**
+	 * @return The function
+	 */
+	STDFunction getFunction () {
+		return fun;
+	}
+
+}
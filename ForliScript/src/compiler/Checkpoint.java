@@ -0,0 +1,298 @@
+package compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import expressions.Primitive;
+import expressions.ValArray;
+import expressions.ValArrayConst;
+import expressions.ValBoolean;
+import expressions.ValNumber;
+import expressions.ValString;
+import expressions.Value;
+
+
+/**
+ * The state of an execution of a {@link CompiledProgram} at the start of an instruction: the instruction and the values of the variables and
+ * of the arrays. An {@link ExecutionContext} saves a checkpoint into its {@link Sink} and continues the execution from a checkpoint with
+ * {@link ExecutionContext#run(Checkpoint)}, so a long execution which fails can restart from its last checkpoint.
+ * <p>
+ * A checkpoint contains, in order:
+ * <ol>
+ * <li>The header: magic number, format version and compiler version, like a compiled file</li>
+ * <li>The fingerprint of the compiled code, which must match the program it's restored into</li>
+ * <li>The index of the instruction</li>
+ * <li>For each variable and array of the program, its value: a tag, followed by the float of a number, the UTF-8 text of a string or the
+ * elements of an array. An array which has already been written is stored as a reference to its position, so the arrays shared by many
+ * variables are still shared when they're restored.</li>
+ * </ol>
+ * All numbers after the header, except the floats and the fingerprint, are unsigned variable-length integers, 7 bits per byte.
+ *
+ * @author MarcoForlini
+ */
+public final class Checkpoint {
+
+	/**
+	 * Receives the checkpoints of an execution
+	 *
+	 * @author MarcoForlini
+	 */
+	@FunctionalInterface
+	public interface Sink {
+
+		/**
+		 * Save a checkpoint. It's called by the thread which executes the program, which waits until it returns.
+		 *
+		 * @param checkpoint The checkpoint
+		 * @throws IOException If the checkpoint can't be saved: the execution fails
+		 */
+		void save (Checkpoint checkpoint) throws IOException;
+
+	}
+
+	/** The first 4 bytes of a checkpoint: "FOSK" */
+	static final int			MAGIC	= 0x464F534B;
+
+	private static final int	NULL	= 0;
+	private static final int	FALSE	= 1;
+	private static final int	TRUE	= 2;
+	private static final int	NUMBER	= 3;
+	private static final int	STRING	= 4;
+	private static final int	ARRAY	= 5;
+	private static final int	CONST	= 6;
+	private static final int	SHARED	= 7;
+
+	private final int			fingerprint;
+	private final int			instruction;
+	/** The value of each register the program can modify, in the order of {@link CompiledProgram#mutable} */
+	final Primitive[]			values;
+
+
+
+	/**
+	 * Create a new {@link Checkpoint}
+	 *
+	 * @param fingerprint The fingerprint of the compiled code
+	 * @param instruction The index of the instruction
+	 * @param values The values, which must not be modified anymore
+	 */
+	Checkpoint (int fingerprint, int instruction, Primitive[] values) {
+		this.fingerprint = fingerprint;
+		this.instruction = instruction;
+		this.values = values;
+	}
+
+
+
+	/**
+	 * Get the instruction which is executed first when the checkpoint is restored
+	 *
+	 * @return The index of the instruction
+	 */
+	public int getInstruction () {
+		return instruction;
+	}
+
+
+	/**
+	 * Get the fingerprint of the compiled code
+	 *
+	 * @return The fingerprint
+	 */
+	int getFingerprint () {
+		return fingerprint;
+	}
+
+
+	/**
+	 * Write the checkpoint in the binary format
+	 *
+	 * @return The bytes of the checkpoint
+	 */
+	public byte[] toBytes () {
+		ByteArrayOutputStream out = new ByteArrayOutputStream (32 + values.length * 5);
+		ProgramFile.writeHeader (out, MAGIC);
+		out.write (fingerprint >>> 24);
+		out.write (fingerprint >>> 16);
+		out.write (fingerprint >>> 8);
+		out.write (fingerprint);
+		ProgramFile.writeVarint (out, instruction);
+		ProgramFile.writeVarint (out, values.length);
+		Map <Primitive, Integer> written = new IdentityHashMap<> ();
+		for (Primitive value : values) {
+			write (out, value, written);
+		}
+		return out.toByteArray ();
+	}
+
+
+	/**
+	 * Write the checkpoint in the binary format
+	 *
+	 * @param stream The stream, which is not closed
+	 * @throws IOException If the stream can't be written
+	 */
+	public void write (OutputStream stream) throws IOException {
+		stream.write (toBytes ());
+	}
+
+
+	/**
+	 * Write the checkpoint into a file. The file is replaced only when the new checkpoint is completely written, so it always contains a
+	 * valid checkpoint, even if the process dies while writing.
+	 *
+	 * @param file The file
+	 * @throws IOException If the file can't be written
+	 */
+	public void write (Path file) throws IOException {
+		Path temp = file.resolveSibling (file.getFileName () + ".tmp");
+		Files.write (temp, toBytes ());
+		try {
+			Files.move (temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move (temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+
+	/**
+	 * Create a sink which keeps the last checkpoint in a file
+	 *
+	 * @param file The file
+	 * @return The sink
+	 */
+	public static Sink toFile (Path file) {
+		return checkpoint -> checkpoint.write (file);
+	}
+
+
+	/**
+	 * Read a checkpoint from a file
+	 *
+	 * @param file The file
+	 * @return The checkpoint
+	 * @throws IOException If the file can't be read
+	 * @throws ProgramFormatException If the file doesn't contain a valid checkpoint
+	 */
+	public static Checkpoint read (Path file) throws IOException {
+		return read (Files.readAllBytes (file));
+	}
+
+
+	/**
+	 * Read a checkpoint from its binary format
+	 *
+	 * @param bytes The bytes of the checkpoint
+	 * @return The checkpoint
+	 * @throws ProgramFormatException If the bytes don't contain a valid checkpoint
+	 */
+	public static Checkpoint read (byte[] bytes) throws ProgramFormatException {
+		ByteBuffer buffer = ByteBuffer.wrap (bytes);
+		try {
+			if (buffer.getInt () != MAGIC) {
+				throw new ProgramFormatException ("Not a checkpoint");
+			} else if (buffer.getShort () != ProgramFile.FORMAT_VERSION) {
+				throw new ProgramFormatException ("Unsupported format version");
+			} else if (buffer.getInt () != Compiler.VERSION) {
+				throw new ProgramFormatException ("Checkpoint written by a different version of the compiler");
+			}
+			int fingerprint = buffer.getInt ();
+			int instruction = ProgramFile.readVarint (buffer);
+			Primitive[] values = new Primitive[ProgramFile.readVarint (buffer)];
+			List <ValArray> read = new ArrayList<> ();
+			for (int i = 0; i < values.length; i++) {
+				values[i] = read (buffer, read);
+			}
+			if (buffer.hasRemaining ()) {
+				throw new ProgramFormatException ("Unexpected data after the checkpoint");
+			}
+			return new Checkpoint (fingerprint, instruction, values);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+			throw new ProgramFormatException ("Truncated or corrupted checkpoint", e);
+		}
+	}
+
+
+
+	private static void write (ByteArrayOutputStream out, Primitive value, Map <Primitive, Integer> written) {
+		if (value instanceof ValArray) {
+			Integer index = written.get (value);
+			if (index != null) {
+				out.write (SHARED);
+				ProgramFile.writeVarint (out, index);
+				return;
+			}
+			written.put (value, written.size ());
+			List <Primitive> elements = ((ValArray) value).getElements ();
+			out.write (value instanceof ValArrayConst ? CONST : ARRAY);
+			ProgramFile.writeVarint (out, elements.size ());
+			for (Primitive element : elements) {
+				write (out, element, written);
+			}
+		} else if (value instanceof ValBoolean) {
+			out.write (value == Value.True ? TRUE : FALSE);
+		} else if (value instanceof ValNumber) {
+			int bits = Float.floatToRawIntBits (((ValNumber) value).value ());
+			out.write (NUMBER);
+			out.write (bits >>> 24);
+			out.write (bits >>> 16);
+			out.write (bits >>> 8);
+			out.write (bits);
+		} else if (value instanceof ValString) {
+			byte[] text = value.toString ().getBytes (StandardCharsets.UTF_8);
+			out.write (STRING);
+			ProgramFile.writeVarint (out, text.length);
+			out.write (text, 0, text.length);
+		} else if (value == null || value == Value.Null) {
+			out.write (NULL);
+		} else {
+			write (out, value.getPrimitive (), written);
+		}
+	}
+
+
+	private static Primitive read (ByteBuffer buffer, List <ValArray> read) throws ProgramFormatException {
+		int tag = buffer.get ();
+		switch (tag) {
+			case NULL:
+				return Value.Null;
+			case FALSE:
+				return Value.False;
+			case TRUE:
+				return Value.True;
+			case NUMBER:
+				return ValNumber.getNumber (buffer.getFloat ());
+			case STRING:
+				byte[] text = new byte[ProgramFile.readVarint (buffer)];
+				buffer.get (text);
+				return new ValString (new String (text, StandardCharsets.UTF_8));
+			case ARRAY:
+			case CONST:
+				int size = ProgramFile.readVarint (buffer);
+				List <Primitive> elements = new ArrayList<> (Math.min (size, buffer.remaining ()));
+				ValArray array = tag == CONST ? new ValArrayConst (elements) : new ValArray (elements);
+				read.add (array);
+				for (int i = 0; i < size; i++) {
+					elements.add (read (buffer, read));
+				}
+				return array;
+			case SHARED:
+				return read.get (ProgramFile.readVarint (buffer));
+			default:
+				throw new ProgramFormatException ("Unknown value type " + tag);
+		}
+	}
+
+}
@@ -0,0 +1,619 @@
+package compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Writes a minimal class file, with static methods only.
+ * <p>
+ * The code of each method is written with a {@link Code}. The stack map frames are simplified: all frames share the same local variables, declared when the
+ * method is added, and have at most one value in the stack.
+ *
+ * @author MarcoForlini
+ */
+final class ClassWriter {
+
+	/** The version of the class files: Java 17 */
+	private static final int	VERSION			= 61;
+
+	static final int			ACC_PUBLIC		= 0x0001;
+	static final int			ACC_STATIC		= 0x0008;
+	static final int			ACC_FINAL		= 0x0010;
+	static final int			ACC_SUPER		= 0x0020;
+
+	/** The verification type of int values, used in the frames instead of an index of the constant pool */
+	static final int			TYPE_INT		= -1;
+	/** The verification type of float values, used in the frames instead of an index of the constant pool */
+	static final int			TYPE_FLOAT		= -2;
+
+	static final int			ACONST_NULL		= 0x01;
+	static final int			ICONST_0		= 0x03;
+	static final int			ICONST_1		= 0x04;
+	static final int			FCONST_0		= 0x0B;
+	static final int			BIPUSH			= 0x10;
+	static final int			SIPUSH			= 0x11;
+	static final int			LDC_W			= 0x13;
+	static final int			ILOAD			= 0x15;
+	static final int			FLOAD			= 0x17;
+	static final int			ALOAD			= 0x19;
+	static final int			AALOAD			= 0x32;
+	static final int			ISTORE			= 0x36;
+	static final int			FSTORE			= 0x38;
+	static final int			ASTORE			= 0x3A;
+	static final int			AASTORE			= 0x53;
+	static final int			POP				= 0x57;
+	static final int			DUP				= 0x59;
+	static final int			FADD			= 0x62;
+	static final int			FSUB			= 0x66;
+	static final int			FMUL			= 0x6A;
+	static final int			FDIV			= 0x6E;
+	static final int			FREM			= 0x72;
+	static final int			FNEG			= 0x76;
+	static final int			IFEQ			= 0x99;
+	static final int			IFNE			= 0x9A;
+	static final int			GOTO			= 0xA7;
+	static final int			RETURN			= 0xB1;
+	static final int			GETSTATIC		= 0xB2;
+	static final int			INVOKEVIRTUAL	= 0xB6;
+	static final int			INVOKESPECIAL	= 0xB7;
+	static final int			INVOKESTATIC	= 0xB8;
+	static final int			NEW				= 0xBB;
+	static final int			ANEWARRAY		= 0xBD;
+	static final int			ATHROW			= 0xBF;
+	static final int			CHECKCAST		= 0xC0;
+	private static final int	WIDE			= 0xC4;
+
+	private static final int	CONSTANT_UTF8			= 1;
+	private static final int	CONSTANT_INTEGER		= 3;
+	private static final int	CONSTANT_FLOAT			= 4;
+	private static final int	CONSTANT_CLASS			= 7;
+	private static final int	CONSTANT_STRING			= 8;
+	private static final int	CONSTANT_FIELDREF		= 9;
+	private static final int	CONSTANT_METHODREF		= 10;
+	private static final int	CONSTANT_NAME_AND_TYPE	= 12;
+
+
+	private final ByteArrayOutputStream		pool		= new ByteArrayOutputStream ();
+	private final DataOutputStream			poolOut		= new DataOutputStream (pool);
+	private final Map <String, Integer>		poolIndex	= new HashMap<> ();
+	private int								poolSize	= 1;
+	private final ByteArrayOutputStream		methods		= new ByteArrayOutputStream ();
+	private final DataOutputStream			methodsOut	= new DataOutputStream (methods);
+	private int								nMethods;
+	private final int						thisClass;
+	private final int						superClass;
+
+
+
+	/**
+	 * Create a new {@link ClassWriter}
+	 *
+	 * @param name The internal name of the class
+	 */
+	ClassWriter (String name) {
+		thisClass = classRef (name);
+		superClass = classRef ("java/lang/Object");
+	}
+
+
+
+	/**
+	 * Get the index of a string in the constant pool
+	 *
+	 * @param value The string
+	 * @return The index
+	 */
+	int utf8 (String value) {
+		Integer index = poolIndex.get ("U" + value);
+		if (index == null) {
+			index = add ("U" + value, 1);
+			write (() -> {
+				poolOut.writeByte (CONSTANT_UTF8);
+				poolOut.writeUTF (value);
+			});
+		}
+		return index;
+	}
+
+
+	/**
+	 * Get the index of an int in the constant pool
+	 *
+	 * @param value The value
+	 * @return The index
+	 */
+	int integer (int value) {
+		Integer index = poolIndex.get ("I" + value);
+		if (index == null) {
+			index = add ("I" + value, 1);
+			write (() -> {
+				poolOut.writeByte (CONSTANT_INTEGER);
+				poolOut.writeInt (value);
+			});
+		}
+		return index;
+	}
+
+
+	/**
+	 * Get the index of a float in the constant pool
+	 *
+	 * @param value The value
+	 * @return The index
+	 */
+	int floating (float value) {
+		int bits = Float.floatToRawIntBits (value);
+		Integer index = poolIndex.get ("F" + bits);
+		if (index == null) {
+			index = add ("F" + bits, 1);
+			write (() -> {
+				poolOut.writeByte (CONSTANT_FLOAT);
+				poolOut.writeInt (bits);
+			});
+		}
+		return index;
+	}
+
+
+	/**
+	 * Get the index of a string constant in the constant pool
+	 *
+	 * @param value The string
+	 * @return The index
+	 */
+	int string (String value) {
+		Integer index = poolIndex.get ("S" + value);
+		if (index == null) {
+			int valueIndex = utf8 (value);
+			index = add ("S" + value, 1);
+			write (() -> {
+				poolOut.writeByte (CONSTANT_STRING);
+				poolOut.writeShort (valueIndex);
+			});
+		}
+		return index;
+	}
+
+
+	/**
+	 * Get the index of a class in the constant pool
+	 *
+	 * @param name The internal name of the class
+	 * @return The index
+	 */
+	int classRef (String name) {
+		Integer index = poolIndex.get ("C" + name);
+		if (index == null) {
+			int nameIndex = utf8 (name);
+			index = add ("C" + name, 1);
+			write (() -> {
+				poolOut.writeByte (CONSTANT_CLASS);
+				poolOut.writeShort (nameIndex);
+			});
+		}
+		return index;
+	}
+
+
+	/**
+	 * Get the index of a static method in the constant pool
+	 *
+	 * @param owner The internal name of the class
+	 * @param name The name of the method
+	 * @param descriptor The descriptor of the method
+	 * @return The index
+	 */
+	int methodRef (String owner, String name, String descriptor) {
+		return memberRef (CONSTANT_METHODREF, owner, name, descriptor);
+	}
+
+
+	/**
+	 * Get the index of a field in the constant pool
+	 *
+	 * @param owner The internal name of the class
+	 * @param name The name of the field
+	 * @param descriptor The descriptor of the field
+	 * @return The index
+	 */
+	int fieldRef (String owner, String name, String descriptor) {
+		return memberRef (CONSTANT_FIELDREF, owner, name, descriptor);
+	}
+
+
+	private int memberRef (int tag, String owner, String name, String descriptor) {
+		String key = tag + owner + '.' + name + ':' + descriptor;
+		Integer index = poolIndex.get (key);
+		if (index == null) {
+			int classIndex = classRef (owner);
+			Integer nameAndType = poolIndex.get ("N" + name + ':' + descriptor);
+			if (nameAndType == null) {
+				int nameIndex = utf8 (name), descriptorIndex = utf8 (descriptor);
+				nameAndType = add ("N" + name + ':' + descriptor, 1);
+				write (() -> {
+					poolOut.writeByte (CONSTANT_NAME_AND_TYPE);
+					poolOut.writeShort (nameIndex);
+					poolOut.writeShort (descriptorIndex);
+				});
+			}
+			int nameAndTypeIndex = nameAndType;
+			index = add (key, 1);
+			write (() -> {
+				poolOut.writeByte (tag);
+				poolOut.writeShort (classIndex);
+				poolOut.writeShort (nameAndTypeIndex);
+			});
+		}
+		return index;
+	}
+
+
+	private int add (String key, int size) {
+		int index = poolSize;
+		if (index + size > 0xFFFF) {
+			throw new IllegalStateException ("Too many constants");
+		}
+		poolSize += size;
+		poolIndex.put (key, index);
+		return index;
+	}
+
+
+
+	/**
+	 * Add a static method
+	 *
+	 * @param access The access flags, without {@link #ACC_STATIC}
+	 * @param name The name
+	 * @param descriptor The descriptor
+	 * @param code The code
+	 * @param maxStack The max size of the stack
+	 * @param locals The verification types of the local variables in all frames: the index of a class in the constant pool, {@link #TYPE_INT} or {@link #TYPE_FLOAT}
+	 * @param handlers The exception handlers: start, end, handler and index of the class of the exception, for each one
+	 * @param frames The positions of the frames, in ascending order
+	 * @param stacks The value in the stack of each frame: the index of a class in the constant pool, or 0 if the stack is empty
+	 */
+	void method (int access, String name, String descriptor, byte[] code, int maxStack, int[] locals, int[] handlers, int[] frames, int[] stacks) {
+		if (code.length == 0 || code.length > 0xFFFF || locals.length > 0xFFFF) {
+			throw new IllegalStateException ("Method too large");
+		}
+		int nameIndex = utf8 (name), descriptorIndex = utf8 (descriptor);
+		int codeIndex = utf8 ("Code"), stackMapIndex = utf8 ("StackMapTable");
+		write (() -> {
+			ByteArrayOutputStream table = new ByteArrayOutputStream ();
+			DataOutputStream tableOut = new DataOutputStream (table);
+			tableOut.writeShort (frames.length);
+			for (int i = 0; i < frames.length; i++) {
+				tableOut.writeByte (255); // full_frame
+				tableOut.writeShort (i == 0 ? frames[0] : frames[i] - frames[i - 1] - 1);
+				tableOut.writeShort (locals.length);
+				for (int type : locals) {
+					writeType (tableOut, type);
+				}
+				if (stacks[i] == 0) {
+					tableOut.writeShort (0);
+				} else {
+					tableOut.writeShort (1);
+					writeType (tableOut, stacks[i]);
+				}
+			}
+
+			methodsOut.writeShort (access | ACC_STATIC);
+			methodsOut.writeShort (nameIndex);
+			methodsOut.writeShort (descriptorIndex);
+			methodsOut.writeShort (1); // Attributes
+			methodsOut.writeShort (codeIndex);
+			methodsOut.writeInt (12 + code.length + handlers.length * 2 + (frames.length > 0 ? 6 + table.size () : 0));
+			methodsOut.writeShort (maxStack);
+			methodsOut.writeShort (locals.length);
+			methodsOut.writeInt (code.length);
+			methodsOut.write (code);
+			methodsOut.writeShort (handlers.length / 4);
+			for (int handler : handlers) {
+				methodsOut.writeShort (handler);
+			}
+			if (frames.length > 0) {
+				methodsOut.writeShort (1);
+				methodsOut.writeShort (stackMapIndex);
+				methodsOut.writeInt (table.size ());
+				table.writeTo (methodsOut);
+			} else {
+				methodsOut.writeShort (0);
+			}
+		});
+		nMethods++;
+	}
+
+
+	private static void writeType (DataOutputStream out, int type) throws IOException {
+		if (type == TYPE_INT) {
+			out.writeByte (1); // Integer_variable_info
+		} else if (type == TYPE_FLOAT) {
+			out.writeByte (2); // Float_variable_info
+		} else {
+			out.writeByte (7); // Object_variable_info
+			out.writeShort (type);
+		}
+	}
+
+
+
+	/**
+	 * Get the content of the class file
+	 *
+	 * @param access The access flags
+	 * @return The class file
+	 */
+	byte[] toByteArray (int access) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream (16 + pool.size () + methods.size ());
+		DataOutputStream out = new DataOutputStream (bytes);
+		write (() -> {
+			out.writeInt (0xCAFEBABE);
+			out.writeShort (0);
+			out.writeShort (VERSION);
+			out.writeShort (poolSize);
+			pool.writeTo (out);
+			out.writeShort (access | ACC_SUPER);
+			out.writeShort (thisClass);
+			out.writeShort (superClass);
+			out.writeShort (0); // Interfaces
+			out.writeShort (0); // Fields
+			out.writeShort (nMethods);
+			methods.writeTo (out);
+			out.writeShort (0); // Attributes
+		});
+		return bytes.toByteArray ();
+	}
+
+
+
+	/**
+	 * The code of a method
+	 */
+	static final class Code {
+
+		private final ClassWriter	writer;
+		private byte[]				out		= new byte[256];
+		private int					length;
+		private int[]				frames	= new int[16];
+		private int[]				stacks	= new int[16];
+		private int					nFrames;
+
+
+		/**
+		 * Create a new {@link Code}
+		 *
+		 * @param writer The class which contains the method
+		 */
+		Code (ClassWriter writer) {
+			this.writer = writer;
+		}
+
+
+		/**
+		 * Get the length of the code written so far
+		 *
+		 * @return The position of the next opcode
+		 */
+		int length () {
+			return length;
+		}
+
+
+		/**
+		 * Add an opcode without operands
+		 *
+		 * @param opcode The opcode
+		 */
+		void emit (int opcode) {
+			if (length == out.length) {
+				out = Arrays.copyOf (out, length << 1);
+			}
+			out[length++] = (byte) opcode;
+		}
+
+
+		private void emit2 (int value) {
+			emit (value >> 8);
+			emit (value);
+		}
+
+
+		/**
+		 * Push an int
+		 *
+		 * @param value The value
+		 */
+		void push (int value) {
+			if (value >= -1 && value <= 5) {
+				emit (ICONST_0 + value);
+			} else if (value == (byte) value) {
+				emit (BIPUSH);
+				emit (value);
+			} else if (value == (short) value) {
+				emit (SIPUSH);
+				emit2 (value);
+			} else {
+				emit (LDC_W);
+				emit2 (writer.integer (value));
+			}
+		}
+
+
+		/**
+		 * Push a float
+		 *
+		 * @param value The value
+		 */
+		void push (float value) {
+			emit (LDC_W);
+			emit2 (writer.floating (value));
+		}
+
+
+		/**
+		 * Push a string, or null
+		 *
+		 * @param value The value
+		 */
+		void push (String value) {
+			if (value == null) {
+				emit (ACONST_NULL);
+			} else {
+				emit (LDC_W);
+				emit2 (writer.string (value));
+			}
+		}
+
+
+		/**
+		 * Load or store a local variable
+		 *
+		 * @param opcode The opcode: {@link #ILOAD}, {@link #FLOAD}, {@link #ALOAD}, {@link #ISTORE}, {@link #FSTORE} or {@link #ASTORE}
+		 * @param index The index of the local variable
+		 */
+		void local (int opcode, int index) {
+			if (index > 0xFF) {
+				emit (WIDE);
+				emit (opcode);
+				emit2 (index);
+			} else {
+				emit (opcode);
+				emit (index);
+			}
+		}
+
+
+		/**
+		 * Add an opcode which takes a class
+		 *
+		 * @param opcode The opcode: {@link #NEW}, {@link #ANEWARRAY} or {@link #CHECKCAST}
+		 * @param name The internal name of the class
+		 */
+		void type (int opcode, String name) {
+			emit (opcode);
+			emit2 (writer.classRef (name));
+		}
+
+
+		/**
+		 * Add an opcode which takes a field
+		 *
+		 * @param opcode The opcode
+		 * @param owner The internal name of the class
+		 * @param name The name of the field
+		 * @param descriptor The descriptor of the field
+		 */
+		void field (int opcode, String owner, String name, String descriptor) {
+			emit (opcode);
+			emit2 (writer.fieldRef (owner, name, descriptor));
+		}
+
+
+		/**
+		 * Call a method
+		 *
+		 * @param opcode The opcode: {@link #INVOKESTATIC}, {@link #INVOKEVIRTUAL} or {@link #INVOKESPECIAL}
+		 * @param owner The internal name of the class
+		 * @param name The name of the method
+		 * @param descriptor The descriptor of the method
+		 */
+		void invoke (int opcode, String owner, String name, String descriptor) {
+			emit (opcode);
+			emit2 (writer.methodRef (owner, name, descriptor));
+		}
+
+
+		/**
+		 * Add a branch, whose destination is set later by {@link #patch(int, int)}
+		 *
+		 * @param opcode The opcode: {@link #GOTO}, {@link #IFEQ} or {@link #IFNE}
+		 * @return The position of the branch
+		 */
+		int branch (int opcode) {
+			int at = length;
+			emit (opcode);
+			emit2 (0);
+			return at;
+		}
+
+
+		/**
+		 * Set the destination of a branch
+		 *
+		 * @param at The position of the branch
+		 * @param destination The position of the destination
+		 */
+		void patch (int at, int destination) {
+			int offset = destination - at;
+			if (offset != (short) offset) {
+				throw new IllegalStateException ("Branch too long");
+			}
+			out[at + 1] = (byte) (offset >> 8);
+			out[at + 2] = (byte) offset;
+		}
+
+
+		/**
+		 * Add a stack map frame at the current position
+		 *
+		 * @param stack The index of the class of the value in the stack, or 0 if the stack is empty
+		 */
+		void frame (int stack) {
+			if (nFrames > 0 && frames[nFrames - 1] == length) {
+				return;
+			}
+			if (nFrames == frames.length) {
+				frames = Arrays.copyOf (frames, nFrames << 1);
+				stacks = Arrays.copyOf (stacks, nFrames << 1);
+			}
+			frames[nFrames] = length;
+			stacks[nFrames++] = stack;
+		}
+
+
+		/**
+		 * Add the code to the class, as a static method
+		 *
+		 * @param access The access flags, without {@link #ACC_STATIC}
+		 * @param name The name
+		 * @param descriptor The descriptor
+		 * @param maxStack The max size of the stack
+		 * @param locals The verification types of the local variables in all frames
+		 * @param handlers The exception handlers
+		 * @see ClassWriter#method(int, String, String, byte[], int, int[], int[], int[], int[])
+		 */
+		void method (int access, String name, String descriptor, int maxStack, int[] locals, int[] handlers) {
+			writer.method (access, name, descriptor, Arrays.copyOf (out, length), maxStack, locals, handlers, Arrays.copyOf (frames, nFrames), Arrays.copyOf (stacks, nFrames));
+		}
+
+	}
+
+
+
+	/**
+	 * Run a write operation on an in-memory stream, which never throws {@link IOException}
+	 *
+	 * @param write The write operation
+	 */
+	private static void write (Write write) {
+		try {
+			write.run ();
+		} catch (IOException e) {
+			throw new IllegalStateException (e);
+		}
+	}
+
+
+	@FunctionalInterface
+	private interface Write {
+
+		void run () throws IOException;
+	}
+
+}
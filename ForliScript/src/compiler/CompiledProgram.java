@@ -0,0 +1,194 @@
+package compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import expressions.Primitive;
+import expressions.ValArray;
+import expressions.ValArrayConst;
+import expressions.Value;
+import expressions.Variable;
+
+
+/**
+ * A {@link Program} compiled for {@link Engine#BYTECODE} or {@link Engine#JVM}, which can be executed by many threads at the same time.
+ * <p>
+ * A compiled program only contains the code, which is never modified by an execution. The state of each execution (the variables and the
+ * values it can modify) is kept in an {@link ExecutionContext}: a thread creates its own contexts with {@link #newContext()}, binds the
+ * variables by slot and runs them, without locking and without compiling the program again.
+ * <p>
+ * The variables of a new context are null, like the variables of a program which has just been compiled.
+ *
+ * @author MarcoForlini
+ */
+public final class CompiledProgram {
+
+	/** The program, used by the instructions which fail */
+	final Program				program;
+	final Bytecode				bytecode;
+	/** The bytecode translated into a JVM class, or null to interpret the bytecode */
+	final JvmProgram			jvmProgram;
+	/** The values of a new context: variables never assigned and copies of the constants */
+	final Value[]				initialValues;
+	/** The registers an execution can modify: the variables and the arrays */
+	final int[]					mutable;
+	/** True if some constants are arrays */
+	final boolean				arrays;
+	/** The slot of each variable */
+	private final Map <String, Integer>	slots;
+	/** Identifies the compiled code, to check that a {@link Checkpoint} is restored into the same program */
+	final int					fingerprint;
+
+
+
+	/**
+	 * Create a new {@link CompiledProgram}
+	 *
+	 * @param program The program
+	 * @param bytecode The program compiled into bytecode
+	 * @param jvmProgram The bytecode translated into a JVM class, or null to interpret the bytecode
+	 */
+	CompiledProgram (Program program, Bytecode bytecode, JvmProgram jvmProgram) {
+		this.program = program;
+		this.bytecode = bytecode;
+		this.jvmProgram = jvmProgram;
+		initialValues = new Value[bytecode.values.length];
+		slots = new HashMap<> (bytecode.variables * 4 / 3 + 1);
+		Map <Primitive, Primitive> copies = new IdentityHashMap<> ();
+		int[] mutable = new int[initialValues.length];
+		int nMutable = 0;
+		boolean arrays = false;
+		for (int r = 0; r < initialValues.length; r++) {
+			Value value = bytecode.values[r];
+			if (value instanceof Variable || value instanceof ValArray) {
+				mutable[nMutable++] = r;
+				arrays |= value instanceof ValArray;
+			}
+			if (value instanceof Variable) {
+				Variable variable = (Variable) value;
+				initialValues[r] = new Variable (variable.name, Value.Null, variable.isConstant ());
+				if (r < bytecode.variables) {
+					slots.put (variable.name, r);
+				}
+			} else {
+				initialValues[r] = copy ((Primitive) value, copies);
+			}
+		}
+		this.mutable = Arrays.copyOf (mutable, nMutable);
+		this.arrays = arrays;
+		fingerprint = 31 * Arrays.hashCode (bytecode.code) + initialValues.length;
+	}
+
+
+
+	/**
+	 * Create a new context, to execute the program with its own variables
+	 *
+	 * @return A new context, whose variables are null
+	 */
+	public ExecutionContext newContext () {
+		return new ExecutionContext (this, copyValues ());
+	}
+
+
+	/**
+	 * Get the slot of a variable
+	 *
+	 * @param name The name of the variable
+	 * @return The slot, the same returned by {@link Program#slot(String)}
+	 * @throws ExecutionException If the program has no variable with the given name
+	 */
+	public int slot (String name) throws ExecutionException {
+		Integer slot = slots.get (name);
+		if (slot == null) {
+			throw new ExecutionException ("The program has no variable named " + name);
+		}
+		return slot;
+	}
+
+
+	/**
+	 * Get the number of slots
+	 *
+	 * @return The number of variables
+	 */
+	public int getSlotCount () {
+		return bytecode.variables;
+	}
+
+
+	/**
+	 * Get the engine which executes the program
+	 *
+	 * @return {@link Engine#JVM} if the program has been translated into a JVM class, {@link Engine#BYTECODE} otherwise
+	 */
+	public Engine getEngine () {
+		return jvmProgram != null ? Engine.JVM : Engine.BYTECODE;
+	}
+
+
+
+	/**
+	 * Create the values of a new context: new variables, and copies of the constants which an execution may modify
+	 *
+	 * @return The values
+	 */
+	Value[] copyValues () {
+		Value[] values = new Value[initialValues.length];
+		Map <Primitive, Primitive> copies = new IdentityHashMap<> ();
+		for (int r = 0; r < values.length; r++) {
+			Value value = initialValues[r];
+			if (value instanceof Variable) {
+				Variable variable = (Variable) value;
+				values[r] = new Variable (variable.name, Value.Null, variable.isConstant ());
+			} else {
+				values[r] = copy ((Primitive) value, copies);
+			}
+		}
+		return values;
+	}
+
+
+	/**
+	 * Execute the program with the given context
+	 *
+	 * @param context The context
+	 * @throws ExecutionException If the program contains an error
+	 */
+	void run (ExecutionContext context) throws ExecutionException {
+		if (jvmProgram != null && context.checkpoints == null && context.budget == null) {
+			jvmProgram.run (context.values, program, context.input, context.output);
+		} else { // Only the interpreter saves checkpoints and checks the budget
+			bytecode.run (context, program);
+		}
+	}
+
+
+	/**
+	 * Copy a value which an execution may modify: the arrays and their elements. The other values are immutable and can be shared.
+	 *
+	 * @param value The value
+	 * @param copies The values already copied, so that an array contained in two values is still the same array in the copies
+	 * @return The copy
+	 */
+	static Primitive copy (Primitive value, Map <Primitive, Primitive> copies) {
+		if (!(value instanceof ValArray)) {
+			return value;
+		}
+		Primitive copy = copies.get (value);
+		if (copy == null) {
+			List <Primitive> elements = new ArrayList<> (((ValArray) value).getElements ().size ());
+			copy = value instanceof ValArrayConst ? new ValArrayConst (elements) : new ValArray (elements);
+			copies.put (value, copy);
+			for (Primitive element : ((ValArray) value).getElements ()) {
+				elements.add (copy (element, copies));
+			}
+		}
+		return copy;
+	}
+
+}
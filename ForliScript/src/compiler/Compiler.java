@@ -1,24 +1,22 @@
 package compiler;
 
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import expressions.BadExpressionException;
-import expressions.Constant;
 import expressions.Expression;
-import expressions.Operator;
-import expressions.Primitive;
-import expressions.STDFunction;
-import expressions.Token;
-import expressions.ValNumber;
-import expressions.ValString;
-import expressions.Value;
-import expressions.Variable;
 import instruction.Instruction;
+import instruction.InstructionCheckpoint;
 import instruction.InstructionElse;
 import instruction.InstructionElseIf;
 import instruction.InstructionEndIf;
@@ -40,29 +38,40 @@ import instruction.InstructionWhile;
  */
 public class Compiler {
 
+	/** The version of the compiler. Change it when the compiled programs change, so the cached programs are compiled again. */
+	public static final int VERSION = 2;
+
+	/** Max number of lines parsed by a single task when compiling in parallel */
+	private static final int PARALLEL_THRESHOLD = 256;
+
+
+	/** The lines to compile, or null if they're read from a stream */
 	private final List <String>				lines;
+	/** The last line read from the stream: the previous ones are not kept */
+	private String							streamedLine;
 	private int								nLines;
+	private ParsedLine[]					parsedLines;
+	private final SymbolTable				symbols;
+	private final Program					previous;
 
 	private final List <Instruction>		instructions	= new ArrayList<> ();
-	private final Map <String, Variable>	variables		= new HashMap<> ();
 	private final Map <String, Integer>		labels			= new HashMap<> ();
-
-
-	private static final Value[]	noParams			= new Value[0];
-	private static final Pattern	regexNewLine		= Pattern.compile ("\\\\r|\\\\n|\\\\r\\\\n");
-	private static final Pattern	regexTabulation		= Pattern.compile ("\\\\t");
-	private static final Pattern	regexDoubleQuote	= Pattern.compile ("\\\\\"");
+	private int								nCompLine		= 0;
 
 
 
 	/**
 	 * Private constructor
 	 *
-	 * @param lines The lines to compile
+	 * @param lines The lines to compile, or null to read them from a stream
+	 * @param previous The previous version of the program, or null
 	 */
-	private Compiler (List <String> lines) {
+	private Compiler (List <String> lines, Program previous) {
 		this.lines = lines;
-		nLines = lines.size ();
+		this.previous = previous;
+		nLines = lines != null ? lines.size () : 0;
+		parsedLines = new ParsedLine[lines != null ? nLines : 16];
+		symbols = new SymbolTable (previous != null ? previous.getVariables () : null);
 	}
 
 
@@ -75,94 +84,389 @@ public class Compiler {
 	 * @throws CompilatorException If the compilation fails due to some error
 	 */
 	public static Program compile (List <String> lines) throws CompilatorException {
-		Compiler compiler = new Compiler (lines);
-		return compiler.parseInstructions ();
+		Compiler compiler = new Compiler (lines, null);
+		Parser parser = new Parser (compiler.symbols);
+		for (int nLine = 0; nLine < compiler.nLines; nLine++) {
+			compiler.addInstructions (nLine, compiler.parsedLines[nLine] = compiler.parseLine (parser, nLine));
+		}
+		return compiler.buildStructure ();
 	}
 
 
+	/**
+	 * Create a new {@link Compiler} which reads the lines from the reader and compiles each line as soon as it's read.
+	 * The lines are trimmed, like the ones returned by {@link FileManager#readSource(String)}. Only the line being compiled is kept in memory:
+	 * the source code is not retained, so the program has only the text of its instructions.
+	 *
+	 * @param reader The reader of the source code
+	 * @return The instruction to execute
+	 * @throws IOException If an any IO problems happens
+	 * @throws CompilatorException If the compilation fails due to some error
+	 */
+	public static Program compile (BufferedReader reader) throws IOException, CompilatorException {
+		Compiler compiler = new Compiler (null, null);
+		Parser parser = new Parser (compiler.symbols);
+		String line;
+		int nLine;
+		while ((line = reader.readLine ()) != null) {
+			nLine = compiler.addLine (line.trim ());
+			compiler.addInstructions (nLine, compiler.parsedLines[nLine] = compiler.parseLine (parser, nLine));
+		}
+		return compiler.buildStructure ();
+	}
+
 
 	/**
-	 * Compile the lines and return a program
+	 * Create a new {@link Compiler} which parses the expressions of the lines in parallel on the given pool.
+	 * The lines are then joined in order, so the program is identical to the one returned by {@link #compile(List)}.
 	 *
+	 * @param lines The lines to compile
+	 * @param pool The pool which parses the lines
 	 * @return The instruction to execute
 	 * @throws CompilatorException If the compilation fails due to some error
 	 */
-	private Program parseInstructions () throws CompilatorException {
-		String line, firstToken, lb;
-		int firstSpace;
-		int length;
-
-		for (int nLine = 0, nCompLine = 0; nLine < nLines; nLine++) {
-			line = lines.get (nLine);
-			length = line.length ();
-			if (length == 0) {
-				continue;
+	public static Program compile (List <String> lines, ForkJoinPool pool) throws CompilatorException {
+		Compiler compiler = new Compiler (lines instanceof RandomAccess ? lines : new ArrayList<> (lines), null);
+		pool.invoke (compiler.new ParseTask (0, compiler.nLines));
+		for (int nLine = 0; nLine < compiler.nLines; nLine++) {
+			compiler.addInstructions (nLine, compiler.parsedLines[nLine]);
+		}
+		return compiler.buildStructure ();
+	}
+
+
+	/**
+	 * Create a new {@link Compiler} which parses the expressions of the lines in parallel on the common pool
+	 *
+	 * @param lines The lines to compile
+	 * @return The instruction to execute
+	 * @throws CompilatorException If the compilation fails due to some error
+	 * @see #compile(List, ForkJoinPool)
+	 */
+	public static Program compileParallel (List <String> lines) throws CompilatorException {
+		return compile (lines, ForkJoinPool.commonPool ());
+	}
+
+
+	/**
+	 * Compile a new version of a program. Only the lines which are not in the previous version are parsed: the others reuse the parsed
+	 * expressions of the previous version and, if they are still in the same position, its instructions too.
+	 * <p>
+	 * The lines are matched by their text and by their position: a line reuses the line of the previous version in the same position if it
+	 * has the same text, otherwise the first line with the same text which hasn't been reused yet, so each parsed line of the previous version
+	 * is reused at most once. The text is compared only when the hashes of the lines are equal. If the new version has the same blocks as the previous one (the same If, ElseIf, Else, EndIf,
+	 * While and Loop in the same order), the jump destinations of the previous version are moved to the new positions of their instructions
+	 * instead of building the structure again.
+	 * <p>
+	 * The new program shares its variables with the previous one, so the previous program must not be used anymore.
+	 * If the previous program has been read from a file, all lines are parsed again.
+	 *
+	 * @param previous The previous version of the program
+	 * @param lines The lines to compile
+	 * @return The instruction to execute
+	 * @throws CompilatorException If the compilation fails due to some error
+	 */
+	public static Program recompile (Program previous, List <String> lines) throws CompilatorException {
+		if (previous.parsedLines == null) {
+			return compile (lines);
+		}
+
+		ParsedLine[] previousLines = previous.parsedLines;
+		Map <Long, ArrayDeque <Integer>> occurrences = new HashMap<> (previousLines.length * 4 / 3 + 1);
+		for (int nLine = 0; nLine < previousLines.length; nLine++) {
+			ParsedLine parsed = previousLines[nLine];
+			if (parsed != null && parsed.error == null) {
+				occurrences.computeIfAbsent (parsed.hash, (Long hash) -> new ArrayDeque<> (1)).add (nLine);
 			}
+		}
 
-			firstSpace = line.indexOf (' ');
-			if (firstSpace >= 0) {
-				firstToken = line.substring (0, firstSpace);
+		Compiler compiler = new Compiler (lines, previous);
+		Parser parser = new Parser (compiler.symbols);
+		boolean[] reused = new boolean[previousLines.length];
+		ParsedLine parsed;
+		for (int nLine = 0; nLine < compiler.nLines; nLine++) {
+			String line = lines.get (nLine);
+			int match = line.isEmpty () ? -1 : match (line, nLine, previousLines, occurrences, reused);
+			if (match < 0) {
+				parsed = compiler.parseLine (parser, nLine);
 			} else {
-				firstToken = line;
+				parsed = previousLines[match];
+				if (parsed.variables != null) {
+					for (String name : parsed.variables) {
+						compiler.symbols.get (name, nLine);
+					}
+				}
 			}
+			compiler.addInstructions (nLine, compiler.parsedLines[nLine] = parsed);
+		}
+		return compiler.patchStructure () ? compiler.newProgram () : compiler.buildStructure ();
+	}
 
-			try {
-				switch (firstToken) {
-					case "If":
-						instructions.add (new InstructionIf (line, nLine, nCompLine++, parseExpression (line, 3, length)));
-						break;
-					case "ElseIf":
-						instructions.add (new InstructionJump (null, nLine, nCompLine++));
-						instructions.add (new InstructionElseIf (line, nLine, nCompLine++, parseExpression (line, 7, length)));
-						break;
-					case "Else":
-						instructions.add (new InstructionJump (null, nLine, nCompLine++));
-						instructions.add (new InstructionElse (line, nLine, nCompLine++));
-						break;
-					case "EndIf":
-						instructions.add (new InstructionEndIf (line, nLine, nCompLine++));
-						break;
-					case "While":
-						instructions.add (new InstructionWhile (line, nLine, nCompLine++, parseExpression (line, 6, length)));
-						break;
-					case "Loop":
-						instructions.add (new InstructionLoop (line, nLine, nCompLine++));
-						break;
-					case "Print":
-						instructions.add (new InstructionPrint (line, nLine, nCompLine++, parseExpression (line, 6, length)));
-						break;
-					case "Println":
-						instructions.add (new InstructionPrintln (line, nLine, nCompLine++, parseExpression (line, 8, length)));
-						break;
-					case "Read":
-						instructions.add (new InstructionRead (line, nLine, nCompLine++, parseExpression (line, 5, length)));
-						break;
-					case "Return":
-						instructions.add (new InstructionReturn (line, nLine, nCompLine++));
-						break;
-					case "Label":
-						lb = parseExpression (line, 6, line.length ()).eval ().toString ();
-						if (labels.putIfAbsent (lb, nCompLine) != null) {
-							throw new CompilatorException ("Error while compiling line " + nLine + ".\nA Label already exists with name " + lb);
-						}
-						break;
-					case "Goto":
-						lb = parseExpression (line, 5, line.length ()).eval ().toString ();
-						Integer destination = labels.get (lb);
-						if (destination == null) {
-							throw new CompilatorException ("Error while compiling line " + nLine + ".\nNo label exists with name " + lb);
-						}
-						instructions.add (new InstructionJump (null, nLine, nCompLine++, destination));
-						break;
-					default:
-						instructions.add (new InstructionExpression (line, nLine, nCompLine++, parseExpression (line, 0, length)));
+
+
+	/**
+	 * Find the line of the previous version of a program which has the same text as a new line
+	 *
+	 * @param line The new line
+	 * @param nLine The line number of the new line
+	 * @param previousLines The parsed lines of the previous version
+	 * @param occurrences The line numbers of the previous version which have each hash, in order
+	 * @param reused The lines of the previous version already reused
+	 * @return The line number in the previous version: the same line number if possible, otherwise the first line not reused yet. -1 if no
+	 *         line has the same text.
+	 */
+	private static int match (String line, int nLine, ParsedLine[] previousLines, Map <Long, ArrayDeque <Integer>> occurrences, boolean[] reused) {
+		long hash = ParsedLine.hash (line);
+		ParsedLine same = nLine < previousLines.length ? previousLines[nLine] : null;
+		if (same != null && same.error == null && same.hash == hash && !reused[nLine] && same.line.equals (line)) {
+			reused[nLine] = true;
+			return nLine;
+		}
+		ArrayDeque <Integer> candidates = occurrences.get (hash);
+		if (candidates != null) {
+			for (Iterator <Integer> i = candidates.iterator (); i.hasNext ();) {
+				int candidate = i.next ();
+				if (reused[candidate]) {
+					i.remove ();
+				} else if (previousLines[candidate].line.equals (line)) { // Not just a line with the same hash
+					i.remove ();
+					reused[candidate] = true;
+					return candidate;
 				}
-			} catch (BadExpressionException | ExecutionException e) {
-				throw new CompilatorException ("Error while compiling line " + nLine, e);
 			}
 		}
+		return -1;
+	}
+
+
+
+	/**
+	 * Read the next line of a stream. It replaces the previous line, which has already been compiled.
+	 *
+	 * @param line The line
+	 * @return The line number
+	 */
+	private int addLine (String line) {
+		if (nLines == parsedLines.length) {
+			parsedLines = Arrays.copyOf (parsedLines, Math.max (16, nLines << 1));
+		}
+		streamedLine = line;
+		return nLines++;
+	}
+
+
+	/**
+	 * Get the text of a line
+	 *
+	 * @param nLine The line number, which must be the last line read if the lines are read from a stream
+	 * @return The line
+	 */
+	private String line (int nLine) {
+		return lines != null ? lines.get (nLine) : streamedLine;
+	}
+
 
 
+	/**
+	 * Parse the expression of a line. Any error is kept in the result, to be thrown when the line is added to the program.
+	 *
+	 * @param parser The parser
+	 * @param nLine The line number
+	 * @return The parsed line, or null if the line is empty or only contains a comment
+	 */
+	private ParsedLine parseLine (Parser parser, int nLine) {
+		String line = line (nLine);
+		int length = line.length ();
+		if (length == 0) {
+			return null;
+		}
+
+		int firstSpace = line.indexOf (' ');
+		ParsedLine parsed = new ParsedLine (firstSpace >= 0 ? line.substring (0, firstSpace) : line, line);
+		int from = expressionStart (parsed.firstToken);
+		if (from < 0) {
+			return parsed;
+		}
+
+		try {
+			parsed.expression = parser.parse (line, from, length, nLine);
+			parsed.variables = parser.getVariables ();
+			parsed.constants = parser.getConstants ();
+			if (parsed.expression == null) {
+				if (from == 0) {
+					return null;
+				}
+				parsed.error = new CompilatorException ("Error while compiling line " + nLine + ".\n" + parsed.firstToken + " requires an expression");
+			}
+		} catch (BadExpressionException | ExecutionException e) {
+			parsed.error = new CompilatorException ("Error while compiling line " + nLine, e);
+		} catch (RuntimeException e) { // Thrown by the constant folding: thrown again when the line is added, like the other errors
+			parsed.error = e;
+		}
+		return parsed;
+	}
+
+
+
+	/**
+	 * Get the position of the expression in a line
+	 *
+	 * @param firstToken The first token of the line
+	 * @return The position where the expression starts, or -1 if the line has no expression
+	 */
+	static int expressionStart (String firstToken) {
+		switch (firstToken) {
+			case "If":
+				return 3;
+			case "ElseIf":
+				return 7;
+			case "While":
+			case "Print":
+			case "Label":
+				return 6;
+			case "Println":
+				return 8;
+			case "Read":
+			case "Goto":
+				return 5;
+			case "Else":
+			case "EndIf":
+			case "Loop":
+			case "Return":
+			case "Checkpoint":
+				return -1;
+			default:
+				return 0;
+		}
+	}
+
+
+
+	/**
+	 * Add the instructions of a parsed line to the program. Lines must be added in order.
+	 *
+	 * @param nLine The line number
+	 * @param parsed The parsed line
+	 * @throws CompilatorException If the line contains an error
+	 */
+	private void addInstructions (int nLine, ParsedLine parsed) throws CompilatorException {
+		if (parsed == null) {
+			return;
+		} else if (parsed.error != null) {
+			parsed.throwError ();
+		}
+
+		String line = line (nLine);
+		Expression expression = parsed.expression;
+		String lb;
+		try {
+			if (parsed.constants != null) {
+				for (String name : parsed.constants) {
+					symbols.declareConstant (name, nLine);
+				}
+			}
+			if (previous != null && reuseInstruction (nLine, parsed)) {
+				return;
+			}
+			switch (parsed.firstToken) {
+				case "If":
+					instructions.add (new InstructionIf (line, nLine, nCompLine++, expression));
+					break;
+				case "ElseIf":
+					instructions.add (new InstructionJump (null, nLine, nCompLine++));
+					instructions.add (new InstructionElseIf (line, nLine, nCompLine++, expression));
+					break;
+				case "Else":
+					instructions.add (new InstructionJump (null, nLine, nCompLine++));
+					instructions.add (new InstructionElse (line, nLine, nCompLine++));
+					break;
+				case "EndIf":
+					instructions.add (new InstructionEndIf (line, nLine, nCompLine++));
+					break;
+				case "While":
+					instructions.add (new InstructionWhile (line, nLine, nCompLine++, expression));
+					break;
+				case "Loop":
+					instructions.add (new InstructionLoop (line, nLine, nCompLine++));
+					break;
+				case "Print":
+					instructions.add (new InstructionPrint (line, nLine, nCompLine++, expression));
+					break;
+				case "Println":
+					instructions.add (new InstructionPrintln (line, nLine, nCompLine++, expression));
+					break;
+				case "Read":
+					instructions.add (new InstructionRead (line, nLine, nCompLine++, expression));
+					break;
+				case "Return":
+					instructions.add (new InstructionReturn (line, nLine, nCompLine++));
+					break;
+				case "Checkpoint":
+					instructions.add (new InstructionCheckpoint (line, nLine, nCompLine++));
+					break;
+				case "Label":
+					lb = expression.eval ().toString ();
+					if (labels.putIfAbsent (lb, nCompLine) != null) {
+						throw new CompilatorException ("Error while compiling line " + nLine + ".\nA Label already exists with name " + lb);
+					}
+					break;
+				case "Goto":
+					lb = expression.eval ().toString ();
+					Integer destination = labels.get (lb);
+					if (destination == null) {
+						throw new CompilatorException ("Error while compiling line " + nLine + ".\nNo label exists with name " + lb);
+					}
+					instructions.add (new InstructionJump (null, nLine, nCompLine++, destination));
+					break;
+				default:
+					instructions.add (new InstructionExpression (line, nLine, nCompLine++, expression));
+			}
+		} catch (BadExpressionException | ExecutionException e) {
+			throw new CompilatorException ("Error while compiling line " + nLine, e);
+		}
+	}
+
+
+
+	/**
+	 * If the line is unchanged and its instruction is still in the same position, copy it from the previous program.
+	 * Instructions which hold a jump destination are always created again, since the destination may change.
+	 *
+	 * @param nLine The line number
+	 * @param parsed The parsed line
+	 * @return true if the instruction has been reused
+	 */
+	private boolean reuseInstruction (int nLine, ParsedLine parsed) {
+		switch (parsed.firstToken) {
+			case "If":
+			case "ElseIf":
+			case "Else":
+			case "While":
+			case "Loop":
+			case "Label":
+			case "Goto":
+				return false;
+		}
+		if (nLine >= previous.parsedLines.length || previous.parsedLines[nLine] != parsed) { // Not the same line in the same position
+			return false;
+		}
+		List <Instruction> previousInstructions = previous.getInstructions ();
+		if (nCompLine >= previousInstructions.size () || previousInstructions.get (nCompLine).getLineNumber () != nLine + 1) {
+			return false;
+		}
+		instructions.add (previousInstructions.get (nCompLine++));
+		return true;
+	}
+
+
+
+	/**
+	 * Build the structure of the program and return it
+	 *
+	 * @return The program
+	 * @throws CompilatorException If the structure of the program contains errors
+	 */
+	private Program buildStructure () throws CompilatorException {
 		// Build the structure, check the If, While, etc blocks, build the "Jump" destinations, etc...
 
 
@@ -220,557 +524,142 @@ public class Compiler {
 				throw new CompilatorException ("Error while compiling instruction " + cur, e);
 			}
 		}
-
-
-		return new Program (instructions, variables);
+		return newProgram ();
 	}
 
 
 
 	/**
-	 * Search a value with the given name. If no value nor variable exists, create a new Variable.
+	 * Set the jump destinations from the ones of the previous version of the program, if both versions have the same blocks. Each block
+	 * instruction of the new version takes the destinations of the one in the same order in the previous version, moved to the new
+	 * positions of the instructions they point to. The structure is not checked again, since it's the same of the previous version.
 	 *
-	 * @param tokens The list of tokens
-	 * @param name The name
-	 * @return The (new) value/variable associated to the given name
+	 * @return true if the destinations have been set, false if the blocks have changed and the structure must be built again
 	 */
-	private Token getToken (TokenList tokens, String name) {
-		switch (name) {
-			case "null":
-				return Value.Null;
-			case "const":
-				return Token.CONST;
-			case "true":
-				return Value.True;
-			case "false":
-				return Value.False;
-		}
-
-		Variable var = variables.get (name);
-		if (var == null) {
-			int last = tokens.size () - 1;
-			if (last >= 0 && tokens.get (last) == Token.CONST) {
-				var = new Variable (name, true);
-				tokens.remove (last);
-			} else {
-				var = new Variable (name, false);
+	private boolean patchStructure () {
+		List <Instruction> old = previous.getInstructions ();
+		List <Instruction> blocks = new ArrayList<> ();
+		List <Instruction> oldBlocks = new ArrayList<> ();
+		for (Instruction cur : instructions) {
+			if (isBlock (cur)) {
+				blocks.add (cur);
 			}
-			variables.put (name, var);
 		}
-		return var;
-	}
-
-
-
-	/**
-	 * Attempt to parse the given text and return an object {@link Primitive}
-	 *
-	 * @param text The text to parse
-	 * @param from The min position
-	 * @param to The max position
-	 * @return An object {@link Primitive}
-	 * @throws BadExpressionException If the expression contains errors
-	 */
-	public Value parseValue (String text, int from, int to) throws BadExpressionException {
-		if (from < to) {
-			String subExpr = text.substring (from, to).trim ();
-			switch (subExpr.toLowerCase ()) {
-				case "null":
-					return Value.Null;
-				case "true":
-					return Value.True;
-				case "false":
-					return Value.False;
-			}
-
-			Variable variable = variables.get (subExpr);
-			if (variable != null) {
-				return variable;
+		for (Instruction cur : old) {
+			if (isBlock (cur)) {
+				oldBlocks.add (cur);
 			}
-
-			try {
-				float number = Utils.toNumber (subExpr);
-				return ValNumber.getNumber (number);
-			} catch (NumberFormatException e) {/* Nothing to do */}
 		}
-		return null;
-	}
-
-	/**
-	 * Attempt to parse the given text and return a new object Expression ({@link Primitive}, {@link Variable} or {@link Expression})
-	 *
-	 * @param text The expression
-	 * @param from The min position
-	 * @param to The max position
-	 * @return A new object {@link Expression}
-	 * @throws BadExpressionException If the expression contains an error
-	 * @throws UnrecognizedTokenException If a token is not recognized
-	 * @throws ExecutionException If an error occur while calculating a constant an expression
-	 */
-	public Expression parseExpression (String text, int from, int to) throws BadExpressionException, UnrecognizedTokenException, ExecutionException {
-		if (from >= to) {
-			return null;
+		if (blocks.size () != oldBlocks.size ()) {
+			return false;
 		}
-
-		{
-			Value value = parseValue (text, from, to);
-			if (value != null) {
-				return value;
+		int[] moved = new int[old.size ()]; // The new position of each block instruction of the previous version
+		for (int i = 0; i < blocks.size (); i++) {
+			if (blocks.get (i).getClass () != oldBlocks.get (i).getClass ()) {
+				return false;
 			}
+			moved[oldBlocks.get (i).getCompiledLineNumber ()] = blocks.get (i).getCompiledLineNumber ();
 		}
 
-		/*
-		 * Parse a complex expression:
-		 * 1) Identify all tokens (Expressions and Operators)
-		 * 2) Join Expressions and Operators into new Expressions until a single Expression remains.
-		 */
-
-
-		// Identify tokens in the expression
-		TokenList tokens = new TokenList ();
-		int sx = from, dx = from;
-		boolean digit = false;
-		char c;
-
-		while (sx < to && dx < to) {
-			c = text.charAt (dx);
-			if (c == ')' || c == ']') {
-				throw new BadExpressionException ("Mismatched parenthesys at " + dx + " in " + text);
-			} else if (c == '(') {
-				if (digit) {
-					throw new BadExpressionException ("Missing operator at " + sx + " in " + text);
-				}
-				dx = findBracketClosure (text, sx, to);
-				if (sx + 1 == dx) {
-					throw new BadExpressionException ("Empty brackets at " + sx + " in " + text);
-				} else if (!tokens.add (parseExpression (text, sx + 1, dx))) {
-					throw new BadExpressionException ("Error while parsing expression at " + (sx + 1) + " in " + text);
-				}
-				sx = ++dx;
-			} else if (c == '\"') {
-				if (digit) {
-					throw new BadExpressionException ("Missing operator at " + sx + " in " + text);
-				}
-				dx = findStringClosure (text, sx, to);
-				String str = text.substring (sx + 1, dx);
-				str = regexNewLine.matcher (str).replaceAll ("\n");
-				str = regexTabulation.matcher (str).replaceAll ("\t");
-				str = regexDoubleQuote.matcher (str).replaceAll ("\"");
-				tokens.add (new ValString (str));
-				sx = ++dx;
-			} else if (c == '\'') {
-				if (digit) {
-					throw new BadExpressionException ("Missing operator at " + sx + " in " + text);
-				}
-				dx = text.indexOf ('\'', dx + 1);
-				if (dx < 0 || dx - sx > 3) {
-					throw new BadExpressionException ("Mismatched quotes at " + sx + " in " + text);
-				}
-				String str = text.substring (sx + 1, dx);
-				if (str.length () >= 2) {
-					str = regexNewLine.matcher (str).replaceAll ("\n");
-					str = regexTabulation.matcher (str).replaceAll ("\t");
-					str = regexDoubleQuote.matcher (str).replaceAll ("\"");
-					if (str.length () >= 2) {
-						throw new BadExpressionException ("Unrecognized char at " + sx + 1 + " in " + text);
-					}
-				}
-				tokens.add (new ValString (str));
-				sx = ++dx;
-			} else if (Character.isWhitespace (c)) {
-				if (sx < dx) {
-					tokens.add (parseExpression (text, sx, dx));
-					digit = false;
-				}
-				sx = ++dx;
-				continue;
-			} else if (Character.isDigit (c) || (c == '.' && digit)) {
-				digit = true;
-				dx++;
-				continue;
-			} else if (Character.isLetter (c)) {
-				if (digit) {
-					throw new BadExpressionException ("Missing operator at " + sx + " in " + text);
-				}
-				dx = findNameEnd (text, sx, to); // Where the name ends...
-				if (Character.isLowerCase (c)) {
-					tokens.add (getToken (tokens, text.substring (sx, dx)));
-				} else {
-					STDFunction fun = STDFunction.parse (text, sx, dx); // Get the command
-					if (fun == null) {
-						throw new UnrecognizedTokenException ("Unrecognized token at " + sx + " in " + text);
-					}
-					sx = findBracketCommand (text, dx, to); // Where the list of parameters starts...
-					dx = findBracketClosure (text, sx, to); // Where the list of parameters ends...
-					tokens.add (parseFunctionParams (fun, text, sx + 1, dx)); // Parse the parameters of the command
-					dx++;
-				}
-				sx = dx;
-			} else {
-				Operator op = Operator.parse (text, dx, to);
-				if (op == null) {
-					throw new UnrecognizedTokenException ("Unrecognized token at " + sx + " in " + text);
+		// The blocks never closed keep the destinations they have when they're created (-1), like when the structure is built
+		for (int i = 0; i < blocks.size (); i++) {
+			Instruction cur = blocks.get (i), last = oldBlocks.get (i);
+			int destination;
+			if (cur instanceof InstructionIf) {
+				if ((destination = ((InstructionIf) last).getFalseJump ()) >= 0) {
+					((InstructionIf) cur).setFalseJump (movedFalseJump (destination, old, moved));
 				}
-				tokens.add (parseExpression (text, sx, dx)); // First, eat the previous characters, if any
-				if (op == Operator.comment) {
-					sx = dx = to;
-					break;
-				} else if (op == Operator.elementAt) {
-					tokens.add (op);
-					dx = findSquareBracketClosure (text, sx, to);
-					if (sx + 1 == dx) {
-						throw new BadExpressionException ("Empty brackets at " + sx + " in " + text);
-					} else if (!tokens.add (parseExpression (text, sx + 1, dx))) {
-						throw new BadExpressionException ("Error while parsing expression at " + (sx + 1) + " in " + text);
-					}
-					digit = false;
-					sx = ++dx;
-				} else {
-					if (op == Operator.diff && (tokens.size () <= 0 || tokens.get (tokens.size () - 1) instanceof Operator)) {
-						op = Operator.neg;
-					}
-					tokens.add (op);
-					digit = false;
-					sx = (dx += op.toString ().length ());
+			} else if (cur instanceof InstructionElseIf) {
+				if ((destination = ((InstructionElseIf) last).getFalseJump ()) >= 0) {
+					((InstructionElseIf) cur).setFalseJump (movedFalseJump (destination, old, moved));
 				}
-			}
-		}
-		tokens.add (parseExpression (text, sx, dx));
-
-		if (tokens.isEmpty ()) {
-			return null;
-		}
-
-
-
-		int index = tokens.indexOf (Token.CONST);
-		if (index >= 0) {
-			throw new BadExpressionException ("Misplaced token \"const\"");
-		}
-
-		// Join tokens:
-		// Expression = (UnaryOperator & Expression) || (Expression & BinaryOperator & Expression)
-		// If all Expressions applied to an Operator are constant values, the result is calculated immediately to produce another constant value.
-		// 5+3 ==> value::5 | operator::+ | value::3 ==> [all operands are constant values] ==> result = value::8
-		// 5+varX ==> value::5 | operator::+ | variable::varX ==> [there are variables/commands] ==> result = expression::(3+varX)
-		Token token;
-		Operator op = null;
-		int posOperator = -1;
-		int maxPriority;
-		int i = 0, n;
-		while ((n = tokens.size ()) > 1) {
-			maxPriority = Integer.MIN_VALUE;
-			for (i = 0; i < n; i++) {
-				token = tokens.get (i);
-				if (token instanceof Operator) {
-					op = (Operator) token;
-					if (op.priority > maxPriority /* || (op.priority == maxPriority && op.binaryOp == null) */) {
-						maxPriority = op.priority;
-						posOperator = i;
-					}
+			} else if (cur instanceof InstructionWhile) {
+				if ((destination = ((InstructionWhile) last).getFalseJump ()) >= 0) {
+					((InstructionWhile) cur).setFalseJump (moved[destination - 1] + 1); // After the Loop
 				}
+			} else if (cur instanceof InstructionLoop) {
+				((InstructionLoop) cur).setJumpBack (moved[((InstructionLoop) last).getJumpBack ()]);
 			}
-			if (maxPriority > -100) {
-				OPER: do {
-					Operator oper = (Operator) tokens.get (posOperator);
-					if (posOperator >= n - 1) {
-						throw new BadExpressionException ("Not enough operands for operator " + oper);
-					} else if (oper.binaryOp == null) {
-						token = tokens.get (posOperator + 1);
-						if (token instanceof Operator) {
-							if (((Operator) token).binaryOp != null) {
-								throw new BadExpressionException ("Not enough operands for operator " + oper);
-							}
-							posOperator++;
-							continue OPER;
-						}
-						Expression rExpr = (Expression) token;
-						if (rExpr instanceof Constant) {
-							tokens.set (posOperator, oper.unaryOp.eval (rExpr.eval ()));
-						} else {
-							tokens.set (posOperator, (Expression) () -> oper.unaryOp.eval (rExpr.eval ()));
-						}
-						tokens.remove (posOperator + 1);
-					} else if (posOperator <= 0) {
-						throw new BadExpressionException ("Not enough operands for operator " + oper);
-					} else {
-						Expression lExpr = (Expression) tokens.get (posOperator - 1);
-						Expression rExpr = (Expression) tokens.get (posOperator + 1);
-						if (lExpr instanceof Constant && rExpr instanceof Constant) {
-							tokens.set (posOperator - 1, oper.binaryOp.eval (lExpr.eval (), rExpr.eval ()));
-						} else {
-							tokens.set (posOperator - 1, (Expression) () -> oper.binaryOp.eval (lExpr.eval (), rExpr.eval ()));
-						}
-						tokens.remove (posOperator + 1);
-						tokens.remove (posOperator);
-					}
-					break;
-				} while (true);
-			} else {
-				throw new BadExpressionException ("Missing operator for token " + posOperator + " in list: " + tokens);
-			}
-		}
-		return (Expression) tokens.get (0);
-	}
-
-
-
-	/**
-	 * Attempt to parse the given text and return an object CommandExpression
-	 *
-	 * @param fun The command
-	 * @param text The text to parse
-	 * @param from The min position
-	 * @param to The max position
-	 * @return An object CommandExpression
-	 * @throws BadExpressionException If the expression contains errors
-	 * @throws UnrecognizedTokenException If a token is not recognized
-	 * @throws ExecutionException If an error occur while calculating a constant expression
-	 */
-	private Expression parseFunctionParams (STDFunction fun, String text, int from, int to) throws BadExpressionException, UnrecognizedTokenException, ExecutionException {
-		int minParams = fun.getMinParams ();
-		int maxParams = (fun.getOptParams () >= 0) ? minParams + fun.getOptParams () : Integer.MAX_VALUE;
-		if (maxParams == 0) {
-			if (fun.isConstantResult ()) {
-				return fun.getFunctionCode ().execute (noParams);
-			}
-			return () -> fun.getFunctionCode ().execute (noParams);
-		}
-
-		int p = 0;
-		int sx = from, dx = from;
-		List <Expression> expressions = new ArrayList<> ();
-		Expression expression = null;
-
-		while (p < maxParams && dx < to) {
-			dx = findParameterEnd (text, sx, to);
-			expression = parseExpression (text, sx, dx);
-			if (expression == null) {
-				throw new BadExpressionException ("Error while reading parameter " + p + " for command " + fun + " at " + from + " in " + text);
-			}
-			p++;
-			expressions.add (expression);
-			sx = ++dx;
-		}
-		if (dx < to) { // (p == maxParams) and there's more, so the final result will be (p > maxParams)
-			throw new BadExpressionException ("Too many parameters for command " + fun + " at " + p + " in " + text);
-		} else if (p < minParams) {
-			throw new BadExpressionException ("Too few parameters for command " + fun + " at " + p + " in " + text);
-		}
-
-
-		final int size = expressions.size ();
-		CONSTANT: {
-			if (fun.isConstantResult ()) {
-				for (Expression expr : expressions) {
-					if (expr instanceof Constant == false) { // All parameters constants or nothing
-						break CONSTANT;
-					}
+			if (cur instanceof InstructionElse || cur instanceof InstructionElseIf) { // The jump at the end of the previous block
+				if ((destination = ((InstructionJump) old.get (last.getCompiledLineNumber () - 1)).getJump ()) >= 0) {
+					((InstructionJump) instructions.get (cur.getCompiledLineNumber () - 1)).setJump (moved[destination - 1] + 1); // After the EndIf
 				}
-				Value[] values = new Value[size];
-				for (int i = 0; i < size; i++) {
-					values[i] = (Value) expressions.get (i);
-				}
-				return fun.getFunctionCode ().execute (values);
-			}
-		}
-
-		return () -> {
-			Value[] values = new Value[size];
-			for (int i = 0; i < size; i++) {
-				values[i] = expressions.get (i).eval ();
-			}
-			return fun.getFunctionCode ().execute (values);
-		};
-	}
-
-
-
-
-	/**
-	 * To be called when you encounter a '\"', attempt to find the position of the next '\"' (not escaped)
-	 *
-	 * @param text The text to parse
-	 * @param from The min position
-	 * @param to The max position
-	 * @return The index of the next '\"' (not escaped)
-	 * @throws BadExpressionException If no '\"' (not escaped) can be found in the range [from,to]
-	 */
-	private static int findStringClosure (String text, int from, int to) throws BadExpressionException {
-		for (int i = from + 1; i < to; i++) {
-			switch (text.charAt (i)) {
-				case '\\':
-					i++; // the next character is escaped, so it can't be a valid quote... so we skip it
-					continue;
-				case '\"':
-					return i;
 			}
 		}
-		throw new BadExpressionException ("Mismatched double-quotes at: " + from + " in " + text);
+		return true;
 	}
 
 
-
 	/**
-	 * Search the '(' after the command.
+	 * Move the false destination of an If or an ElseIf: the next Else or ElseIf, or the instruction after the EndIf
 	 *
-	 * @param text The text where to search
-	 * @param from The min position
-	 * @param to The max position
-	 * @return The index of the '('
-	 * @throws BadExpressionException If there's no '(' after the command in the range [from,to]
+	 * @param destination The destination in the previous version
+	 * @param old The instructions of the previous version
+	 * @param moved The new position of each block instruction of the previous version
+	 * @return The new destination
 	 */
-	private static int findBracketCommand (String text, int from, int to) throws BadExpressionException {
-		char c;
-		for (int i = from; i < to; i++) {
-			c = text.charAt (i);
-			if (c == '(') {
-				return i;
-			} else if (!Character.isWhitespace (c)) {
-				throw new BadExpressionException ("Command without brackets at " + from + " in " + text);
-			}
+	private static int movedFalseJump (int destination, List <Instruction> old, int[] moved) {
+		if (destination < old.size () && (old.get (destination) instanceof InstructionElse || old.get (destination) instanceof InstructionElseIf)) {
+			return moved[destination];
 		}
-		throw new BadExpressionException ("Command without brackets at " + from + " in " + text);
+		return moved[destination - 1] + 1;
 	}
 
 
 	/**
-	 * To be called when you encounter '(', attempt to find the position of the relative ')'
+	 * Check if an instruction opens, continues or closes a block
 	 *
-	 * @param text The text where to search
-	 * @param from The min position
-	 * @param to The max position
-	 * @return The index of the relative ')'
-	 * @throws BadExpressionException If no relative ')' can be found in the range [from,to]
-	 * @throws UnrecognizedTokenException If a token is not recognized
+	 * @param instruction The instruction
+	 * @return true for If, ElseIf, Else, EndIf, While and Loop
 	 */
-	private static int findBracketClosure (String text, int from, int to) throws BadExpressionException, UnrecognizedTokenException {
-		boolean noString = true;
-		int nToClose = 1;
-		for (int i = from + 1; i < to; i++) {
-			switch (text.charAt (i)) {
-				case '\\':
-					i++;
-					continue; // Skip next char. We don't care if it's any of (, ), ", and not even another \
-				case '\"':
-					i = findStringClosure (text, i, to);
-					continue;
-				case '(':
-					if (noString) {
-						++nToClose;
-					}
-					continue;
-				case ')':
-					if (noString && --nToClose == 0) {
-						return i;
-					}
-			}
-		}
-		throw new UnrecognizedTokenException ("Mismatched brackets at: " + from + " in " + text);
+	private static boolean isBlock (Instruction instruction) {
+		return instruction instanceof InstructionIf || instruction instanceof InstructionElseIf || instruction instanceof InstructionElse
+			|| instruction instanceof InstructionEndIf || instruction instanceof InstructionWhile || instruction instanceof InstructionLoop;
 	}
 
 
-
 	/**
-	 * To be called when you encounter '[', attempt to find the position of the relative ']'
+	 * Create the program from the instructions and the variables
 	 *
-	 * @param text The text where to search
-	 * @param from The min position
-	 * @param to The max position
-	 * @return The index of the relative ']'
-	 * @throws BadExpressionException If no relative ']' can be found in the range [from,to]
-	 * @throws UnrecognizedTokenException If a token is not recognized
+	 * @return The program
 	 */
-	private static int findSquareBracketClosure (String text, int from, int to) throws BadExpressionException, UnrecognizedTokenException {
-		int nToClose = 1;
-		for (int i = from + 1; i < to; i++) {
-			switch (text.charAt (i)) {
-				case '\\':
-					i++;
-					continue; // Skip next char. We don't care if it's any of (, ), ", and not even another \
-				case '\"':
-					i = findStringClosure (text, i, to);
-					continue;
-				case '[':
-					++nToClose;
-					continue;
-				case ']':
-					if (--nToClose == 0) {
-						return i;
-					}
-			}
-		}
-		throw new UnrecognizedTokenException ("Mismatched brackets at: " + from + " in " + text);
+	private Program newProgram () {
+		Program program = new Program (instructions, symbols.toMap ());
+		program.parsedLines = parsedLines.length == nLines ? parsedLines : Arrays.copyOf (parsedLines, nLines);
+		return program;
 	}
 
 
 
 	/**
-	 * Try to find the end of the command's name in the expression from position 'from' up to position 'to'.
+	 * A task which parses a range of lines, splitting it in smaller tasks if the range is too large
 	 *
-	 * @param text The text where to search
-	 * @param from The min position
-	 * @param to The max position
-	 * @return The index after the last char of the name of the command
+	 * @author MarcoForlini
 	 */
-	private static int findNameEnd (String text, int from, int to) {
-		for (int i = from + 1; i < to; i++) {
-			if (!Character.isLetterOrDigit (text.charAt (i))) {
-				return i;
-			}
-		}
-		return to;
-	}
+	private final class ParseTask extends RecursiveAction {
 
+		private static final long serialVersionUID = -4920874215530236128L;
 
+		private final int	from;
+		private final int	to;
 
-	/**
-	 * Try to find the end of the parameter in the expression from position 'from' up to position 'to'.
-	 *
-	 * @param text The text where to search
-	 * @param from The min position
-	 * @param to The max position
-	 * @return The index of the char ',' or ')' which terminate the parameter
-	 * @throws BadExpressionException If the parameter never ends
-	 * @throws UnrecognizedTokenException If a token is not recognized
-	 */
-	private static int findParameterEnd (String text, int from, int to) throws BadExpressionException, UnrecognizedTokenException {
-		for (int i = from; i < to; i++) {
-			switch (text.charAt (i)) {
-				case '\\':
-					i++;
-					continue; // Ignore and go on
-				case '(':
-					i = findBracketClosure (text, i, to);
-					continue;
-				case '\"':
-					i = findStringClosure (text, i, to);
-					continue;
-				case ',':
-					return i;
-			}
+		ParseTask (int from, int to) {
+			this.from = from;
+			this.to = to;
 		}
-		return to;
-	}
-
-
-
-
-	/**
-	 * A custom list for the tokens
-	 *
-	 * @author MarcoForlini
-	 */
-	class TokenList extends ArrayList <Token> {
-
-		private static final long serialVersionUID = 8425184483730517541L;
 
 		@Override
-		public boolean add (Token e) {
-			if (e == null) {
-				return false;
+		protected void compute () {
+			if (to - from <= PARALLEL_THRESHOLD) {
+				Parser parser = new Parser (symbols);
+				for (int nLine = from; nLine < to; nLine++) {
+					parsedLines[nLine] = parseLine (parser, nLine);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll (new ParseTask (from, middle), new ParseTask (middle, to));
 			}
-			return super.add (e);
 		}
 	}
+
 }
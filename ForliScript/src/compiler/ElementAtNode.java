@@ -0,0 +1,68 @@
+package compiler;
+
+import expressions.Expression;
+import expressions.Operator;
+import expressions.Value;
+
+
+/**
+ * An expression which extracts an element from a value: array[index]
+ *
+ * @author MarcoForlini
+ */
+final class ElementAtNode implements Node {
+
+	private static final long	serialVersionUID	= 2841164357420856271L;
+
+	private final Expression	array;
+	private final Expression	index;
+
+
+
+	/**
+	 * Create a new {@link ElementAtNode}
+	 *
+	 * @param array The expression which returns the array (or the string, or the number)
+	 * @param index The index
+	 */
+	ElementAtNode (Expression array, Expression index) {
+		this.array = array;
+		this.index = index;
+	}
+
+
+
+	@Override
+	public Value eval () throws ExecutionException {
+		return Operator.elementAt.binaryOp.eval (array.eval (), index.eval ());
+	}
+
+
+	@Override
+	public <R> R accept (NodeVisitor <R> visitor) {
+		return visitor.visitElementAt (this);
+	}
+
+
+	@Override
+	public Expression[] getChildren () {
+		return new Expression[] { array, index };
+	}
+
+
+	/**
+	 * @return The expression which returns the array
+	 */
+	Expression getArray () {
+		return array;
+	}
+
+
+	/**
+	 * @return The index
+	 */
+	Expression getIndex () {
+		return index;
+	}
+
+}
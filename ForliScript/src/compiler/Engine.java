@@ -0,0 +1,20 @@
+package compiler;
+
+
+/**
+ * The ways a {@link Program} can be executed. All engines produce the same output.
+ *
+ * @author MarcoForlini
+ */
+public enum Engine {
+
+	/** Execute the instructions one by one, evaluating the tree of each expression */
+	TREE,
+
+	/** Compile the program into bytecode, then execute it in a single loop. Faster on long running programs. */
+	BYTECODE,
+
+	/** Compile the program into bytecode, then translate it into a JVM class compiled by the JIT. Falls back to {@link #BYTECODE} if the translation fails. */
+	JVM;
+
+}
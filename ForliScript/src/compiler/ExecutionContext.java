@@ -0,0 +1,632 @@
+package compiler;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import expressions.Primitive;
+import expressions.ValArray;
+import expressions.ValNumber;
+import expressions.ValString;
+import expressions.Value;
+import expressions.Variable;
+
+
+/**
+ * The state of the executions of a {@link CompiledProgram}: its own copy of the variables and of the values the program can modify.
+ * <p>
+ * Many contexts of the same program can run at the same time on different threads. A single context must be used by one thread at a time.
+ * The variables keep their values between two executions of the same context, like the variables of a {@link Program}; {@link #reset()}
+ * restores the initial values, which are null unless they're recorded with {@link #snapshot()}.
+ * <p>
+ * Print, Println and Read use the {@link Output} and the {@link Input} of the context, {@link Output#STANDARD} and {@link Input#STANDARD}
+ * unless they're changed, so each context can have its own channels.
+ * <p>
+ * A program which reads its input from a user can be executed with {@link #start()} instead of {@link #run()}: each Read suspends the
+ * execution, and the context keeps its position until the host supplies the line with {@link #resume(String)}. No thread is blocked while the
+ * program waits, so a host can keep many sessions on a few threads, resuming each one when its input arrives, from any thread. With a
+ * quantum, set by {@link #setQuantum(int)}, the execution also yields after that many operations and continues with {@link #resume()}, so
+ * a long loop can't keep its thread busy: the {@link Scheduler} uses it to share a few threads among many programs.
+ * <p>
+ * A context with a {@link Checkpoint.Sink} saves checkpoints while it runs: every given number of loop iterations, at each Checkpoint
+ * instruction and when the host calls {@link #requestCheckpoint()}. {@link #run(Checkpoint)} continues an execution from a checkpoint, so a
+ * long execution which fails only repeats the work done after the last checkpoint. A checkpointed execution is interpreted, even if the
+ * program has been translated into a JVM class.
+ * <p>
+ * A context with a {@link Budget} stops each execution which exceeds it with a {@link BudgetExceededException}: the execution has ended,
+ * and the context can run again. The budget is checked at each loop iteration, so a budgeted execution is interpreted too.
+ *
+ * @author MarcoForlini
+ */
+public final class ExecutionContext {
+
+	/**
+	 * The state of a program executed by {@link ExecutionContext#start()}
+	 *
+	 * @author MarcoForlini
+	 */
+	public enum Status {
+		/** The execution has ended */
+		FINISHED,
+		/** The execution is suspended on a Read, and it continues with {@link ExecutionContext#resume(String)} */
+		WAITING_FOR_INPUT,
+		/** The execution has used its quantum, and it continues with {@link ExecutionContext#resume()} */
+		YIELDED
+	}
+
+	private final CompiledProgram	program;
+	/** The variables, in the order of their slots, and the constants: the first registers of the frame */
+	final Value[]					values;
+	/** The values restored by {@link #reset()}: a variable or a value for each register the program can modify */
+	private Value[]					initial;
+	/** True if the initial values contain arrays, which are copied all together so that they're still shared by the same registers */
+	private boolean					initialArrays;
+	/** The channel of Read */
+	Input							input	= Input.STANDARD;
+	/** The channel of Print and Println */
+	Output							output	= Output.STANDARD;
+	/** The frame of the suspended execution, or null if there isn't one */
+	private Object[]				frame;
+	/** Why the execution is suspended: {@link Status#WAITING_FOR_INPUT} or {@link Status#YIELDED} */
+	private Status					suspension;
+	/** The position where the suspended execution continues: its Read, or the loop where it yielded */
+	private int						resumeAt;
+	/** The number of operations executed by {@link #start()} and {@link #resume} before yielding, or 0 */
+	int								quantum;
+	/** The sink of the checkpoints, or null if the executions are not checkpointed */
+	Checkpoint.Sink					checkpoints;
+	/** The number of loop iterations between two checkpoints, or 0 */
+	private int						interval;
+	/** The loop iterations left before the next checkpoint */
+	private int						countdown;
+	/** True if the host has requested a checkpoint */
+	private volatile boolean		requested;
+	/** The limits of the executions, or null if they have none */
+	Budget							budget;
+	/** The count of the current execution, or null if the context has no budget */
+	Budget.Meter					meter;
+
+
+
+	/**
+	 * Create a new {@link ExecutionContext}
+	 *
+	 * @param program The compiled program
+	 * @param values The variables and the constants
+	 */
+	ExecutionContext (CompiledProgram program, Value[] values) {
+		this.program = program;
+		this.values = values;
+		initial = program.initialValues;
+		initialArrays = program.arrays;
+	}
+
+
+
+	/**
+	 * Get the program executed by this context
+	 *
+	 * @return The compiled program
+	 */
+	public CompiledProgram getProgram () {
+		return program;
+	}
+
+
+	/**
+	 * Get the input read by Read
+	 *
+	 * @return The input
+	 */
+	public Input getInput () {
+		return input;
+	}
+
+
+	/**
+	 * Set the input read by Read
+	 *
+	 * @param input The input
+	 */
+	public void setInput (Input input) {
+		this.input = Objects.requireNonNull (input);
+	}
+
+
+	/**
+	 * Get the output written by Print and Println
+	 *
+	 * @return The output
+	 */
+	public Output getOutput () {
+		return output;
+	}
+
+
+	/**
+	 * Set the output written by Print and Println
+	 *
+	 * @param output The output
+	 */
+	public void setOutput (Output output) {
+		this.output = Objects.requireNonNull (output);
+	}
+
+
+	/**
+	 * Execute the program, then tell the output that the execution has ended
+	 *
+	 * @throws ExecutionException If the program contains an error, or if the output can't be written
+	 */
+	public void run () throws ExecutionException {
+		discard ();
+		countdown = interval;
+		startBudget ();
+		try {
+			program.run (this);
+		} finally {
+			endRun (output);
+		}
+	}
+
+
+	/**
+	 * Start an execution of the program which suspends on each Read, instead of reading the input. The program is interpreted even if it has
+	 * been translated into a JVM class, unless it has no Read and the context has no quantum.
+	 *
+	 * @return {@link Status#WAITING_FOR_INPUT} if the program is waiting for a line, {@link Status#YIELDED} if it has used its quantum,
+	 *         {@link Status#FINISHED} if it has ended
+	 * @throws ExecutionException If the program contains an error
+	 */
+	public Status start () throws ExecutionException {
+		discard ();
+		countdown = interval;
+		startBudget ();
+		if (!program.bytecode.reads && quantum == 0) {
+			try {
+				program.run (this);
+			} finally {
+				endRun (output);
+			}
+			return Status.FINISHED;
+		}
+		return proceed (program.bytecode.frame (values), 0);
+	}
+
+
+	/**
+	 * Continue the suspended execution: assign the line to the variable of the Read, then execute the program until the next Read or the end
+	 *
+	 * @param line The line read by the program, without the line separator
+	 * @return {@link Status#WAITING_FOR_INPUT} if the program is waiting for another line, {@link Status#YIELDED} if it has used its
+	 *         quantum, {@link Status#FINISHED} if it has ended
+	 * @throws ExecutionException If the program contains an error
+	 * @throws IllegalStateException If the program isn't waiting for input
+	 */
+	public Status resume (String line) throws ExecutionException {
+		if (suspension != Status.WAITING_FOR_INPUT) {
+			throw new IllegalStateException ("The program isn't waiting for input");
+		}
+		Object[] frame = this.frame;
+		discard ();
+		continueBudget ();
+		try {
+			program.bytecode.supply (frame, resumeAt, line);
+		} catch (ExecutionException e) {
+			endRun (output);
+			throw e;
+		}
+		return proceed (frame, resumeAt + 2);
+	}
+
+
+	/**
+	 * Continue the execution which has used its quantum, until the next Read, the end or the end of the next quantum
+	 *
+	 * @return {@link Status#WAITING_FOR_INPUT} if the program is waiting for a line, {@link Status#YIELDED} if it has used its quantum again,
+	 *         {@link Status#FINISHED} if it has ended
+	 * @throws ExecutionException If the program contains an error
+	 * @throws IllegalStateException If the program hasn't yielded
+	 */
+	public Status resume () throws ExecutionException {
+		if (suspension != Status.YIELDED) {
+			throw new IllegalStateException ("The program hasn't yielded");
+		}
+		Object[] frame = this.frame;
+		discard ();
+		continueBudget ();
+		return proceed (frame, resumeAt);
+	}
+
+
+	/**
+	 * Check if an execution started by {@link #start()} is suspended on a Read
+	 *
+	 * @return True if the program is waiting for input
+	 */
+	public boolean isWaiting () {
+		return suspension == Status.WAITING_FOR_INPUT;
+	}
+
+
+	/**
+	 * Set the number of operations which {@link #start()} and {@link #resume} execute before yielding. Each iteration of a loop counts all the
+	 * operations of the loop, and the execution only yields when a loop is repeated, so the operations outside the loops are never
+	 * interrupted.
+	 *
+	 * @param quantum The number of operations, or 0 to never yield
+	 * @throws IllegalArgumentException If the quantum is negative
+	 */
+	public void setQuantum (int quantum) {
+		if (quantum < 0) {
+			throw new IllegalArgumentException ("The quantum can't be negative: " + quantum);
+		}
+		this.quantum = quantum;
+	}
+
+
+	/**
+	 * Get the number of operations which {@link #start()} and {@link #resume} execute before yielding
+	 *
+	 * @return The quantum, or 0 if the execution never yields
+	 */
+	public int getQuantum () {
+		return quantum;
+	}
+
+
+	/**
+	 * Execute the program until the next Read, the end or the end of the quantum, then tell the output that this part of the execution has
+	 * ended
+	 *
+	 * @param frame The frame of the execution
+	 * @param pc The position in the code
+	 * @return The state of the execution
+	 * @throws ExecutionException If the program contains an error
+	 */
+	private Status proceed (Object[] frame, int pc) throws ExecutionException {
+		try {
+			int suspended = program.bytecode.execute (frame, pc, program.program, this, true);
+			if (suspended == -1) {
+				return Status.FINISHED;
+			}
+			if (meter != null) {
+				meter.pause ();
+			}
+			this.frame = frame;
+			if (suspended < -1) {
+				suspension = Status.YIELDED;
+				resumeAt = Bytecode.yielded (suspended);
+			} else {
+				suspension = Status.WAITING_FOR_INPUT;
+				resumeAt = suspended;
+			}
+			return suspension;
+		} finally {
+			endRun (output);
+		}
+	}
+
+
+	/**
+	 * Forget the suspended execution
+	 */
+	private void discard () {
+		frame = null;
+		suspension = null;
+	}
+
+
+	/**
+	 * Continue the suspended execution: restart the time of its budget
+	 */
+	private void continueBudget () {
+		if (meter != null) {
+			meter.resume ();
+		}
+	}
+
+
+	/**
+	 * Set the limits of the next executions. An execution which exceeds them fails with a {@link BudgetExceededException}.
+	 *
+	 * @param budget The budget, or null for no limits
+	 */
+	public void setBudget (Budget budget) {
+		this.budget = budget;
+	}
+
+
+	/**
+	 * Get the limits of the executions
+	 *
+	 * @return The budget, or null if there are no limits
+	 */
+	public Budget getBudget () {
+		return budget;
+	}
+
+
+	/**
+	 * Start counting a new execution against the budget
+	 */
+	void startBudget () {
+		meter = budget != null ? budget.meter () : null;
+	}
+
+
+	/**
+	 * Save the checkpoints of the next executions into a sink
+	 *
+	 * @param sink The sink, or null to stop saving checkpoints
+	 * @param interval The number of loop iterations between two checkpoints, or 0 to save them only at the Checkpoint instructions and when
+	 *            they're requested
+	 * @throws IllegalArgumentException If the interval is negative
+	 */
+	public void setCheckpoints (Checkpoint.Sink sink, int interval) {
+		if (interval < 0) {
+			throw new IllegalArgumentException ("The interval can't be negative: " + interval);
+		}
+		checkpoints = sink;
+		this.interval = interval;
+		countdown = interval;
+	}
+
+
+	/**
+	 * Ask the running execution to save a checkpoint at the next loop iteration or Checkpoint instruction. It can be called by any thread.
+	 */
+	public void requestCheckpoint () {
+		requested = true;
+	}
+
+
+	/**
+	 * Create a checkpoint of the suspended execution, which continues from its Read, or from the loop where it yielded, when it's restored
+	 *
+	 * @return The checkpoint
+	 * @throws IllegalStateException If the program isn't suspended
+	 */
+	public Checkpoint checkpoint () {
+		if (frame == null) {
+			throw new IllegalStateException ("The program isn't suspended");
+		}
+		return capture (resumeAt);
+	}
+
+
+	/**
+	 * Restore the values of a checkpoint, then execute the program from its instruction
+	 *
+	 * @param checkpoint The checkpoint
+	 * @throws ExecutionException If the checkpoint belongs to another program, or if the program contains an error
+	 */
+	public void run (Checkpoint checkpoint) throws ExecutionException {
+		Object[] frame = restore (checkpoint);
+		try {
+			program.bytecode.execute (frame, program.bytecode.start (checkpoint.getInstruction ()), program.program, this, false);
+		} finally {
+			endRun (output);
+		}
+	}
+
+
+	/**
+	 * Restore the values of a checkpoint, then execute the program from its instruction until the first Read, like {@link #start()}
+	 *
+	 * @param checkpoint The checkpoint
+	 * @return {@link Status#WAITING_FOR_INPUT} if the program is waiting for a line, {@link Status#YIELDED} if it has used its quantum,
+	 *         {@link Status#FINISHED} if it has ended
+	 * @throws ExecutionException If the checkpoint belongs to another program, or if the program contains an error
+	 */
+	public Status start (Checkpoint checkpoint) throws ExecutionException {
+		return proceed (restore (checkpoint), program.bytecode.start (checkpoint.getInstruction ()));
+	}
+
+
+	/**
+	 * Check if a checkpoint must be saved at a loop iteration
+	 *
+	 * @return True if the interval has elapsed or the host has requested a checkpoint
+	 */
+	boolean checkpointDue () {
+		return requested || interval > 0 && --countdown == 0;
+	}
+
+
+	/**
+	 * Save a checkpoint of the running execution into the sink
+	 *
+	 * @param pc The position where the execution continues: the start of an instruction
+	 * @throws ExecutionException If the checkpoint can't be saved
+	 */
+	void saveCheckpoint (int pc) throws ExecutionException {
+		requested = false;
+		countdown = interval;
+		try {
+			checkpoints.save (capture (pc));
+		} catch (IOException e) {
+			throw new ExecutionException ("Can't save the checkpoint", e);
+		}
+	}
+
+
+	private Checkpoint capture (int pc) {
+		int[] mutable = program.mutable;
+		Primitive[] state = new Primitive[mutable.length];
+		Map <Primitive, Primitive> copies = new IdentityHashMap<> ();
+		for (int i = 0; i < mutable.length; i++) {
+			state[i] = CompiledProgram.copy (value (mutable[i]), copies);
+		}
+		return new Checkpoint (program.fingerprint, program.bytecode.instructionStartingAt (pc), state);
+	}
+
+
+	/**
+	 * Discard the suspended execution and assign the values of a checkpoint
+	 *
+	 * @param checkpoint The checkpoint
+	 * @return The frame of the execution
+	 * @throws ExecutionException If the checkpoint belongs to another program
+	 */
+	private Object[] restore (Checkpoint checkpoint) throws ExecutionException {
+		int[] mutable = program.mutable;
+		if (checkpoint.getFingerprint () != program.fingerprint || checkpoint.values.length != mutable.length
+				|| checkpoint.getInstruction () > program.bytecode.starts.length) {
+			throw new ExecutionException ("The checkpoint belongs to a different program");
+		}
+		discard ();
+		countdown = interval;
+		startBudget ();
+		Map <Primitive, Primitive> copies = new IdentityHashMap<> ();
+		for (int i = 0; i < mutable.length; i++) {
+			set (mutable[i], CompiledProgram.copy (checkpoint.values[i], copies));
+		}
+		return program.bytecode.frame (values);
+	}
+
+
+	/**
+	 * Restore the initial values of the variables and of the values modified by the previous executions, and discard the suspended execution
+	 */
+	public void reset () {
+		discard ();
+		Map <Primitive, Primitive> copies = initialArrays ? new IdentityHashMap<> () : null;
+		for (int r : program.mutable) {
+			set (r, copies != null ? CompiledProgram.copy (initialValue (r), copies) : initialValue (r));
+		}
+	}
+
+
+	/**
+	 * Record the current values of the variables as the initial values, restored by {@link #reset()}
+	 */
+	public void snapshot () {
+		Value[] initial = new Value[values.length];
+		Map <Primitive, Primitive> copies = new IdentityHashMap<> ();
+		boolean arrays = false;
+		for (int r : program.mutable) {
+			initial[r] = CompiledProgram.copy (value (r), copies);
+			arrays |= initial[r] instanceof ValArray;
+		}
+		this.initial = initial;
+		initialArrays = arrays;
+	}
+
+
+	/**
+	 * Assign the given value to the variable in the given slot
+	 *
+	 * @param slot The slot, returned by {@link CompiledProgram#slot(String)}
+	 * @param value The new value
+	 * @throws ExecutionException If the variable is constant
+	 * @throws IndexOutOfBoundsException If the slot doesn't exist
+	 */
+	public void setVariable (int slot, float value) throws ExecutionException {
+		variable (slot).set (ValNumber.getNumber (value));
+	}
+
+
+	/**
+	 * Assign the given text to the variable in the given slot
+	 *
+	 * @param slot The slot, returned by {@link CompiledProgram#slot(String)}
+	 * @param text The new text
+	 * @throws ExecutionException If the variable is constant
+	 * @throws IndexOutOfBoundsException If the slot doesn't exist
+	 */
+	public void setVariable (int slot, String text) throws ExecutionException {
+		variable (slot).set (new ValString (text));
+	}
+
+
+	/**
+	 * Assign null to the variable in the given slot
+	 *
+	 * @param slot The slot, returned by {@link CompiledProgram#slot(String)}
+	 * @throws ExecutionException If the variable is constant
+	 * @throws IndexOutOfBoundsException If the slot doesn't exist
+	 */
+	public void setVariable (int slot) throws ExecutionException {
+		variable (slot).set (Value.Null);
+	}
+
+
+	/**
+	 * Get the value of the variable in the given slot
+	 *
+	 * @param slot The slot, returned by {@link CompiledProgram#slot(String)}
+	 * @return The value
+	 * @throws IndexOutOfBoundsException If the slot doesn't exist
+	 */
+	public Primitive getValue (int slot) {
+		return variable (slot).getValue ();
+	}
+
+
+
+	/**
+	 * Tell the output that an execution has ended
+	 *
+	 * @param output The output
+	 * @throws ExecutionException If the output can't be written
+	 */
+	static void endRun (Output output) throws ExecutionException {
+		try {
+			output.endRun ();
+		} catch (IOException e) {
+			throw new ExecutionException ("Can't write the output", e);
+		}
+	}
+
+
+	/**
+	 * Create a new context of the same program, whose initial values are the current values of this context. The new context shares the
+	 * channels and the budget of this context, so the channels must be thread-safe if both contexts run at the same time.
+	 *
+	 * @return The new context
+	 */
+	ExecutionContext copy () {
+		ExecutionContext copy = program.newContext ();
+		copy.input = input;
+		copy.output = output;
+		copy.budget = budget;
+		Map <Primitive, Primitive> copies = new IdentityHashMap<> ();
+		for (int r : program.mutable) {
+			copy.set (r, CompiledProgram.copy (value (r), copies));
+		}
+		copy.snapshot ();
+		return copy;
+	}
+
+
+	private Variable variable (int slot) {
+		if (slot < 0 || slot >= program.bytecode.variables) {
+			throw new IndexOutOfBoundsException ("Slot " + slot + " out of bounds for length " + program.bytecode.variables);
+		}
+		return (Variable) values[slot];
+	}
+
+
+	private Primitive initialValue (int register) {
+		Value value = initial[register];
+		return value instanceof Variable ? ((Variable) value).getValue () : (Primitive) value;
+	}
+
+
+	private Primitive value (int register) {
+		Value value = values[register];
+		return value instanceof Variable ? ((Variable) value).getValue () : (Primitive) value;
+	}
+
+
+	private void set (int register, Primitive value) {
+		if (values[register] instanceof Variable) {
+			Program.variableAccess.restore ((Variable) values[register], value);
+		} else {
+			values[register] = value;
+		}
+	}
+
+}
@@ -1,14 +1,26 @@
 package compiler;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
 
 /**
  * A class which read source code and can read/save compiled a {@link Program}
@@ -16,34 +28,204 @@ import java.util.Scanner;
  */
 public class FileManager {
 	
+	/** The default directory of the cache of compiled programs */
+	public static final String DEFAULT_CACHE_DIRECTORY = ".foscache";
+	
+	/** The default max size in bytes of the cache of compiled programs */
+	public static final long DEFAULT_CACHE_SIZE = 64L << 20;
+	
+	/** The default charset of the source files */
+	public static final Charset SOURCE_CHARSET = StandardCharsets.ISO_8859_1;
+	
+	private static final String CACHE_EXTENSION = ".foscp";
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	
+	
 	/**
-	 * Read the sourcecode from the file
+	 * Read the sourcecode from the file, using the default charset {@link #SOURCE_CHARSET}
 	 * @param filePath	The file path
 	 * @return			A list of strings
 	 * @throws IOException	If an any IO problems happens
 	 */
 	public static List <String> readSource (String filePath) throws IOException {
+		return readSource(filePath, SOURCE_CHARSET);
+	}
+	
+	/**
+	 * Read the sourcecode from the file
+	 * @param filePath	The file path
+	 * @param charset	The charset of the file
+	 * @return			A list of strings
+	 * @throws IOException	If an any IO problems happens
+	 */
+	public static List <String> readSource (String filePath, Charset charset) throws IOException {
 		List<String> sourceCode = new ArrayList<>();
-		File file = new File(filePath);
-		try (Scanner scanner = new Scanner(file)){
-			while(scanner.hasNextLine()){
-				sourceCode.add(scanner.nextLine().trim());
+		try (BufferedReader reader = newReader(Files.newInputStream(Paths.get(filePath)), charset)){
+			String line;
+			while((line = reader.readLine()) != null){
+				sourceCode.add(line.trim());
 			}
 		}
 		return sourceCode;
 	}
 	
 	/**
-	 * Writes a compiled program to file
+	 * Compile the sourcecode while reading it from the file, without building the list of lines first
+	 * @param filePath	The file path
+	 * @param charset	The charset of the file
+	 * @return			The program
+	 * @throws IOException	If an any IO problems happens
+	 * @throws CompilatorException	If the compilation fails due to some error
+	 */
+	public static Program compileSource (String filePath, Charset charset) throws IOException, CompilatorException {
+		try (BufferedReader reader = newReader(Files.newInputStream(Paths.get(filePath)), charset)){
+			return Compiler.compile(reader);
+		}
+	}
+	
+	/**
+	 * Create a reader with a large buffer
+	 * @param stream	The stream
+	 * @param charset	The charset of the stream
+	 * @return			The reader
+	 */
+	private static BufferedReader newReader (InputStream stream, Charset charset) {
+		return new BufferedReader(new InputStreamReader(stream, charset), BUFFER_SIZE);
+	}
+	
+	/**
+	 * Get the compiled program of the source code from the default cache, compiling and adding it to the cache if it's not there
+	 * @param filePath	The file path of the source code
+	 * @return			The program
+	 * @throws IOException	If an any IO problems happens
+	 * @throws CompilatorException	If the compilation fails due to some error
+	 * @see #compile(String, Charset, String, long)
+	 */
+	public static Program compile (String filePath) throws IOException, CompilatorException {
+		return compile(filePath, SOURCE_CHARSET, DEFAULT_CACHE_DIRECTORY, DEFAULT_CACHE_SIZE);
+	}
+	
+	/**
+	 * Get the compiled program of the source code from the cache, compiling and adding it to the cache if it's not there.
+	 * Programs are stored by the hash of the source bytes, the charset and the compiler version, so a source is compiled only once, no matter its file name.
+	 * When the cache grows bigger than the max size, the least recently used programs are removed.
+	 * @param filePath			The file path of the source code
+	 * @param charset			The charset of the source code
+	 * @param cacheDirectory	The directory of the cache
+	 * @param maxCacheSize		The max size in bytes of the cache
+	 * @return					The program
+	 * @throws IOException	If an any IO problems happens
+	 * @throws CompilatorException	If the compilation fails due to some error
+	 */
+	public static Program compile (String filePath, Charset charset, String cacheDirectory, long maxCacheSize) throws IOException, CompilatorException {
+		byte[] source = Files.readAllBytes(Paths.get(filePath));
+		Path directory = Paths.get(cacheDirectory);
+		Path cached = directory.resolve(hash(source, charset) + CACHE_EXTENSION);
+		try {
+			Program program = readProgram(cached.toString());
+			Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+			return program;
+		} catch (NoSuchFileException | ProgramFormatException | CompilatorException e){
+			// Not in the cache or not readable, compile it again
+		}
+		
+		Program program;
+		try (BufferedReader reader = newReader(new ByteArrayInputStream(source), charset)){
+			program = Compiler.compile(reader);
+		}
+		Files.createDirectories(directory);
+		Path temp = Files.createTempFile(directory, null, null);
+		try {
+			saveProgram(temp.toString(), program);
+			Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		evict(directory, maxCacheSize);
+		return program;
+	}
+	
+	/**
+	 * Remove the least recently used programs from the cache, until its size is not bigger than the max size
+	 * @param directory		The directory of the cache
+	 * @param maxCacheSize	The max size in bytes of the cache
+	 * @throws IOException	If an any IO problems happens
+	 */
+	private static void evict (Path directory, long maxCacheSize) throws IOException {
+		List<Path> files = new ArrayList<>();
+		Map<Path, FileTime> times = new HashMap<>();
+		long size = 0;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, '*' + CACHE_EXTENSION)){
+			for (Path file : stream){
+				try {
+					size += Files.size(file);
+					files.add(file);
+					times.put(file, Files.getLastModifiedTime(file));
+				} catch (NoSuchFileException e){
+					// Removed by another process
+				}
+			}
+		}
+		if (size <= maxCacheSize){
+			return;
+		}
+		files.sort((Path a, Path b) -> times.get(a).compareTo(times.get(b)));
+		for (int i = 0; i < files.size() && size > maxCacheSize; i++){
+			Path file = files.get(i);
+			try {
+				size -= Files.size(file);
+				Files.delete(file);
+			} catch (NoSuchFileException e){
+				// Removed by another process
+			}
+		}
+	}
+	
+	/**
+	 * Calculate the key of a source code in the cache
+	 * @param source	The bytes of the source code
+	 * @param charset	The charset of the source code
+	 * @return			The hex SHA-256 hash of the compiler version, the charset and the source code
+	 */
+	private static String hash (byte[] source, Charset charset) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e){
+			throw new IllegalStateException(e);	//Every JVM must support SHA-256
+		}
+		digest.update((byte) (Compiler.VERSION >>> 24));
+		digest.update((byte) (Compiler.VERSION >>> 16));
+		digest.update((byte) (Compiler.VERSION >>> 8));
+		digest.update((byte) Compiler.VERSION);
+		digest.update(charset.name().getBytes(StandardCharsets.US_ASCII));
+		StringBuilder sb = new StringBuilder(64);
+		for (byte b : digest.digest(source)){
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Writes a compiled program to file, with the debug section
 	 * @param filePath	The file path
 	 * @param program	The program
 	 * @throws IOException	If an any IO problems happens
 	 */
 	public static void saveProgram (String filePath, Program program) throws IOException {
-		try (FileOutputStream fileInputStream = new FileOutputStream(filePath);
-				ObjectOutputStream objectInputStream = new ObjectOutputStream(fileInputStream)){
-			objectInputStream.writeObject(program);
-		}
+		saveProgram(filePath, program, true);
+	}
+	
+	/**
+	 * Writes a compiled program to file
+	 * @param filePath	The file path
+	 * @param program	The program
+	 * @param debug		If true, save the source lines and their numbers, used in the error messages
+	 * @throws IOException	If an any IO problems happens
+	 */
+	public static void saveProgram (String filePath, Program program, boolean debug) throws IOException {
+		Files.write(Paths.get(filePath), ProgramFile.write(program, debug));
 	}
 	
 	/**
@@ -51,13 +233,24 @@ public class FileManager {
 	 * @param filePath	The file path
 	 * @return			The program
 	 * @throws IOException	If an any IO problems happens
-	 * @throws ClassNotFoundException	If the files doesn't contains a program
+	 * @throws ProgramFormatException	If the file doesn't contain a valid program
+	 * @throws CompilatorException	If an expression of the program contains an error
 	 */
-	public static Program readProgram (String filePath) throws IOException, ClassNotFoundException {
-		try (FileInputStream fileInputStream = new FileInputStream(filePath);
-				ObjectInputStream objectInputStream = new ObjectInputStream(fileInputStream)){
-			return (Program) objectInputStream.readObject();
-		}
+	public static Program readProgram (String filePath) throws IOException, CompilatorException {
+		return ProgramFile.read(ByteBuffer.wrap(Files.readAllBytes(Paths.get(filePath))));
+	}
+	
+	/**
+	 * Compiles a program ahead of time into a runnable JAR, which contains the program as a JVM class and the classes needed to execute it.
+	 * The JAR runs with "java -jar", without parsing the source or reading a compiled program.
+	 * @param filePath	The file path
+	 * @param program	The program
+	 * @throws IOException	If an any IO problems happens
+	 * @throws CompilatorException	If the program can't be compiled ahead of time
+	 */
+	public static void saveJar (String filePath, Program program) throws IOException, CompilatorException {
+		byte[] jar = AotCompiler.compile(program);
+		Files.write(Paths.get(filePath), jar);
 	}
 
 }
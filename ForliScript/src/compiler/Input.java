@@ -0,0 +1,86 @@
+package compiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The channel where a program reads the lines of Read.
+ * <p>
+ * Each {@link ExecutionContext} (and each {@link Program}) has its own input, {@link #STANDARD} unless it's changed.
+ * @author MarcoForlini
+ */
+@FunctionalInterface
+public interface Input {
+
+	/** The standard input: reads from {@link Utils#scanner}, shared by all the programs which use it (each line is read by only one of them) */
+	Input STANDARD = () -> {
+		synchronized (Utils.scanner){
+			return Utils.scanner.nextLine();
+		}
+	};
+
+
+	/**
+	 * Read the next line
+	 * @return	The line, without the line separator
+	 * @throws IOException	If the input can't be read
+	 * @throws java.util.NoSuchElementException	If there are no more lines
+	 */
+	String readLine() throws IOException;
+
+
+
+	/**
+	 * Create an input which reads the standard input of the process directly, in blocks of bytes.
+	 * It must not be used together with {@link #STANDARD}, whose scanner keeps the lines it has already read.
+	 * @return	The input, which doesn't close {@link System#in} when it's closed
+	 */
+	static StreamInput stdin(){
+		return new StreamInput(System.in, Charset.defaultCharset(), false);
+	}
+
+	/**
+	 * Create an input which reads a stream, in UTF-8
+	 * @param stream	The stream
+	 * @return			The input, which closes the stream when it's closed
+	 */
+	static StreamInput stream(InputStream stream){
+		return new StreamInput(stream, StandardCharsets.UTF_8, true);
+	}
+
+	/**
+	 * Create an input which reads a file, in UTF-8
+	 * @param file	The file
+	 * @return		The input, which must be closed
+	 * @throws IOException	If the file can't be opened
+	 */
+	static StreamInput file(Path file) throws IOException {
+		return stream(Files.newInputStream(file));
+	}
+
+	/**
+	 * Create an input which reads a channel, in UTF-8
+	 * @param channel	The channel
+	 * @return			The input, which closes the channel when it's closed
+	 */
+	static StreamInput channel(ReadableByteChannel channel){
+		return stream(Channels.newInputStream(channel));
+	}
+
+	/**
+	 * Create an input which reads the lines of a text
+	 * @param text	The text
+	 * @return		The input
+	 */
+	static StreamInput of(String text){
+		return stream(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+	}
+
+}
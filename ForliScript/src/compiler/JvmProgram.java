@@ -0,0 +1,546 @@
+package compiler;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+import expressions.ValNumber;
+import expressions.Value;
+import expressions.Variable;
+import instruction.Instruction;
+
+
+/**
+ * A {@link Bytecode} translated into a JVM class, executed by {@link Engine#JVM}.
+ * <p>
+ * The code becomes a single static method, defined as a hidden class: each register is a local variable, each operation is a call to the static
+ * operation of {@link Bytecode} and the jumps are real branches, so the JIT compiles the program like any other Java method.
+ * The generated method is:
+ *
+ * <pre>
+ * static void run (Object[] values, Instruction[] instructions, Program program, Input input, Output output)
+ * </pre>
+ *
+ * The local variables are the parameters, the index of the current instruction (used in the error messages) and the registers. The values are
+ * only read, to initialize the registers, and the class has no state: the method can be executed by many threads at the same time, each one
+ * with the values of its own {@link ExecutionContext}.
+ * <p>
+ * The variables proven to contain only numbers by {@link TypeInference} are unboxed: the arithmetic on them is done on floats, without creating a
+ * {@link ValNumber} for each result, and their values are stored into the variables when the method ends, normally or with an error.
+ *
+ * @author MarcoForlini
+ */
+final class JvmProgram {
+
+	private static final String			BYTECODE		= "compiler/Bytecode";
+	private static final String			VALUE			= "expressions/Value";
+	private static final String			OPERATION		= "(Ljava/lang/Object;Ljava/lang/Object;I)Lexpressions/Value;";
+	static final MethodType				RUN_TYPE		= MethodType.methodType (void.class, Object[].class, Instruction[].class, Program.class, Input.class,
+		Output.class);
+
+	/** The first local variable used by the registers */
+	private static final int			REGISTERS		= 6;
+	/** The local variable which contains the index of the current instruction */
+	private static final int			CURRENT			= 5;
+	private final MethodHandle			run;
+	private final Instruction[]			instructions;
+
+
+
+	private JvmProgram (MethodHandle run, Bytecode bytecode) {
+		this.run = run;
+		instructions = bytecode.instructions;
+	}
+
+
+
+	/**
+	 * Translate the bytecode into a JVM class
+	 *
+	 * @param bytecode The bytecode
+	 * @return The translated program
+	 * @throws IllegalStateException If the program is too large to be translated
+	 * @throws ReflectiveOperationException If the class can't be defined
+	 */
+	static JvmProgram translate (Bytecode bytecode) throws ReflectiveOperationException {
+		MethodHandles.Lookup lookup = MethodHandles.lookup ();
+		ClassWriter writer = new ClassWriter ("compiler/JvmProgram$Code");
+		addRun (writer, bytecode);
+		byte[] bytes = writer.toByteArray (ClassWriter.ACC_FINAL);
+		MethodHandles.Lookup code = lookup.defineHiddenClass (bytes, true);
+		return new JvmProgram (code.findStatic (code.lookupClass (), "run", RUN_TYPE), bytecode);
+	}
+
+
+
+	/**
+	 * Add the method which executes the bytecode to a class
+	 *
+	 * @param writer The class
+	 * @param bytecode The bytecode
+	 * @throws IllegalStateException If the program is too large to be translated
+	 */
+	static void addRun (ClassWriter writer, Bytecode bytecode) {
+		new Translator (bytecode, writer).translate ();
+	}
+
+
+
+	/**
+	 * Execute the program
+	 *
+	 * @param values The variables and the constants, which initialize the registers
+	 * @param program The program which the code is compiled from
+	 * @param input The input of Read
+	 * @param output The output of Print and Println
+	 * @throws ExecutionException If the program contains an error
+	 */
+	void run (Value[] values, Program program, Input input, Output output) throws ExecutionException {
+		try {
+			run.invokeExact ((Object[]) values, instructions, program, input, output);
+		} catch (ExecutionException | RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) { // The generated code only throws the exceptions of the operations
+			throw new IllegalStateException (e);
+		}
+	}
+
+
+
+	/**
+	 * Writes the method of a {@link Bytecode}.
+	 * <p>
+	 * Each register has three local variables: an Object, a float and an int. The {@link TypeInference} decides which one holds the register: the
+	 * number variables and the numeric results live in the float, the results of the comparisons of numbers in the int, everything else in the
+	 * Object. The int of a number variable tells if the program assigned it, so that the variables can be stored back when the method ends.
+	 */
+	private static final class Translator {
+
+		private final int[]				code;
+		private final int[]				starts;
+		private final Value[]			constants;
+		private final int				values;
+		private final int				registers;
+		private final TypeInference		types;
+		/** The type of each temporary register at the current position */
+		private final int[]				temporaries;
+		private final ClassWriter		writer;
+		private final ClassWriter.Code	out;
+
+
+		Translator (Bytecode bytecode, ClassWriter writer) {
+			code = bytecode.code;
+			starts = bytecode.starts;
+			constants = bytecode.values;
+			values = bytecode.values.length;
+			registers = values + bytecode.temporaries;
+			types = TypeInference.infer (bytecode);
+			temporaries = new int[registers];
+			this.writer = writer;
+			out = new ClassWriter.Code (writer);
+		}
+
+
+		void translate () {
+			int exception = writer.classRef ("java/lang/Exception");
+			int object = writer.classRef ("java/lang/Object");
+			int[] locals = new int[REGISTERS + 3 * registers];
+			locals[0] = writer.classRef ("[Ljava/lang/Object;");
+			locals[1] = writer.classRef ("[Linstruction/Instruction;");
+			locals[2] = writer.classRef ("compiler/Program");
+			locals[3] = writer.classRef ("compiler/Input");
+			locals[4] = writer.classRef ("compiler/Output");
+			locals[CURRENT] = ClassWriter.TYPE_INT;
+			Arrays.fill (locals, REGISTERS, REGISTERS + registers, object);
+			Arrays.fill (locals, REGISTERS + registers, REGISTERS + 2 * registers, ClassWriter.TYPE_FLOAT);
+			Arrays.fill (locals, REGISTERS + 2 * registers, locals.length, ClassWriter.TYPE_INT);
+
+			// The positions which need a frame: the destinations of the jumps and the operations after an unconditional jump
+			boolean[] targets = new boolean[code.length + 1];
+			for (int pc = 0; pc < code.length; pc += Bytecode.length (code, pc)) {
+				switch (code[pc]) {
+					case Bytecode.JUMP:
+						targets[code[pc + 1]] = true;
+						targets[pc + 2] = true;
+						break;
+					case Bytecode.JUMP_IF_FALSE:
+					case Bytecode.JUMP_IF_TRUE:
+						targets[code[pc + 2]] = true;
+						break;
+					case Bytecode.HALT:
+					case Bytecode.TRAP:
+						targets[pc + 1] = true;
+						break;
+				}
+			}
+
+			// Prologue: load the constants and the variables, clear the temporaries and the primitive registers
+			for (int r = 0; r < registers; r++) {
+				if (r < values) {
+					out.local (ClassWriter.ALOAD, 0);
+					out.push (r);
+					out.emit (ClassWriter.AALOAD);
+				} else {
+					out.emit (ClassWriter.ACONST_NULL);
+				}
+				out.local (ClassWriter.ASTORE, REGISTERS + r);
+				out.emit (ClassWriter.FCONST_0);
+				out.local (ClassWriter.FSTORE, floatLocal (r));
+				out.emit (ClassWriter.ICONST_0);
+				out.local (ClassWriter.ISTORE, intLocal (r));
+			}
+			out.push (0);
+			out.local (ClassWriter.ISTORE, CURRENT);
+
+			int tryStart = out.length ();
+			int[] positions = new int[code.length];
+			int[] branches = new int[16];
+			int nBranches = 0;
+			int trap = -1;
+			int instruction = 0;
+			for (int pc = 0; pc < code.length; pc += Bytecode.length (code, pc)) {
+				positions[pc] = out.length ();
+				if (targets[pc]) {
+					out.frame (0);
+				}
+				int current = -1;
+				while (instruction < starts.length && starts[instruction] == pc) {
+					current = instruction++;
+				}
+				if (current >= 0) {
+					out.push (current);
+					out.local (ClassWriter.ISTORE, CURRENT);
+				}
+				int op = code[pc];
+				int destination = -1;
+				switch (op) {
+					case Bytecode.UNARY:
+						if (types.result (pc) == TypeInference.NUMBER) { // Negation
+							loadNumber (code[pc + 3]);
+							out.emit (ClassWriter.FNEG);
+							canonical ();
+						} else if (types.result (pc) == TypeInference.BOOLEAN) { // Not
+							loadNumber (code[pc + 3]);
+							out.emit (ClassWriter.FCONST_0);
+							out.invoke (ClassWriter.INVOKESTATIC, BYTECODE, "equal", "(FF)Z");
+						} else {
+							load (code[pc + 3]);
+							out.push (code[pc + 1]);
+							out.invoke (ClassWriter.INVOKESTATIC, BYTECODE, "unary", "(Ljava/lang/Object;I)Lexpressions/Value;");
+						}
+						store (code[pc + 2], types.result (pc));
+						break;
+					case Bytecode.CALL:
+						int size = code[pc + 2];
+						out.push (size);
+						out.type (ClassWriter.ANEWARRAY, VALUE);
+						for (int i = 0; i < size; i++) {
+							out.emit (ClassWriter.DUP);
+							out.push (i);
+							load (code[pc + 4 + i]);
+							out.type (ClassWriter.CHECKCAST, VALUE);
+							out.emit (ClassWriter.AASTORE);
+						}
+						out.push (code[pc + 1]);
+						out.invoke (ClassWriter.INVOKESTATIC, BYTECODE, "call", "([Lexpressions/Value;I)Lexpressions/Value;");
+						store (code[pc + 3], TypeInference.ANY);
+						break;
+					case Bytecode.PRINT:
+					case Bytecode.PRINTLN:
+						out.local (ClassWriter.ALOAD, 4);
+						load (code[pc + 1]);
+						out.invoke (ClassWriter.INVOKESTATIC, BYTECODE, op == Bytecode.PRINT ? "print" : "println", "(Lcompiler/Output;Ljava/lang/Object;)V");
+						break;
+					case Bytecode.JUMP:
+						destination = code[pc + 1];
+						break;
+					case Bytecode.JUMP_IF_FALSE:
+					case Bytecode.JUMP_IF_TRUE:
+						isTrue (code[pc + 1]);
+						destination = code[pc + 2];
+						break;
+					case Bytecode.TEST:
+						isTrue (code[pc + 2]);
+						store (code[pc + 1], TypeInference.BOOLEAN);
+						break;
+					case Bytecode.EXECUTE:
+						out.local (ClassWriter.ALOAD, 1);
+						out.push (code[pc + 1]);
+						out.emit (ClassWriter.AALOAD);
+						out.local (ClassWriter.ALOAD, 2);
+						out.invoke (ClassWriter.INVOKEVIRTUAL, "instruction/Instruction", "execute", "(Lcompiler/Program;)Z");
+						out.emit (ClassWriter.POP);
+						break;
+					case Bytecode.READ:
+						load (code[pc + 1]);
+						out.local (ClassWriter.ALOAD, 3);
+						out.invoke (ClassWriter.INVOKESTATIC, BYTECODE, "read", "(Ljava/lang/Object;Lcompiler/Input;)V");
+						break;
+					case Bytecode.CHECKPOINT: // Only the interpreter saves checkpoints
+						break;
+					case Bytecode.HALT:
+						storeVariables ();
+						out.emit (ClassWriter.RETURN);
+						break;
+					case Bytecode.TRAP:
+						trap = out.branch (ClassWriter.GOTO);
+						break;
+					default:
+						if (types.result (pc) == TypeInference.ANY) {
+							load (code[pc + 3]);
+							load (code[pc + 4]);
+							out.push (code[pc + 1]);
+							out.invoke (ClassWriter.INVOKESTATIC, BYTECODE, operation (op), OPERATION);
+						} else {
+							numbers (op, code[pc + 3], code[pc + 4]);
+						}
+						store (code[pc + 2], types.result (pc));
+				}
+				if (destination >= 0) {
+					if (nBranches + 2 > branches.length) {
+						branches = Arrays.copyOf (branches, branches.length << 1);
+					}
+					branches[nBranches++] = out.branch (op == Bytecode.JUMP ? ClassWriter.GOTO : op == Bytecode.JUMP_IF_TRUE ? ClassWriter.IFNE : ClassWriter.IFEQ);
+					branches[nBranches++] = destination;
+				}
+			}
+
+			// Handler: wrap the exception like the interpreter does
+			int tryEnd = out.length ();
+			out.frame (exception);
+			storeVariables ();
+			out.local (ClassWriter.ALOAD, 1);
+			out.local (ClassWriter.ILOAD, CURRENT);
+			out.invoke (ClassWriter.INVOKESTATIC, BYTECODE, "failure", "(Ljava/lang/Exception;[Linstruction/Instruction;I)Lcompiler/ExecutionException;");
+			out.emit (ClassWriter.ATHROW);
+
+			// Jumps to an invalid instruction: fail outside the handler, like the interpreter does
+			out.patch (trap, out.length ());
+			out.frame (0);
+			storeVariables ();
+			out.local (ClassWriter.ALOAD, 1);
+			out.invoke (ClassWriter.INVOKESTATIC, BYTECODE, "trap", "([Linstruction/Instruction;)Ljava/lang/IndexOutOfBoundsException;");
+			out.emit (ClassWriter.ATHROW);
+
+			for (int i = 0; i < nBranches; i += 2) {
+				out.patch (branches[i], positions[branches[i + 1]]);
+			}
+			out.method (ClassWriter.ACC_PUBLIC, "run", RUN_TYPE.toMethodDescriptorString (), 6, locals, new int[] { tryStart, tryEnd, tryEnd, exception });
+		}
+
+
+		/**
+		 * Write an operation whose operands are numbers: push the result, a float or a boolean, and update the number variable it assigns
+		 *
+		 * @param op The opcode
+		 * @param l The left operand
+		 * @param r The right operand
+		 */
+		private void numbers (int op, int l, int r) {
+			switch (op) {
+				case Bytecode.ASSIGN:
+					loadNumber (r);
+					break;
+				case Bytecode.ADD_SET:
+				case Bytecode.SUBTRACT_SET:
+					loadNumber (l);
+					loadNumber (r);
+					out.emit (op == Bytecode.ADD_SET ? ClassWriter.FADD : ClassWriter.FSUB);
+					canonical ();
+					break;
+				case Bytecode.LESS:
+				case Bytecode.LESS_EQUAL:
+				case Bytecode.GREATER:
+				case Bytecode.GREATER_EQUAL:
+				case Bytecode.EQUAL:
+				case Bytecode.DIFFERENT:
+					loadNumber (l);
+					loadNumber (r);
+					out.invoke (ClassWriter.INVOKESTATIC, BYTECODE, operation (op), "(FF)Z");
+					return;
+				default:
+					loadNumber (l);
+					loadNumber (r);
+					out.emit (arithmetic (op));
+					canonical ();
+					return;
+			}
+			out.emit (ClassWriter.DUP);
+			out.local (ClassWriter.FSTORE, floatLocal (l));
+			out.emit (ClassWriter.ICONST_1);
+			out.local (ClassWriter.ISTORE, intLocal (l));
+		}
+
+
+		/**
+		 * Turn -0 into 0, like {@link ValNumber#getNumber(float)} does for the boxed results
+		 */
+		private void canonical () {
+			out.emit (ClassWriter.FCONST_0);
+			out.emit (ClassWriter.FADD);
+		}
+
+
+		/**
+		 * Store the number variables back into their {@link Variable}
+		 */
+		private void storeVariables () {
+			for (int r = 0; r < values; r++) {
+				if (types.isNumberVariable (r)) {
+					out.local (ClassWriter.ALOAD, REGISTERS + r);
+					out.local (ClassWriter.ILOAD, intLocal (r));
+					out.local (ClassWriter.FLOAD, floatLocal (r));
+					out.invoke (ClassWriter.INVOKESTATIC, BYTECODE, "store", "(Ljava/lang/Object;ZF)V");
+				}
+			}
+		}
+
+
+		/**
+		 * Push true if a register is true, false otherwise
+		 *
+		 * @param register The register
+		 */
+		private void isTrue (int register) {
+			int type = type (register);
+			if (type == TypeInference.BOOLEAN) {
+				out.local (ClassWriter.ILOAD, intLocal (register));
+			} else if (type == TypeInference.NUMBER) {
+				loadNumber (register);
+				out.emit (ClassWriter.FCONST_0);
+				out.invoke (ClassWriter.INVOKESTATIC, BYTECODE, "different", "(FF)Z");
+			} else {
+				load (register);
+				out.invoke (ClassWriter.INVOKESTATIC, BYTECODE, "isTrue", "(Ljava/lang/Object;)Z");
+			}
+		}
+
+
+		private int type (int register) {
+			if (register < values) {
+				return types.isNumber (register) ? TypeInference.NUMBER : TypeInference.ANY;
+			}
+			return temporaries[register];
+		}
+
+
+		/**
+		 * Push a register as a value, boxing it if it's kept in a primitive local variable
+		 *
+		 * @param register The register
+		 */
+		private void load (int register) {
+			int type = register < values ? types.isNumberVariable (register) ? TypeInference.NUMBER : TypeInference.ANY : temporaries[register];
+			switch (type) {
+				case TypeInference.NUMBER:
+					out.local (ClassWriter.FLOAD, floatLocal (register));
+					out.invoke (ClassWriter.INVOKESTATIC, "expressions/ValNumber", "getNumber", "(F)Lexpressions/ValNumber;");
+					break;
+				case TypeInference.BOOLEAN:
+					out.local (ClassWriter.ILOAD, intLocal (register));
+					out.invoke (ClassWriter.INVOKESTATIC, "expressions/ValBoolean", "getBool", "(Z)Lexpressions/ValBoolean;");
+					break;
+				default:
+					out.local (ClassWriter.ALOAD, REGISTERS + register);
+			}
+		}
+
+
+		/**
+		 * Push a register which contains a number as a float
+		 *
+		 * @param register The register
+		 */
+		private void loadNumber (int register) {
+			if (register < values && !types.isNumberVariable (register)) {
+				out.push (((ValNumber) constants[register]).value ());
+			} else {
+				out.local (ClassWriter.FLOAD, floatLocal (register));
+			}
+		}
+
+
+		private void store (int register, int type) {
+			temporaries[register] = type;
+			switch (type) {
+				case TypeInference.NUMBER:
+					out.local (ClassWriter.FSTORE, floatLocal (register));
+					break;
+				case TypeInference.BOOLEAN:
+					out.local (ClassWriter.ISTORE, intLocal (register));
+					break;
+				default:
+					out.local (ClassWriter.ASTORE, REGISTERS + register);
+			}
+		}
+
+
+		private int floatLocal (int register) {
+			return REGISTERS + registers + register;
+		}
+
+
+		private int intLocal (int register) {
+			return REGISTERS + 2 * registers + register;
+		}
+
+
+		private static int arithmetic (int op) {
+			switch (op) {
+				case Bytecode.ADD:
+					return ClassWriter.FADD;
+				case Bytecode.SUBTRACT:
+					return ClassWriter.FSUB;
+				case Bytecode.MULTIPLY:
+					return ClassWriter.FMUL;
+				case Bytecode.DIVIDE:
+					return ClassWriter.FDIV;
+				case Bytecode.MODULE:
+					return ClassWriter.FREM;
+				default:
+					throw new IllegalStateException ("Unknown opcode " + op);
+			}
+		}
+
+
+		private static String operation (int op) {
+			switch (op) {
+				case Bytecode.BINARY:
+					return "binary";
+				case Bytecode.ADD:
+					return "add";
+				case Bytecode.SUBTRACT:
+					return "subtract";
+				case Bytecode.MULTIPLY:
+					return "multiply";
+				case Bytecode.DIVIDE:
+					return "divide";
+				case Bytecode.MODULE:
+					return "module";
+				case Bytecode.ASSIGN:
+					return "assign";
+				case Bytecode.LESS:
+					return "less";
+				case Bytecode.LESS_EQUAL:
+					return "lessEqual";
+				case Bytecode.GREATER:
+					return "greater";
+				case Bytecode.GREATER_EQUAL:
+					return "greaterEqual";
+				case Bytecode.EQUAL:
+					return "equal";
+				case Bytecode.DIFFERENT:
+					return "different";
+				case Bytecode.ADD_SET:
+					return "addSet";
+				case Bytecode.SUBTRACT_SET:
+					return "subtractSet";
+				default:
+					throw new IllegalStateException ("Unknown opcode " + op);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,81 @@
+package compiler;
+
+import expressions.Expression;
+import expressions.LazyOperation;
+import expressions.Operator;
+import expressions.Value;
+
+
+/**
+ * An expression which applies a binary {@link Operator} with a {@link LazyOperation}: the operator receives the operands unevaluated and evaluates
+ * only the ones it needs, so the logic and/or skip their right operand when the left one decides the result.
+ *
+ * @author MarcoForlini
+ */
+final class LazyNode implements Node {
+
+	private static final long	serialVersionUID	= 6046259018420135313L;
+
+	private final Operator		oper;
+	private final Expression	lExpr;
+	private final Expression	rExpr;
+
+
+
+	/**
+	 * Create a new {@link LazyNode}
+	 *
+	 * @param oper The operator, which must have a {@link Operator#lazyOp}
+	 * @param lExpr The left operand
+	 * @param rExpr The right operand
+	 */
+	LazyNode (Operator oper, Expression lExpr, Expression rExpr) {
+		this.oper = oper;
+		this.lExpr = lExpr;
+		this.rExpr = rExpr;
+	}
+
+
+
+	@Override
+	public Value eval () throws ExecutionException {
+		return oper.lazyOp.eval (lExpr, rExpr);
+	}
+
+
+	@Override
+	public <R> R accept (NodeVisitor <R> visitor) {
+		return visitor.visitLazy (this);
+	}
+
+
+	@Override
+	public Expression[] getChildren () {
+		return new Expression[] { lExpr, rExpr };
+	}
+
+
+	/**
+	 * @return The operator
+	 */
+	Operator getOperator () {
+		return oper;
+	}
+
+
+	/**
+	 * @return The left operand
+	 */
+	Expression getLeft () {
+		return lExpr;
+	}
+
+
+	/**
+	 * @return The right operand, which may not be evaluated
+	 */
+	Expression getRight () {
+		return rExpr;
+	}
+
+}
@@ -0,0 +1,421 @@
+package compiler;
+
+import expressions.BadExpressionException;
+import expressions.Operator;
+import expressions.STDFunction;
+import expressions.ValNumber;
+import expressions.ValString;
+
+
+/**
+ * Splits an expression into a compact stream of tokens, scanning the text only once.
+ * <p>
+ * Each token is stored as a kind, a [start,end) range in the text and an optional literal: the decoded {@link ValNumber} or {@link ValString}, the {@link Operator}
+ * or the {@link STDFunction}. The token arrays are reused between lines, so a single {@link Lexer} must not be shared between compilers.
+ *
+ * @author MarcoForlini
+ */
+final class Lexer {
+
+	/** A number literal */
+	static final int	NUMBER			= 0;
+	/** A string or char literal */
+	static final int	STRING			= 1;
+	/** A lower case name (variable or keyword) */
+	static final int	NAME			= 2;
+	/** An upper case name (standard function) */
+	static final int	FUNCTION		= 3;
+	/** An operator */
+	static final int	OPERATOR		= 4;
+	/** The char '(' */
+	static final int	OPEN_BRACKET	= 5;
+	/** The char ')' */
+	static final int	CLOSE_BRACKET	= 6;
+	/** The char '[' */
+	static final int	OPEN_SQUARE		= 7;
+	/** The char ']' */
+	static final int	CLOSE_SQUARE	= 8;
+	/** The char ',' */
+	static final int	COMMA			= 9;
+
+	/** Max integer which can be stored in a float without losing precision */
+	private static final int MAX_EXACT_INT = 1 << 24;
+
+
+	private String		text;
+	private int			size;
+	private int[]		kinds		= new int[32];
+	private int[]		starts		= new int[32];
+	private int[]		ends		= new int[32];
+	private Object[]	literals	= new Object[32];
+
+	private int[]			openStack	= new int[16];
+	private StringBuilder	buffer		= new StringBuilder ();
+
+
+
+	/**
+	 * Split the text in the range [from,to) into tokens, replacing the tokens from the previous call
+	 *
+	 * @param text The text to split
+	 * @param from The min position
+	 * @param to The max position
+	 * @throws BadExpressionException If the text contains unrecognized tokens, mismatched brackets or quotes
+	 */
+	void tokenize (String text, int from, int to) throws BadExpressionException {
+		this.text = text;
+		size = 0;
+		int depth = 0;
+		int i = from, start, kind;
+		char c;
+
+		while (i < to) {
+			c = text.charAt (i);
+			start = i;
+			if (Character.isWhitespace (c)) {
+				i++;
+				continue;
+			} else if (c >= '0' && c <= '9' || (c == '.' && i + 1 < to && isDigit (text.charAt (i + 1)))) {
+				i = scanNumber (text, i, to);
+				continue;
+			} else if (c == '\"') {
+				i = scanString (text, i, to);
+				continue;
+			} else if (c == '\'') {
+				i = scanChar (text, i, to);
+				continue;
+			} else if (Character.isLetter (c)) {
+				i = findNameEnd (text, i, to);
+				if (Character.isLowerCase (c)) {
+					add (NAME, start, i, null);
+				} else {
+					STDFunction fun = STDFunction.parse (text, start, i);
+					if (fun == null) {
+						throw new UnrecognizedTokenException ("Unrecognized token at " + start + " in " + text);
+					}
+					add (FUNCTION, start, i, fun);
+				}
+				continue;
+			}
+
+			switch (c) {
+				case '(':
+					kind = OPEN_BRACKET;
+					break;
+				case '[':
+					kind = OPEN_SQUARE;
+					break;
+				case ')':
+					kind = CLOSE_BRACKET;
+					break;
+				case ']':
+					kind = CLOSE_SQUARE;
+					break;
+				case ',':
+					kind = COMMA;
+					break;
+				default:
+					Operator op = Operator.parse (text, i, to);
+					if (op == null) {
+						throw new UnrecognizedTokenException ("Unrecognized token at " + i + " in " + text);
+					} else if (op == Operator.comment) {
+						i = to;
+						continue;
+					}
+					i += op.name.length ();
+					add (OPERATOR, start, i, op);
+					continue;
+			}
+
+			if (kind == OPEN_BRACKET || kind == OPEN_SQUARE) {
+				if (depth == openStack.length) {
+					openStack = grow (openStack);
+				}
+				openStack[depth++] = size;
+			} else if (kind == CLOSE_BRACKET || kind == CLOSE_SQUARE) {
+				if (depth == 0 || kinds[openStack[depth - 1]] != kind - 1) {
+					throw new BadExpressionException ("Mismatched parenthesys at " + i + " in " + text);
+				}
+				depth--;
+			}
+			add (kind, start, ++i, null);
+		}
+
+		if (depth > 0) {
+			throw new UnrecognizedTokenException ("Mismatched brackets at: " + starts[openStack[depth - 1]] + " in " + text);
+		}
+	}
+
+
+
+	/**
+	 * Get the number of tokens
+	 *
+	 * @return The number of tokens
+	 */
+	int size () {
+		return size;
+	}
+
+	/**
+	 * Get the kind of a token
+	 *
+	 * @param index The index of the token
+	 * @return The kind of the token
+	 */
+	int kind (int index) {
+		return kinds[index];
+	}
+
+	/**
+	 * Get the position in the text where the token starts
+	 *
+	 * @param index The index of the token
+	 * @return The position of the first char
+	 */
+	int start (int index) {
+		return starts[index];
+	}
+
+	/**
+	 * Get the position in the text where the token ends
+	 *
+	 * @param index The index of the token
+	 * @return The position after the last char
+	 */
+	int end (int index) {
+		return ends[index];
+	}
+
+	/**
+	 * Get the literal of a token: a value for {@link #NUMBER} and {@link #STRING}, an {@link Operator} or a {@link STDFunction}
+	 *
+	 * @param index The index of the token
+	 * @return The literal, or null
+	 */
+	Object literal (int index) {
+		return literals[index];
+	}
+
+	/**
+	 * Get the text of a token
+	 *
+	 * @param index The index of the token
+	 * @return The text of the token
+	 */
+	String text (int index) {
+		return text.substring (starts[index], ends[index]);
+	}
+
+	/**
+	 * Get the text being tokenized
+	 *
+	 * @return The text
+	 */
+	String getText () {
+		return text;
+	}
+
+
+
+	/**
+	 * Append a token to the stream
+	 *
+	 * @param kind The kind
+	 * @param start The position of the first char
+	 * @param end The position after the last char
+	 * @param literal The literal
+	 */
+	private void add (int kind, int start, int end, Object literal) {
+		if (size == kinds.length) {
+			kinds = grow (kinds);
+			starts = grow (starts);
+			ends = grow (ends);
+			Object[] newLiterals = new Object[size << 1];
+			System.arraycopy (literals, 0, newLiterals, 0, size);
+			literals = newLiterals;
+		}
+		kinds[size] = kind;
+		starts[size] = start;
+		ends[size] = end;
+		literals[size] = literal;
+		size++;
+	}
+
+
+
+	/**
+	 * Scan a number in the format digits[.digits][(e|E)[+|-]digits] and add it to the stream
+	 *
+	 * @param text The text
+	 * @param from The position of the first char
+	 * @param to The max position
+	 * @return The position after the number
+	 * @throws BadExpressionException If the number is malformed
+	 */
+	private int scanNumber (String text, int from, int to) throws BadExpressionException {
+		int i = from;
+		int intValue = 0;
+		boolean exact = true;
+		char c;
+		while (i < to && isDigit (c = text.charAt (i))) {
+			if (exact && (intValue = intValue * 10 + (c - '0')) > MAX_EXACT_INT) {
+				exact = false;
+			}
+			i++;
+		}
+		if (i < to && text.charAt (i) == '.') {
+			exact = false;
+			i++;
+			while (i < to && isDigit (text.charAt (i))) {
+				i++;
+			}
+		}
+		if (i < to && ((c = text.charAt (i)) == 'e' || c == 'E')) {
+			int exp = i + 1;
+			if (exp < to && ((c = text.charAt (exp)) == '+' || c == '-')) {
+				exp++;
+			}
+			if (exp < to && isDigit (text.charAt (exp))) {
+				exact = false;
+				i = exp;
+				while (i < to && isDigit (text.charAt (i))) {
+					i++;
+				}
+			}
+		}
+		if (i < to && (Character.isLetterOrDigit (c = text.charAt (i)) || c == '.')) {
+			throw new BadExpressionException ("Missing operator at " + i + " in " + text);
+		}
+		float value = exact ? intValue : Float.parseFloat (text.substring (from, i));
+		add (NUMBER, from, i, ValNumber.getNumber (value));
+		return i;
+	}
+
+
+	/**
+	 * To be called when you encounter a '\"': scan the string up to the next '\"' (not escaped), decode the escape sequences and add it to the stream
+	 *
+	 * @param text The text
+	 * @param from The position of the opening '\"'
+	 * @param to The max position
+	 * @return The position after the closing '\"'
+	 * @throws BadExpressionException If no '\"' (not escaped) can be found in the range [from,to]
+	 */
+	private int scanString (String text, int from, int to) throws BadExpressionException {
+		int i = from + 1;
+		int plain = i;
+		StringBuilder sb = null;
+		char c;
+		for (; i < to; i++) {
+			c = text.charAt (i);
+			if (c == '\"') {
+				String str;
+				if (sb == null) {
+					str = text.substring (from + 1, i);
+				} else {
+					str = sb.append (text, plain, i).toString ();
+				}
+				add (STRING, from, i + 1, new ValString (str));
+				return i + 1;
+			} else if (c == '\\' && i + 1 < to) {
+				if (sb == null) {
+					sb = buffer;
+					sb.setLength (0);
+				}
+				sb.append (text, plain, i);
+				appendEscape (sb, text.charAt (++i));
+				plain = i + 1;
+			}
+		}
+		throw new BadExpressionException ("Mismatched double-quotes at: " + from + " in " + text);
+	}
+
+
+	/**
+	 * To be called when you encounter a '\'': scan a single (eventually escaped) char and add it to the stream as a string
+	 *
+	 * @param text The text
+	 * @param from The position of the opening '\''
+	 * @param to The max position
+	 * @return The position after the closing '\''
+	 * @throws BadExpressionException If the quotes are mismatched or there's more than one char between them
+	 */
+	private int scanChar (String text, int from, int to) throws BadExpressionException {
+		int i = from + 1;
+		String str;
+		if (i < to && text.charAt (i) == '\'') {
+			str = "";
+		} else if (i + 1 < to && text.charAt (i) == '\\') {
+			StringBuilder sb = buffer;
+			sb.setLength (0);
+			str = appendEscape (sb, text.charAt (++i)).toString ();
+			if (str.length () >= 2) {
+				throw new BadExpressionException ("Unrecognized char at " + (from + 1) + " in " + text);
+			}
+			i++;
+		} else if (i < to) {
+			str = String.valueOf (text.charAt (i++));
+		} else {
+			str = null;
+		}
+		if (str == null || i >= to || text.charAt (i) != '\'') {
+			throw new BadExpressionException ("Mismatched quotes at " + from + " in " + text);
+		}
+		add (STRING, from, i + 1, new ValString (str));
+		return i + 1;
+	}
+
+
+	/**
+	 * Decode the escape sequence '\' + c and append the result. Both \r and \n produce a new line, unknown sequences are kept as they are.
+	 *
+	 * @param sb The builder
+	 * @param c The char after the '\'
+	 * @return The builder
+	 */
+	private static StringBuilder appendEscape (StringBuilder sb, char c) {
+		switch (c) {
+			case 'r':
+			case 'n':
+				return sb.append ('\n');
+			case 't':
+				return sb.append ('\t');
+			case '\"':
+				return sb.append ('\"');
+			default:
+				return sb.append ('\\').append (c);
+		}
+	}
+
+
+	/**
+	 * Try to find the end of the name in the expression from position 'from' up to position 'to'.
+	 *
+	 * @param text The text where to search
+	 * @param from The min position
+	 * @param to The max position
+	 * @return The index after the last char of the name
+	 */
+	private static int findNameEnd (String text, int from, int to) {
+		for (int i = from + 1; i < to; i++) {
+			if (!Character.isLetterOrDigit (text.charAt (i))) {
+				return i;
+			}
+		}
+		return to;
+	}
+
+
+	private static boolean isDigit (char c) {
+		return c >= '0' && c <= '9';
+	}
+
+
+	private static int[] grow (int[] array) {
+		int[] newArray = new int[array.length << 1];
+		System.arraycopy (array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+
+}
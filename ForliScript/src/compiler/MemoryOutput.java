@@ -0,0 +1,58 @@
+package compiler;
+
+/**
+ * An {@link Output} which keeps the text in memory, to collect the output of a program.
+ * <p>
+ * The output can be shared by many contexts: the text of each Print and Println is written as a whole, but the texts of the contexts which
+ * run at the same time are interleaved.
+ * @author MarcoForlini
+ */
+public final class MemoryOutput implements Output {
+
+	private static final String NEW_LINE = System.lineSeparator();
+
+	private final StringBuilder text = new StringBuilder();
+
+	/**
+	 * Create a new {@link MemoryOutput}
+	 */
+	MemoryOutput(){
+		// Created by Output.memory()
+	}
+
+	@Override
+	public synchronized void print(String text){
+		this.text.append(text);
+	}
+
+	@Override
+	public synchronized void println(String text){
+		this.text.append(text).append(NEW_LINE);
+	}
+
+	@Override
+	public void flush(){
+		// Nothing to flush
+	}
+
+	/**
+	 * Get the text written so far
+	 * @return	The text
+	 */
+	public synchronized String getText(){
+		return text.toString();
+	}
+
+	/**
+	 * Discard the text written so far
+	 */
+	public synchronized void clear(){
+		text.setLength(0);
+	}
+
+	@Override
+	public synchronized String toString(){
+		return text.toString();
+	}
+
+}
@@ -0,0 +1,51 @@
+package compiler;
+
+import expressions.Expression;
+import expressions.Value;
+
+
+/**
+ * A node of the expression tree built by the {@link Parser}. Each kind of node is a final class with explicit children, so the tree can be inspected,
+ * walked and rewritten with a {@link NodeVisitor}, and it's serialized as plain objects.
+ * <p>
+ * The leaves of the tree are {@link Value}s: constants and variables.
+ *
+ * @author MarcoForlini
+ */
+interface Node extends Expression {
+
+	/**
+	 * Call the method of the visitor for this kind of node
+	 *
+	 * @param visitor The visitor
+	 * @return The result of the visitor
+	 */
+	<R> R accept (NodeVisitor <R> visitor);
+
+
+	/**
+	 * Get the children of the node, in evaluation order
+	 *
+	 * @return The children
+	 */
+	Expression[] getChildren ();
+
+
+	/**
+	 * Call the method of the visitor for any expression of the tree: a node or a value
+	 *
+	 * @param expression The expression
+	 * @param visitor The visitor
+	 * @return The result of the visitor
+	 * @throws IllegalArgumentException If the expression is not a node nor a value
+	 */
+	static <R> R accept (Expression expression, NodeVisitor <R> visitor) {
+		if (expression instanceof Node) {
+			return ((Node) expression).accept (visitor);
+		} else if (expression instanceof Value) {
+			return visitor.visitValue ((Value) expression);
+		}
+		throw new IllegalArgumentException ("Unknown expression " + expression.getClass ().getName ());
+	}
+
+}
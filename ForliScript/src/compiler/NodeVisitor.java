@@ -0,0 +1,77 @@
+package compiler;
+
+import expressions.Value;
+
+
+/**
+ * Visits the {@link Node}s of an expression tree
+ *
+ * @param <R> The type of the result
+ * @author MarcoForlini
+ * @see Node#accept(expressions.Expression, NodeVisitor)
+ */
+interface NodeVisitor <R> {
+
+	/**
+	 * Visit a leaf: a constant or a variable
+	 *
+	 * @param value The value
+	 * @return The result
+	 */
+	R visitValue (Value value);
+
+
+	/**
+	 * Visit a unary operator
+	 *
+	 * @param node The node
+	 * @return The result
+	 */
+	R visitUnary (UnaryNode node);
+
+
+	/**
+	 * Visit a binary operator, except the lazy ones, the assignments and the element access
+	 *
+	 * @param node The node
+	 * @return The result
+	 */
+	R visitBinary (BinaryNode node);
+
+
+	/**
+	 * Visit a binary operator which evaluates its operands lazily, like the logic and/or
+	 *
+	 * @param node The node
+	 * @return The result
+	 */
+	R visitLazy (LazyNode node);
+
+
+	/**
+	 * Visit an assignment: =, +=, -= and the other operators which assign a value
+	 *
+	 * @param node The node
+	 * @return The result
+	 */
+	R visitAssign (AssignNode node);
+
+
+	/**
+	 * Visit the access to an element: array[index]
+	 *
+	 * @param node The node
+	 * @return The result
+	 */
+	R visitElementAt (ElementAtNode node);
+
+
+	/**
+	 * Visit a function call
+	 *
+	 * @param node The node
+	 * @return The result
+	 */
+	R visitCall (CallNode node);
+
+}
@@ -0,0 +1,122 @@
+package compiler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The channel where a program writes the values of Print and Println.
+ * <p>
+ * Each {@link ExecutionContext} (and each {@link Program}) has its own output, {@link #STANDARD} unless it's changed. A running program calls
+ * the output from a single thread, so the implementations don't need to be thread-safe unless they're shared by many contexts. The outputs
+ * created by the factories of this interface are thread-safe.
+ * @author MarcoForlini
+ */
+public interface Output {
+
+	/** The standard output: writes to {@link System#out}, which is synchronized and flushes when a line ends */
+	Output STANDARD = new Output(){
+
+		@Override
+		public void print(String text){
+			System.out.print(text);
+		}
+
+		@Override
+		public void println(String text){
+			System.out.println(text);
+		}
+
+		@Override
+		public void flush(){
+			System.out.flush();
+		}
+
+	};
+
+
+	/**
+	 * Write a text
+	 * @param text	The text
+	 * @throws IOException	If the text can't be written
+	 */
+	void print(String text) throws IOException;
+
+	/**
+	 * Write a text and a line separator
+	 * @param text	The text
+	 * @throws IOException	If the text can't be written
+	 */
+	void println(String text) throws IOException;
+
+	/**
+	 * Write the buffered text
+	 * @throws IOException	If the text can't be written
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Called when an execution of the program ends, normally or with an error. The buffered outputs flush the text if their policy requires it.
+	 * @throws IOException	If the text can't be written
+	 */
+	default void endRun() throws IOException {
+		// Nothing to do
+	}
+
+
+
+	/**
+	 * Create a buffered output which writes to {@link System#out} once for each block of text, instead of once for each value
+	 * @param policy	When the text is flushed
+	 * @return			The output, which doesn't close {@link System#out} when it's closed
+	 */
+	static BufferedOutput stdout(BufferedOutput.FlushPolicy policy){
+		return new BufferedOutput(new OutputStreamWriter(System.out, Charset.defaultCharset()), policy, false);
+	}
+
+	/**
+	 * Create a buffered output which writes to a stream, in UTF-8
+	 * @param stream	The stream
+	 * @param policy	When the text is flushed
+	 * @return			The output, which closes the stream when it's closed
+	 */
+	static BufferedOutput stream(OutputStream stream, BufferedOutput.FlushPolicy policy){
+		return new BufferedOutput(new OutputStreamWriter(stream, StandardCharsets.UTF_8), policy, true);
+	}
+
+	/**
+	 * Create a buffered output which writes to a file, in UTF-8. The file is created or truncated.
+	 * @param file		The file
+	 * @param policy	When the text is flushed
+	 * @return			The output, which must be closed
+	 * @throws IOException	If the file can't be opened
+	 */
+	static BufferedOutput file(Path file, BufferedOutput.FlushPolicy policy) throws IOException {
+		return stream(Files.newOutputStream(file), policy);
+	}
+
+	/**
+	 * Create a buffered output which writes to a channel, in UTF-8
+	 * @param channel	The channel
+	 * @param policy	When the text is flushed
+	 * @return			The output, which closes the channel when it's closed
+	 */
+	static BufferedOutput channel(WritableByteChannel channel, BufferedOutput.FlushPolicy policy){
+		return new BufferedOutput(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1), policy, true);
+	}
+
+	/**
+	 * Create an output which keeps the text in memory
+	 * @return	The output
+	 */
+	static MemoryOutput memory(){
+		return new MemoryOutput();
+	}
+
+}
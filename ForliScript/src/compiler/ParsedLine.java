@@ -0,0 +1,79 @@
+package compiler;
+
+import java.util.List;
+
+import expressions.Expression;
+
+
+/**
+ * The result of parsing a single line of source code, before its instructions are added to the program.
+ * <p>
+ * The result doesn't depend on the position of the line, so it can be reused when the same line is found again while recompiling a program.
+ * The lines are compared by their {@link #hash} first, then by their text. The text is the same string held by the instruction of the line,
+ * so it doesn't keep another copy of the source code.
+ *
+ * @author MarcoForlini
+ */
+final class ParsedLine {
+
+	/** The first token of the line */
+	final String			firstToken;
+	/** The text of the line */
+	final String			line;
+	/** The hash of the text of the line */
+	final long				hash;
+	/** The expression */
+	Expression				expression;
+	/** The names of the variables used by the expression */
+	List <String>			variables;
+	/** The variables declared as "const" */
+	List <String>			constants;
+	/** The error found while parsing the line: a {@link CompilatorException}, or a runtime exception thrown while folding the constants */
+	Exception				error;
+
+
+
+	/**
+	 * Create a new {@link ParsedLine}
+	 *
+	 * @param firstToken The first token of the line
+	 * @param line The text of the line
+	 */
+	ParsedLine (String firstToken, String line) {
+		this.firstToken = firstToken;
+		this.line = line;
+		hash = hash (line);
+	}
+
+
+
+	/**
+	 * Throw the error found while parsing the line, unchanged
+	 *
+	 * @throws CompilatorException If the line contains an error
+	 * @throws RuntimeException If folding the constants of the line failed
+	 */
+	void throwError () throws CompilatorException {
+		if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		}
+		throw (CompilatorException) error;
+	}
+
+
+
+	/**
+	 * Calculate the hash of a line: 64 bits FNV-1a of its characters, so two different lines rarely have the same hash
+	 *
+	 * @param line The line
+	 * @return The hash
+	 */
+	static long hash (String line) {
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0, n = line.length (); i < n; i++) {
+			hash = (hash ^ line.charAt (i)) * 0x100000001B3L;
+		}
+		return hash;
+	}
+
+}
@@ -0,0 +1,464 @@
+package compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import expressions.BadExpressionException;
+import expressions.Constant;
+import expressions.Expression;
+import expressions.Operator;
+import expressions.STDFunction;
+import expressions.Value;
+
+
+/**
+ * Builds an {@link Expression} from the token stream of a {@link Lexer}, using the {@link Operator#priority} to decide the order of the operations.
+ * <p>
+ * The parser is iterative (operators and brackets are kept in explicit stacks), so it runs in linear time and its stack depth doesn't depend on how deeply the
+ * expression is nested. Operators with the same priority are joined from left to right, unary operators from right to left.
+ * If all operands of an operator are constant values, the result is calculated immediately to produce another constant value. The same happens when
+ * the left operand of a logic and/or is a constant which decides the result: the right operand is dropped.
+ * <ul>
+ * <li>5+3 ==&gt; value::5 | operator::+ | value::3 ==&gt; [all operands are constant values] ==&gt; result = value::8</li>
+ * <li>5+varX ==&gt; value::5 | operator::+ | variable::varX ==&gt; [there are variables/commands] ==&gt; result = expression::(5+varX)</li>
+ * </ul>
+ *
+ * @author MarcoForlini
+ */
+final class Parser {
+
+	/** Marks an open round bracket in the operators stack */
+	private static final Object		BRACKET		= new Object ();
+	/** Marks an open square bracket in the operators stack */
+	private static final Object		SQUARE		= new Object ();
+	private static final Value[]	noParams	= new Value[0];
+
+
+	private final Lexer			lexer	= new Lexer ();
+	private final SymbolTable	symbols;
+	private int					line;
+	private List <String>		variables;
+	private List <String>		constants;
+
+	private Expression[]	operands	= new Expression[16];
+	private int				nOperands;
+	private Object[]		operators	= new Object[16];
+	private int				nOperators;
+	/** The number of open logic operators whose left operand decides the result: their right operand is dead, so it's not folded */
+	private int				dead;
+
+
+
+	/**
+	 * Create a new {@link Parser}
+	 *
+	 * @param symbols The table of variables, where new variables are added
+	 */
+	Parser (SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+
+
+
+	/**
+	 * Attempt to parse the given text and return a new object Expression
+	 *
+	 * @param text The expression
+	 * @param from The min position
+	 * @param to The max position
+	 * @param line The number of the line which contains the expression
+	 * @return A new object {@link Expression}, or null if there's no expression in the given range
+	 * @throws BadExpressionException If the expression contains an error
+	 * @throws UnrecognizedTokenException If a token is not recognized
+	 * @throws ExecutionException If an error occur while calculating a constant expression
+	 */
+	Expression parse (String text, int from, int to, int line) throws BadExpressionException, UnrecognizedTokenException, ExecutionException {
+		this.line = line;
+		variables = null;
+		constants = null;
+		if (from >= to) {
+			return null;
+		}
+		lexer.tokenize (text, from, to);
+		int n = lexer.size ();
+		if (n == 0) {
+			return null;
+		} else if (n == 1 && lexer.kind (0) <= Lexer.STRING) {
+			return (Value) lexer.literal (0);
+		}
+
+		nOperands = nOperators = dead = 0;
+		boolean expectOperand = true;
+		boolean constant = false;
+		Object group;
+		Operator op;
+
+		for (int i = 0; i < n; i++) {
+			int kind = lexer.kind (i);
+			if (constant && kind != Lexer.NAME) {
+				throw new BadExpressionException ("Misplaced token \"const\"");
+			}
+			switch (kind) {
+				case Lexer.NUMBER:
+				case Lexer.STRING:
+					if (!expectOperand) {
+						throw missingOperator (i);
+					}
+					pushOperand ((Value) lexer.literal (i));
+					expectOperand = false;
+					break;
+				case Lexer.NAME:
+					if (!expectOperand) {
+						throw missingOperator (i);
+					}
+					String name = lexer.text (i);
+					if (name.equals ("const")) {
+						if (constant) {
+							throw new BadExpressionException ("Misplaced token \"const\"");
+						}
+						constant = true;
+						break;
+					}
+					pushOperand (getValue (name, constant, i));
+					constant = false;
+					expectOperand = false;
+					break;
+				case Lexer.FUNCTION:
+					if (!expectOperand) {
+						throw missingOperator (i);
+					} else if (i + 1 >= n || lexer.kind (i + 1) != Lexer.OPEN_BRACKET) {
+						throw new BadExpressionException ("Command without brackets at " + lexer.end (i) + " in " + text);
+					}
+					STDFunction fun = (STDFunction) lexer.literal (i++);
+					if (i + 1 < n && lexer.kind (i + 1) == Lexer.CLOSE_BRACKET) {
+						pushOperand (buildFunction (fun, noParams));
+						expectOperand = false;
+						i++;
+					} else {
+						pushOperator (new Call (fun, nOperands));
+					}
+					break;
+				case Lexer.OPEN_BRACKET:
+					if (!expectOperand) {
+						throw missingOperator (i);
+					} else if (lexer.kind (i + 1) == Lexer.CLOSE_BRACKET) {
+						throw new BadExpressionException ("Empty brackets at " + lexer.start (i) + " in " + text);
+					}
+					pushOperator (BRACKET);
+					break;
+				case Lexer.OPEN_SQUARE:
+					if (expectOperand) {
+						throw notEnoughOperands (Operator.elementAt);
+					} else if (lexer.kind (i + 1) == Lexer.CLOSE_SQUARE) {
+						throw new BadExpressionException ("Empty brackets at " + lexer.start (i) + " in " + text);
+					}
+					reduce (Operator.elementAt.priority);
+					pushOperator (SQUARE);
+					expectOperand = true;
+					break;
+				case Lexer.OPERATOR:
+					op = (Operator) lexer.literal (i);
+					if (expectOperand) {
+						if (op == Operator.diff) {
+							op = Operator.neg;
+						} else if (op.binaryOp != null) {
+							throw notEnoughOperands (op);
+						}
+						pushOperator (op);
+					} else if (op.binaryOp == null) {
+						throw missingOperator (i);
+					} else {
+						reduce (op.priority);
+						if (op.lazyOp != null && decides (op, operands[nOperands - 1])) {
+							dead++;
+						}
+						pushOperator (op);
+						expectOperand = true;
+					}
+					break;
+				default: // Comma or closing bracket
+					if (expectOperand) {
+						if (nOperators > 0 && operators[nOperators - 1] instanceof Operator) {
+							throw notEnoughOperands ((Operator) operators[nOperators - 1]);
+						}
+						throw new BadExpressionException ("Error while parsing expression at " + lexer.start (i) + " in " + text);
+					}
+					reduce (Integer.MIN_VALUE);
+					group = nOperators > 0 ? operators[nOperators - 1] : null;
+					if (kind == Lexer.COMMA) {
+						if (group instanceof Call == false) {
+							throw new UnrecognizedTokenException ("Unrecognized token at " + lexer.start (i) + " in " + text);
+						}
+						Call call = (Call) group;
+						if (nOperands - call.base >= call.maxParams) {
+							throw new BadExpressionException ("Too many parameters for command " + call.fun + " at " + lexer.start (i) + " in " + text);
+						}
+						expectOperand = true;
+						break;
+					}
+					nOperators--;
+					if (kind == Lexer.CLOSE_SQUARE) {
+						Expression index = operands[--nOperands];
+						Expression array = operands[--nOperands];
+						pushOperand (join (Operator.elementAt, array, index));
+					} else if (group instanceof Call) {
+						Call call = (Call) group;
+						int size = nOperands - call.base;
+						Expression[] params = new Expression[size];
+						System.arraycopy (operands, call.base, params, 0, size);
+						nOperands = call.base;
+						pushOperand (buildFunction (call.fun, params));
+					}
+			}
+		}
+
+		if (constant) {
+			throw new BadExpressionException ("Misplaced token \"const\"");
+		} else if (expectOperand) {
+			throw notEnoughOperands ((Operator) operators[nOperators - 1]);
+		}
+		reduce (Integer.MIN_VALUE);
+		Expression result = operands[0];
+		operands[0] = null;
+		return result;
+	}
+
+
+
+	/**
+	 * Get the names of the variables used in the last parsed expression
+	 *
+	 * @return The names of the variables, or null if there are none
+	 */
+	List <String> getVariables () {
+		return variables;
+	}
+
+
+	/**
+	 * Get the names of the variables declared as "const" in the last parsed expression.
+	 * The declarations must be validated with {@link SymbolTable#declareConstant(String, int)} in line order.
+	 *
+	 * @return The names of the variables, or null if there are none
+	 */
+	List <String> getConstants () {
+		return constants;
+	}
+
+
+
+	/**
+	 * Search a value with the given name. If no value nor variable exists, create a new Variable.
+	 *
+	 * @param name The name
+	 * @param constant If true, the variable is declared as "const"
+	 * @param index The index of the token
+	 * @return The (new) value/variable associated to the given name
+	 * @throws BadExpressionException If the name is preceded by "const" but it's not a new variable
+	 */
+	private Value getValue (String name, boolean constant, int index) throws BadExpressionException {
+		switch (name) {
+			case "null":
+				if (constant) {
+					throw new BadExpressionException ("Misplaced token \"const\"");
+				}
+				return Value.Null;
+			case "true":
+				if (constant) {
+					throw new BadExpressionException ("Misplaced token \"const\"");
+				}
+				return Value.True;
+			case "false":
+				if (constant) {
+					throw new BadExpressionException ("Misplaced token \"const\"");
+				}
+				return Value.False;
+		}
+
+		if (constant) {
+			for (int i = 0; i < index; i++) {
+				if (lexer.kind (i) == Lexer.NAME && lexer.text (i).equals (name)) {
+					throw new BadExpressionException ("Misplaced token \"const\"");
+				}
+			}
+			if (constants == null) {
+				constants = new ArrayList<> (1);
+			}
+			constants.add (name);
+		}
+		if (variables == null) {
+			variables = new ArrayList<> (4);
+		}
+		variables.add (name);
+		return symbols.get (name, line);
+	}
+
+
+
+	/**
+	 * Apply all operators on top of the stack with priority greater or equal than the given one
+	 *
+	 * @param priority The min priority
+	 * @throws ExecutionException If an error occur while calculating a constant expression
+	 */
+	private void reduce (int priority) throws ExecutionException {
+		Object top;
+		Operator oper;
+		while (nOperators > 0 && (top = operators[nOperators - 1]) instanceof Operator && (oper = (Operator) top).priority >= priority) {
+			nOperators--;
+			if (oper.binaryOp == null) {
+				operands[nOperands - 1] = join (oper, operands[nOperands - 1]);
+			} else {
+				Expression rExpr = operands[--nOperands];
+				if (oper.lazyOp != null && decides (oper, operands[nOperands - 1])) {
+					dead--;
+				}
+				operands[nOperands - 1] = join (oper, operands[nOperands - 1], rExpr);
+			}
+		}
+	}
+
+
+	/**
+	 * Join an unary operator and its operand into a new expression
+	 *
+	 * @param oper The operator
+	 * @param rExpr The operand
+	 * @return The new expression, or a constant value if the operand is constant
+	 * @throws ExecutionException If an error occur while calculating a constant expression
+	 */
+	private Expression join (Operator oper, Expression rExpr) throws ExecutionException {
+		if (rExpr instanceof Constant && dead == 0) {
+			return oper.unaryOp.eval (rExpr.eval ());
+		}
+		return new UnaryNode (oper, rExpr);
+	}
+
+
+	/**
+	 * Join a binary operator and its operands into a new expression
+	 *
+	 * @param oper The operator
+	 * @param lExpr The left operand
+	 * @param rExpr The right operand
+	 * @return The new expression, or a constant value if both operands are constant or if the left operand decides the result of a logic operator
+	 * @throws ExecutionException If an error occur while calculating a constant expression
+	 */
+	private Expression join (Operator oper, Expression lExpr, Expression rExpr) throws ExecutionException {
+		if (oper.lazyOp != null && decides (oper, lExpr)) {
+			return oper.lazyOp.eval (lExpr, rExpr); // The right operand is dead
+		} else if (lExpr instanceof Constant && rExpr instanceof Constant && dead == 0) {
+			return oper.binaryOp.eval (lExpr.eval (), rExpr.eval ());
+		} else if (oper.lazyOp != null) {
+			return new LazyNode (oper, lExpr, rExpr);
+		} else if (oper == Operator.elementAt) {
+			return new ElementAtNode (lExpr, rExpr);
+		} else if (AssignNode.isAssignment (oper)) {
+			return new AssignNode (oper, lExpr, rExpr);
+		}
+		return new BinaryNode (oper, lExpr, rExpr);
+	}
+
+
+	/**
+	 * Check if the left operand of a logic operator decides the result, so the right operand is never evaluated
+	 *
+	 * @param oper The operator
+	 * @param lExpr The left operand
+	 * @return true if the left operand is a constant which decides the result
+	 */
+	private static boolean decides (Operator oper, Expression lExpr) {
+		if (lExpr instanceof Constant == false) {
+			return false;
+		}
+		return oper == Operator.and ? !((Value) lExpr).isTrue () : oper == Operator.or && ((Value) lExpr).isTrue ();
+	}
+
+
+	/**
+	 * Build the expression which calls the given function
+	 *
+	 * @param fun The command
+	 * @param params The parameters
+	 * @return The expression, or a constant value if the function result is constant and all parameters are constant
+	 * @throws BadExpressionException If there are too few parameters
+	 * @throws ExecutionException If an error occur while calculating a constant expression
+	 */
+	private Expression buildFunction (STDFunction fun, Expression[] params) throws BadExpressionException, ExecutionException {
+		final int size = params.length;
+		if (size < fun.getMinParams ()) {
+			throw new BadExpressionException ("Too few parameters for command " + fun);
+		}
+		CONSTANT: {
+			if (fun.isConstantResult () && dead == 0) {
+				for (Expression expr : params) {
+					if (expr instanceof Constant == false) { // All parameters constants or nothing
+						break CONSTANT;
+					}
+				}
+				Value[] values = new Value[size];
+				for (int i = 0; i < size; i++) {
+					values[i] = (Value) params[i];
+				}
+				return fun.getFunctionCode ().execute (values);
+			}
+		}
+
+		return new CallNode (fun, params);
+	}
+
+
+
+	private void pushOperand (Expression expression) {
+		if (nOperands == operands.length) {
+			Expression[] newOperands = new Expression[nOperands << 1];
+			System.arraycopy (operands, 0, newOperands, 0, nOperands);
+			operands = newOperands;
+		}
+		operands[nOperands++] = expression;
+	}
+
+
+	private void pushOperator (Object operator) {
+		if (nOperators == operators.length) {
+			Object[] newOperators = new Object[nOperators << 1];
+			System.arraycopy (operators, 0, newOperators, 0, nOperators);
+			operators = newOperators;
+		}
+		operators[nOperators++] = operator;
+	}
+
+
+	private BadExpressionException missingOperator (int index) {
+		return new BadExpressionException ("Missing operator at " + lexer.start (index) + " in " + lexer.getText ());
+	}
+
+
+	private static BadExpressionException notEnoughOperands (Operator oper) {
+		return new BadExpressionException ("Not enough operands for operator " + oper);
+	}
+
+
+
+	/**
+	 * Marks an open function call in the operators stack
+	 *
+	 * @author MarcoForlini
+	 */
+	private static final class Call {
+
+		/** The function */
+		final STDFunction	fun;
+		/** The number of operands in the stack before the first parameter */
+		final int			base;
+		/** The max number of parameters */
+		final int			maxParams;
+
+		Call (STDFunction fun, int base) {
+			this.fun = fun;
+			this.base = base;
+			maxParams = (fun.getOptParams () >= 0) ? fun.getMinParams () + fun.getOptParams () : Integer.MAX_VALUE;
+		}
+	}
+
+}
@@ -0,0 +1,258 @@
+package compiler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import instruction.Instruction;
+
+
+/**
+ * Records where a {@link Program} spends its time: for each instruction, how many times it's executed, the nanoseconds spent executing it and
+ * how many times it fails. The counts are grouped by source line in the {@link #getLines() lines} of the profile, which can be printed as a
+ * {@link #report(int) report} of the hottest lines or exported as CSV by {@link #export(Appendable)}.
+ * <p>
+ * A program records its executions with {@link Program#run()} into the profiler set by {@link Program#setProfiler(Profiler)}, adding them to
+ * the counts of the previous executions until the profiler is {@link #reset()}. The programs without a profiler execute their instructions
+ * without measuring them, so they pay nothing. The time of an instruction includes the time spent reading the clock, about the same for each
+ * instruction: the lines executed many times look a bit slower than they are, but their order doesn't change. The compiled engines are not
+ * profiled, since their operations don't match the instructions.
+ * <p>
+ * A profiler records a single program, and it must be used by one thread at a time, like the program itself.
+ *
+ * @author MarcoForlini
+ */
+public final class Profiler {
+
+	/**
+	 * The counts of a source line: the sum of the counts of its instructions
+	 *
+	 * @author MarcoForlini
+	 */
+	public static final class Line {
+
+		private final int		lineNumber;
+		private final String	source;
+		private long			count;
+		private long			nanos;
+		private long			exceptions;
+
+
+
+		private Line (int lineNumber, String source) {
+			this.lineNumber = lineNumber;
+			this.source = source;
+		}
+
+
+
+		/**
+		 * Get the number of the line in the source code
+		 *
+		 * @return The line number, from 1
+		 */
+		public int getLineNumber () {
+			return lineNumber;
+		}
+
+
+		/**
+		 * Get the text of the line
+		 *
+		 * @return The text, or an empty string if the instructions have been added by the compiler
+		 */
+		public String getSource () {
+			return source;
+		}
+
+
+		/**
+		 * Get the number of times the instructions of the line have been executed
+		 *
+		 * @return The number of executions
+		 */
+		public long getCount () {
+			return count;
+		}
+
+
+		/**
+		 * Get the time spent executing the instructions of the line
+		 *
+		 * @return The time, in nanoseconds
+		 */
+		public long getNanos () {
+			return nanos;
+		}
+
+
+		/**
+		 * Get the number of times an instruction of the line has failed
+		 *
+		 * @return The number of exceptions
+		 */
+		public long getExceptions () {
+			return exceptions;
+		}
+
+
+		@Override
+		public String toString () {
+			return lineNumber + " : " + source + " [count=" + count + ", nanos=" + nanos + ", exceptions=" + exceptions + "]";
+		}
+
+	}
+
+	/** The lines of the profile: the slowest first, then in source order */
+	private static final Comparator <Line>	HOTTEST	= Comparator.comparingLong (Line::getNanos).reversed ()
+		.thenComparingInt (Line::getLineNumber);
+
+	/** The instructions of the program, or null before the first execution */
+	private List <Instruction>				instructions;
+	private long[]							counts		= new long[0];
+	private long[]							nanos		= new long[0];
+	private long[]							exceptions	= new long[0];
+
+
+
+	/**
+	 * Prepare the counts for an execution of a program
+	 *
+	 * @param instructions The instructions of the program
+	 * @throws IllegalStateException If the profiler has recorded another program
+	 */
+	void attach (List <Instruction> instructions) {
+		if (this.instructions == null) {
+			this.instructions = instructions;
+			counts = new long[instructions.size ()];
+			nanos = new long[instructions.size ()];
+			exceptions = new long[instructions.size ()];
+		} else if (this.instructions != instructions) {
+			throw new IllegalStateException ("The profiler has recorded another program");
+		}
+	}
+
+
+	/**
+	 * Record an execution of an instruction
+	 *
+	 * @param instruction The index of the instruction
+	 * @param time The time spent, in nanoseconds
+	 */
+	void record (int instruction, long time) {
+		counts[instruction]++;
+		nanos[instruction] += time;
+	}
+
+
+	/**
+	 * Record an execution of an instruction which has failed
+	 *
+	 * @param instruction The index of the instruction
+	 * @param time The time spent, in nanoseconds
+	 */
+	void fail (int instruction, long time) {
+		record (instruction, time);
+		exceptions[instruction]++;
+	}
+
+
+	/**
+	 * Forget all the executions recorded. The profiler can then record another program.
+	 */
+	public void reset () {
+		instructions = null;
+		counts = nanos = exceptions = new long[0];
+	}
+
+
+	/**
+	 * Get the total time spent executing the instructions
+	 *
+	 * @return The time, in nanoseconds
+	 */
+	public long getTotalNanos () {
+		return Arrays.stream (nanos).sum ();
+	}
+
+
+	/**
+	 * Get the counts of the lines which have been executed
+	 *
+	 * @return A new list of the lines, the slowest first
+	 */
+	public List <Line> getLines () {
+		Map <Integer, Line> lines = new TreeMap<> ();
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] == 0) {
+				continue;
+			}
+			Instruction instruction = instructions.get (i);
+			Line line = lines.get (instruction.getLineNumber ());
+			if (line == null) {
+				String source = instruction.getLine ();
+				line = new Line (instruction.getLineNumber (), source != null ? source.trim () : "");
+				lines.put (line.lineNumber, line);
+			}
+			line.count += counts[i];
+			line.nanos += nanos[i];
+			line.exceptions += exceptions[i];
+		}
+		List <Line> list = new ArrayList<> (lines.values ());
+		list.sort (HOTTEST);
+		return list;
+	}
+
+
+	/**
+	 * Create a table of the slowest lines, for a human reader
+	 *
+	 * @param limit The maximum number of lines, or 0 for all of them
+	 * @return The report
+	 */
+	public String report (int limit) {
+		List <Line> lines = getLines ();
+		if (limit > 0 && lines.size () > limit) {
+			lines = lines.subList (0, limit);
+		}
+		double total = Math.max (getTotalNanos (), 1);
+		StringBuilder sb = new StringBuilder ();
+		sb.append (String.format (Locale.ROOT, "%6s %12s %12s %7s %10s %10s  %s%n", "Line", "Count", "Time (ms)", "Time %", "Avg (ns)", "Exceptions", "Source"));
+		for (Line line : lines) {
+			sb.append (String.format (Locale.ROOT, "%6d %12d %12.3f %6.2f%% %10d %10d  %s%n", line.lineNumber, line.count, line.nanos / 1e6,
+				line.nanos * 100 / total, line.nanos / line.count, line.exceptions, line.source));
+		}
+		return sb.toString ();
+	}
+
+
+	/**
+	 * Write the counts of all the lines executed as CSV, the slowest first: a header, then a row for each line with its number, count,
+	 * nanoseconds, exceptions and source. The source is quoted.
+	 *
+	 * @param out Where to write
+	 * @throws IOException If the output can't be written
+	 */
+	public void export (Appendable out) throws IOException {
+		out.append ("line,count,nanos,exceptions,source\n");
+		for (Line line : getLines ()) {
+			out.append (Integer.toString (line.lineNumber)).append (',');
+			out.append (Long.toString (line.count)).append (',');
+			out.append (Long.toString (line.nanos)).append (',');
+			out.append (Long.toString (line.exceptions)).append (',');
+			out.append ('"').append (line.source.replace ("\"", "\"\"")).append ("\"\n");
+		}
+	}
+
+
+	@Override
+	public String toString () {
+		return report (10);
+	}
+
+}
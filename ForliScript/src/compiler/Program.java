@@ -1,9 +1,13 @@
 package compiler;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import expressions.Primitive;
 import expressions.ValNumber;
 import expressions.ValString;
 import expressions.Value;
@@ -12,29 +16,120 @@ import instruction.Instruction;
 
 /**
  * Represents a program ready to be runned
+ * <p>
+ * Each variable has a slot: a dense index assigned when the program is compiled or loaded (in alphabetical order) or when the host adds a
+ * variable. The variables of the program are stored in a frame indexed by slot, which holds the values of {@link Engine#TREE}: the host can
+ * resolve a name once with {@link #slot(String)} and then bind values by slot, without hashing or validating the name again.
+ * The compiled code uses the same numbering: its first registers are the variables in slot order.
+ * <p>
+ * A program can only be executed by a thread at a time, since the execution modifies its variables. To execute it on many threads, compile it
+ * once with {@link #compile(Engine)} and give each execution its own {@link ExecutionContext}; to execute it over many records, use a
+ * {@link BatchRunner}.
+ * <p>
+ * Read, Print and Println use the {@link Input} and the {@link Output} of the program (or of the context), the standard ones unless they're
+ * changed with {@link #setInput(Input)} and {@link #setOutput(Output)}.
+ * <p>
+ * With a {@link Budget}, set by {@link #setBudget(Budget)}, an execution which runs too long fails with a {@link BudgetExceededException}.
+ * The budget is checked only when a Loop jumps back to its While, so the other instructions don't pay for it.
+ * <p>
+ * With a {@link Profiler}, set by {@link #setProfiler(Profiler)}, {@link #run()} measures each instruction it executes.
  * @author MarcoForlini
  */
 public class Program implements Serializable {
 	
 	private static final long serialVersionUID = 2000874369234491493L;
 	
+	/** The operations on the variables reserved to the compiler and the runtime, given by {@link Variable} when it's loaded */
+	static Variable.Access variableAccess;
+	
 	/** The list of instructions */
 	private final List<Instruction> instructions;
-	private final Map<String, Variable> variables;
 	private final int n;
 
 	/** The current instruction */
 	private int programCounter = 0;
 
+	/** The frame: the variables by slot, which hold the values of the tree engine */
+	private Variable[] slots;
+	/** The number of used slots */
+	private int nSlots;
+	/** The slot of each variable */
+	private final Map<String, Integer> slotIndex;
+
+	/** The parsed lines, used to recompile the program. They're not saved with the program. */
+	transient ParsedLine[] parsedLines;
+
+	/** The program compiled into bytecode, created on the first run with {@link Engine#BYTECODE} */
+	private transient Bytecode bytecode;
+	/** The bytecode translated into a JVM class, created on the first run with {@link Engine#JVM} */
+	private transient JvmProgram jvmProgram;
+	/** True if the bytecode can't be translated into a JVM class */
+	private transient boolean jvmFailed;
+	/** The program compiled for each engine, created by {@link #compile(Engine)} */
+	private transient CompiledProgram compiledBytecode, compiledJvm;
+	/** The channels of Read, Print and Println: the standard ones if null */
+	private transient Input input;
+	private transient Output output;
+	/** The limits of the executions, or null */
+	private transient Budget budget;
+	/** The profiler which records the executions, or null */
+	private transient Profiler profiler;
+
 	/**
-	 * Create a new {@link Program}
+	 * Create a new {@link Program}, and assign the slots to the variables, sorted by name
 	 * @param instructions	The list of instructions
 	 * @param variables		The map of variables
 	 */
 	Program(List<Instruction> instructions, Map<String, Variable> variables){
 		this.instructions = instructions;
-		this.variables = variables;
 		n = instructions.size();
+		String[] names = variables.keySet().toArray(new String[variables.size()]);
+		Arrays.sort(names);
+		slots = new Variable[Math.max(names.length, 4)];
+		slotIndex = new HashMap<>(names.length * 4 / 3 + 1);
+		for (String name : names){
+			slotIndex.put(name, nSlots);
+			slots[nSlots++] = variables.get(name);
+		}
+	}
+	
+	/**
+	 * Receive the operations on the variables reserved to the compiler and the runtime.
+	 * It's called by {@link Variable} when it's loaded: the other calls are ignored.
+	 * @param access	The operations
+	 */
+	public static void grant(Variable.Access access){
+		if (variableAccess == null){
+			variableAccess = access;
+		}
+	}
+	
+	/**
+	 * Get the list of instructions
+	 * @return	The list of instructions
+	 */
+	List<Instruction> getInstructions(){
+		return instructions;
+	}
+	
+	/**
+	 * Get the map of variables
+	 * @return	A new map which contains the variables in slot order
+	 */
+	Map<String, Variable> getVariables(){
+		Map<String, Variable> variables = new LinkedHashMap<>(nSlots * 4 / 3 + 1);
+		for (int i = 0; i < nSlots; i++){
+			variables.put(slots[i].name, slots[i]);
+		}
+		return variables;
+	}
+	
+	/**
+	 * Get the variables in slot order
+	 * @return	A new array which contains the variable of each slot
+	 */
+	Variable[] getSlots(){
+		return Arrays.copyOf(slots, nSlots);
 	}
 	
 	/**
@@ -44,16 +139,182 @@ public class Program implements Serializable {
 	public void run() throws ExecutionException {
 		programCounter = 0;
 		Instruction instruction = null;
+		Budget.Meter meter = budget != null ? budget.meter() : null;
+		try {
+			if (profiler != null){
+				runProfiled(profiler, meter);
+				return;
+			}
+			while (programCounter < n){
+				int current = programCounter;
+				instruction = instructions.get(current);
+				try{
+					if (instruction.execute(this)){
+						programCounter++;
+					}
+				} catch (Exception e){
+					throw new ExecutionException("Error while executing instruction:\n\t\t" + instruction, e);
+				}
+				if (meter != null && programCounter <= current){ // A loop: count all its instructions
+					meter.backEdge(current - programCounter + 1);
+				}
+			}
+		} finally {
+			ExecutionContext.endRun(getOutput());
+		}
+	}
+	
+	/**
+	 * Execute the list of instructions of the program, recording each one into the profiler
+	 * @param profiler	The profiler
+	 * @param meter		The count of the budget, or null
+	 * @throws ExecutionException	If the program contains an error
+	 */
+	private void runProfiled(Profiler profiler, Budget.Meter meter) throws ExecutionException {
+		profiler.attach(instructions);
 		while (programCounter < n){
-			instruction = instructions.get(programCounter);
+			int current = programCounter;
+			Instruction instruction = instructions.get(current);
+			long start = System.nanoTime();
 			try{
-				if (instruction.execute(this)){
+				boolean advance = instruction.execute(this);
+				profiler.record(current, System.nanoTime() - start);
+				if (advance){
 					programCounter++;
 				}
 			} catch (Exception e){
+				profiler.fail(current, System.nanoTime() - start);
 				throw new ExecutionException("Error while executing instruction:\n\t\t" + instruction, e);
 			}
+			if (meter != null && programCounter <= current){
+				meter.backEdge(current - programCounter + 1);
+			}
+		}
+	}
+	
+	/**
+	 * Execute the program with the given engine
+	 * @param engine	The engine
+	 * @throws ExecutionException	If the program contains an error
+	 */
+	public void run(Engine engine) throws ExecutionException {
+		if (engine == Engine.TREE){
+			run();
+			return;
+		}
+		CompiledProgram compiled = compile(engine);
+		ExecutionContext context = new ExecutionContext(compiled, compiled.bytecode.values); // The context of the program: its own variables
+		context.input = getInput();
+		context.output = getOutput();
+		context.budget = budget;
+		context.startBudget();
+		try {
+			compiled.run(context);
+		} finally {
+			ExecutionContext.endRun(context.output);
+		}
+	}
+	
+	/**
+	 * Get the input read by Read when the program is executed by {@link #run()} or {@link #run(Engine)}
+	 * @return	The input, {@link Input#STANDARD} unless it's changed
+	 */
+	public Input getInput(){
+		return input != null ? input : Input.STANDARD;
+	}
+	
+	/**
+	 * Set the input read by Read when the program is executed by {@link #run()} or {@link #run(Engine)}.
+	 * The contexts of a compiled program have their own input.
+	 * @param input	The input, or null for {@link Input#STANDARD}
+	 */
+	public void setInput(Input input){
+		this.input = input;
+	}
+	
+	/**
+	 * Get the output written by Print and Println when the program is executed by {@link #run()} or {@link #run(Engine)}
+	 * @return	The output, {@link Output#STANDARD} unless it's changed
+	 */
+	public Output getOutput(){
+		return output != null ? output : Output.STANDARD;
+	}
+	
+	/**
+	 * Set the output written by Print and Println when the program is executed by {@link #run()} or {@link #run(Engine)}.
+	 * The contexts of a compiled program have their own output.
+	 * @param output	The output, or null for {@link Output#STANDARD}
+	 */
+	public void setOutput(Output output){
+		this.output = output;
+	}
+	
+	/**
+	 * Get the limits of the executions started by {@link #run()} or {@link #run(Engine)}
+	 * @return	The budget, or null if there are no limits
+	 */
+	public Budget getBudget(){
+		return budget;
+	}
+	
+	/**
+	 * Set the limits of the executions started by {@link #run()} or {@link #run(Engine)}.
+	 * The contexts of a compiled program have their own budget.
+	 * @param budget	The budget, or null for no limits
+	 */
+	public void setBudget(Budget budget){
+		this.budget = budget;
+	}
+	
+	/**
+	 * Get the profiler which records the executions of {@link #run()}
+	 * @return	The profiler, or null if the executions are not profiled
+	 */
+	public Profiler getProfiler(){
+		return profiler;
+	}
+	
+	/**
+	 * Set the profiler which records the executions of {@link #run()} and of {@link #run(Engine)} with {@link Engine#TREE}.
+	 * The compiled engines are not profiled.
+	 * @param profiler	The profiler, or null to stop profiling
+	 */
+	public void setProfiler(Profiler profiler){
+		this.profiler = profiler;
+	}
+	
+	/**
+	 * Compile the program for the given engine. The compiled program can be executed by many threads at the same time, each one with its own
+	 * {@link ExecutionContext}, and it's created only once for each engine.
+	 * @param engine	The engine: {@link Engine#BYTECODE} or {@link Engine#JVM} (which interprets the bytecode if the program can't be translated)
+	 * @return			The compiled program
+	 * @throws ExecutionException	If the program can't be compiled
+	 * @throws IllegalArgumentException	If the engine is {@link Engine#TREE}, which executes the instructions and the variables of the program itself
+	 */
+	public synchronized CompiledProgram compile(Engine engine) throws ExecutionException {
+		if (engine == Engine.TREE){
+			throw new IllegalArgumentException("The engine " + engine + " can't execute a compiled program");
+		}
+		if (bytecode == null){
+			bytecode = Bytecode.compile(this);
+		}
+		if (engine == Engine.JVM && jvmProgram == null && !jvmFailed){
+			try {
+				jvmProgram = JvmProgram.translate(bytecode);
+			} catch (ReflectiveOperationException | RuntimeException | LinkageError e){
+				jvmFailed = true; // Too large or not supported: interpret the bytecode
+			}
+		}
+		if (jvmProgram != null && engine == Engine.JVM){
+			if (compiledJvm == null){
+				compiledJvm = new CompiledProgram(this, bytecode, jvmProgram);
+			}
+			return compiledJvm;
 		}
+		if (compiledBytecode == null){
+			compiledBytecode = new CompiledProgram(this, bytecode, null);
+		}
+		return compiledBytecode;
 	}
 	
 	/**
@@ -73,12 +334,13 @@ public class Program implements Serializable {
 
 
 	/**
-	 * Assign the given value to the given variable. If no variable exists with the given name, it will be created.
+	 * Get the slot of the given variable. If no variable exists with the given name, it will be created.
+	 * The slot never changes, so it can be resolved once and used to bind the variable many times.
 	 * @param name	The name
-	 * @param value	The new value
-	 * @throws ExecutionException	If the variable is constant
+	 * @return		The slot of the variable
+	 * @throws ExecutionException	If the name is not valid
 	 */
-	public void setVariable(String name, float value) throws ExecutionException{
+	public int slot(String name) throws ExecutionException{
 		if (name.isEmpty()){
 			throw new ExecutionException("Variable must have a name");
 		} else if (name.equals("null")){
@@ -88,13 +350,84 @@ public class Program implements Serializable {
 		if (!Character.isLetter(c) || Character.isUpperCase(c)) {
 			throw new ExecutionException("Variable name must start with a lower case letter");
 		}
-		Variable variable = variables.get(name);
-		if (variable != null){
-			variable.set(ValNumber.getNumber(value));
-		} else {
-			variable = new Variable(name, ValNumber.getNumber(value), false);
-			variables.put(name, variable);
+		Integer slot = slotIndex.get(name);
+		if (slot != null){
+			return slot;
 		}
+		Variable variable = new Variable(name, Value.Null, false);
+		if (nSlots == slots.length){
+			slots = Arrays.copyOf(slots, nSlots << 1);
+		}
+		slotIndex.put(name, nSlots);
+		slots[nSlots] = variable;
+		return nSlots++;
+	}
+	
+	/**
+	 * Get the number of slots
+	 * @return	The number of variables
+	 */
+	public int getSlotCount(){
+		return nSlots;
+	}
+	
+	/**
+	 * Assign the given value to the variable in the given slot
+	 * @param slot	The slot, returned by {@link #slot(String)}
+	 * @param value	The new value
+	 * @throws ExecutionException	If the variable is constant
+	 * @throws IndexOutOfBoundsException	If the slot doesn't exist
+	 */
+	public void setVariable(int slot, float value) throws ExecutionException{
+		variable(slot).set(ValNumber.getNumber(value));
+	}
+	
+	/**
+	 * Assign the given text to the variable in the given slot
+	 * @param slot	The slot, returned by {@link #slot(String)}
+	 * @param text	The new text
+	 * @throws ExecutionException	If the variable is constant
+	 * @throws IndexOutOfBoundsException	If the slot doesn't exist
+	 */
+	public void setVariable(int slot, String text) throws ExecutionException{
+		variable(slot).set(new ValString(text));
+	}
+	
+	/**
+	 * Assign null to the variable in the given slot
+	 * @param slot	The slot, returned by {@link #slot(String)}
+	 * @throws ExecutionException	If the variable is constant
+	 * @throws IndexOutOfBoundsException	If the slot doesn't exist
+	 */
+	public void setVariable(int slot) throws ExecutionException{
+		variable(slot).set(Value.Null);
+	}
+	
+	/**
+	 * Get the value of the variable in the given slot
+	 * @param slot	The slot, returned by {@link #slot(String)}
+	 * @return		The value
+	 * @throws IndexOutOfBoundsException	If the slot doesn't exist
+	 */
+	public Primitive getValue(int slot){
+		return variable(slot).getValue();
+	}
+	
+	private Variable variable(int slot){
+		if (slot >= nSlots){
+			throw new IndexOutOfBoundsException("Slot " + slot + " out of bounds for length " + nSlots);
+		}
+		return slots[slot];
+	}
+	
+	/**
+	 * Assign the given value to the given variable. If no variable exists with the given name, it will be created.
+	 * @param name	The name
+	 * @param value	The new value
+	 * @throws ExecutionException	If the variable is constant
+	 */
+	public void setVariable(String name, float value) throws ExecutionException{
+		setVariable(slot(name), value);
 	}
 	
 	/**
@@ -104,22 +437,7 @@ public class Program implements Serializable {
 	 * @throws ExecutionException	If the variable is constant
 	 */
 	public void setVariable(String name, String text) throws ExecutionException{
-		if (name.isEmpty()){
-			throw new ExecutionException("Variable must have a name");
-		} else if (name.equals("null")){
-			throw new ExecutionException("Variable can't have name \"null\"");
-		}
-		char c = name.charAt(0);
-		if (!Character.isLetter(c) || Character.isUpperCase(c)) {
-			throw new ExecutionException("Variable name must start with a lower case letter");
-		}
-		Variable variable = variables.get(name);
-		if (variable != null){
-			variable.set(new ValString(text));
-		} else {
-			variable = new Variable(name, new ValString(text), false);
-			variables.put(name, variable);
-		}
+		setVariable(slot(name), text);
 	}
 	
 	/**
@@ -128,21 +446,7 @@ public class Program implements Serializable {
 	 * @throws ExecutionException	If the variable is constant
 	 */
 	public void setVariable(String name) throws ExecutionException{
-		if (name.isEmpty()){
-			throw new ExecutionException("Variable must have a name");
-		} else if (name.equals("null")){
-			throw new ExecutionException("Variable can't have name \"null\"");
-		}
-		char c = name.charAt(0);
-		if (!Character.isLetter(c) || Character.isUpperCase(c)) {
-			throw new ExecutionException("Variable name must start with a lower case letter");
-		}
-		Variable variable = variables.get(name);
-		if (variable != null){
-			variable.set(Value.Null);
-		} else {
-			variables.put(name, new Variable(name, Value.Null, false));
-		}
+		setVariable(slot(name));
 	}
 	
 }
@@ -0,0 +1,164 @@
+package compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * A single file which contains many compiled programs, each one identified by a name.
+ * <p>
+ * The file contains the header (like a compiled program, but with a different magic number), a constant pool shared by all programs,
+ * the index (for each program: the index of its name in the pool, the position and the length of its body) and the bodies of the programs,
+ * in the format of {@link ProgramFile}.
+ * <p>
+ * The archive is memory-mapped when opened and only the index and the position of each string of the pool are read: each program is read
+ * when it's requested by name, decoding only the strings it uses.
+ *
+ * @author MarcoForlini
+ */
+public final class ProgramArchive {
+
+	/** The first 4 bytes of an archive: "FOSA" */
+	static final int MAGIC = 0x464F5341;
+
+
+	private final ByteBuffer				buffer;
+	private final ProgramFile.Pool			pool;
+	private final Map <String, Section>		index;
+
+
+
+	/**
+	 * Create a new {@link ProgramArchive}
+	 *
+	 * @param buffer The content of the archive
+	 * @throws ProgramFormatException If the buffer doesn't contain a valid archive
+	 */
+	private ProgramArchive (ByteBuffer buffer) throws ProgramFormatException {
+		try {
+			ProgramFile.readHeader (buffer, MAGIC);
+			pool = ProgramFile.readPool (buffer);
+			int n = ProgramFile.readVarint (buffer);
+			index = new HashMap<> (n * 4 / 3 + 1);
+			for (int i = 0; i < n; i++) {
+				String name = pool.get (ProgramFile.readVarint (buffer));
+				index.put (name, new Section (ProgramFile.readVarint (buffer), ProgramFile.readVarint (buffer)));
+			}
+			this.buffer = buffer.slice ();
+		} catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new ProgramFormatException ("Truncated or corrupted archive", e);
+		}
+	}
+
+
+
+	/**
+	 * Open an archive, mapping it into memory
+	 *
+	 * @param filePath The file path
+	 * @return The archive
+	 * @throws IOException If an any IO problems happens
+	 * @throws ProgramFormatException If the file doesn't contain a valid archive
+	 */
+	public static ProgramArchive open (String filePath) throws IOException {
+		try (FileChannel channel = FileChannel.open (Paths.get (filePath), StandardOpenOption.READ)) {
+			return new ProgramArchive (channel.map (FileChannel.MapMode.READ_ONLY, 0, channel.size ()));
+		}
+	}
+
+
+	/**
+	 * Write an archive with the given programs
+	 *
+	 * @param filePath The file path
+	 * @param programs The programs, by name
+	 * @param debug If true, save the source lines and their numbers, used in the error messages
+	 * @throws IOException If an any IO problems happens
+	 */
+	public static void write (String filePath, Map <String, Program> programs, boolean debug) throws IOException {
+		List <String> pool = new ArrayList<> ();
+		Map <String, Integer> poolIndex = new HashMap<> ();
+		ByteArrayOutputStream bodies = new ByteArrayOutputStream ();
+		ByteArrayOutputStream index = new ByteArrayOutputStream ();
+		ProgramFile.writeVarint (index, programs.size ());
+		for (Map.Entry <String, Program> entry : programs.entrySet ()) {
+			byte[] body = ProgramFile.writeBody (entry.getValue (), debug, pool, poolIndex);
+			ProgramFile.writeVarint (index, ProgramFile.intern (entry.getKey (), pool, poolIndex));
+			ProgramFile.writeVarint (index, bodies.size ());
+			ProgramFile.writeVarint (index, body.length);
+			bodies.write (body, 0, body.length);
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream (64 + index.size () + bodies.size ());
+		ProgramFile.writeHeader (out, MAGIC);
+		ProgramFile.writePool (out, pool);
+		index.writeTo (out);
+		bodies.writeTo (out);
+		Files.write (Paths.get (filePath), out.toByteArray ());
+	}
+
+
+
+	/**
+	 * Read a program from the archive. Each call returns a new program.
+	 *
+	 * @param name The name of the program
+	 * @return The program, or null if the archive doesn't contain a program with the given name
+	 * @throws ProgramFormatException If the program is not valid
+	 * @throws CompilatorException If an expression of the program contains an error
+	 */
+	public Program getProgram (String name) throws ProgramFormatException, CompilatorException {
+		Section section = index.get (name);
+		if (section == null) {
+			return null;
+		}
+		ByteBuffer body = buffer.duplicate ();
+		try {
+			body.limit (section.position + section.length).position (section.position);
+		} catch (IllegalArgumentException e) {
+			throw new ProgramFormatException ("Truncated or corrupted archive", e);
+		}
+		return ProgramFile.readBody (body, pool);
+	}
+
+
+	/**
+	 * Get the names of the programs in the archive
+	 *
+	 * @return The names of the programs
+	 */
+	public Set <String> getNames () {
+		return Collections.unmodifiableSet (index.keySet ());
+	}
+
+
+
+	/**
+	 * The position and the length of the body of a program
+	 *
+	 * @author MarcoForlini
+	 */
+	private static final class Section {
+
+		final int	position;
+		final int	length;
+
+		Section (int position, int length) {
+			this.position = position;
+			this.length = length;
+		}
+	}
+
+}
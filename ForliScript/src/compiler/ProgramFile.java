@@ -0,0 +1,832 @@
+package compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import expressions.Expression;
+import expressions.Operator;
+import expressions.Primitive;
+import expressions.STDFunction;
+import expressions.ValArray;
+import expressions.ValArrayConst;
+import expressions.ValBoolean;
+import expressions.ValNumber;
+import expressions.ValString;
+import expressions.Value;
+import expressions.Variable;
+import instruction.Instruction;
+import instruction.InstructionCheckpoint;
+import instruction.InstructionElse;
+import instruction.InstructionElseIf;
+import instruction.InstructionEndIf;
+import instruction.InstructionExpression;
+import instruction.InstructionIf;
+import instruction.InstructionJump;
+import instruction.InstructionLoop;
+import instruction.InstructionPrint;
+import instruction.InstructionPrintln;
+import instruction.InstructionRead;
+import instruction.InstructionReturn;
+import instruction.InstructionWhile;
+
+
+/**
+ * Reads and writes a {@link Program} in the binary format of the compiled files.
+ * <p>
+ * A file contains, in order:
+ * <ol>
+ * <li>The header: magic number, format version and compiler version</li>
+ * <li>The constant pool: every string used by the program (variable names, string constants and source lines), stored only once</li>
+ * <li>The flags of the program</li>
+ * <li>The symbol table: for each variable, the index of its name in the pool and its flags</li>
+ * <li>The instructions: for each one, the opcode, the expression tree (if any) and the jump destination (if any)</li>
+ * <li>The debug section (optional): the source line number and the index of the source line in the pool of each instruction</li>
+ * </ol>
+ * An expression tree is stored in prefix order: each {@link Node} is a tag followed by its operator or function and its children, and each
+ * leaf is a tag followed by the index of the variable in the symbol table, the float of a number, the index of a string in the pool or the
+ * elements of an array. The tree is built again from the nodes when the program is read, so the source lines are not parsed and they're
+ * only needed by the error messages.
+ * <p>
+ * All numbers after the header, except the floats, are unsigned variable-length integers, 7 bits per byte.
+ * <p>
+ * The sections after the pool are the body of the program: a {@link ProgramArchive} stores many bodies which share a single pool.
+ *
+ * @author MarcoForlini
+ */
+final class ProgramFile {
+
+	/** The first 4 bytes of a compiled file: "FOSC" */
+	static final int	MAGIC			= 0x464F5343;
+	/** The version of the format */
+	static final int	FORMAT_VERSION	= 3;
+
+	private static final int	FLAG_DEBUG	= 1;
+	private static final int	FLAG_CONST	= 1;
+
+	private static final int	EXPRESSION	= 0;
+	private static final int	IF			= 1;
+	private static final int	ELSE_IF		= 2;
+	private static final int	ELSE		= 3;
+	private static final int	END_IF		= 4;
+	private static final int	WHILE		= 5;
+	private static final int	LOOP		= 6;
+	private static final int	PRINT		= 7;
+	private static final int	PRINTLN		= 8;
+	private static final int	READ		= 9;
+	private static final int	RETURN		= 10;
+	private static final int	JUMP		= 11;
+	private static final int	CHECKPOINT	= 12;
+
+	/** The first token of the lines of each opcode, used to know which instructions have an expression */
+	private static final String[] KEYWORDS = { "", "If", "ElseIf", "Else", "EndIf", "While", "Loop", "Print", "Println", "Read", "Return", "Goto", "Checkpoint" };
+
+	private static final int	NONE		= 0;
+	private static final int	VARIABLE	= 1;
+	private static final int	NUMBER		= 2;
+	private static final int	STRING		= 3;
+	private static final int	TRUE		= 4;
+	private static final int	FALSE		= 5;
+	private static final int	NULL		= 6;
+	private static final int	ARRAY		= 7;
+	private static final int	CONST_ARRAY	= 8;
+	private static final int	UNARY		= 9;
+	private static final int	BINARY		= 10;
+	private static final int	LAZY		= 11;
+	private static final int	ASSIGN		= 12;
+	private static final int	ELEMENT_AT	= 13;
+	private static final int	CALL		= 14;
+
+	private static final Operator[]		OPERATORS	= Operator.values ();
+	private static final STDFunction[]	FUNCTIONS	= STDFunction.values ();
+
+
+	private ProgramFile () {}
+
+
+
+	/**
+	 * Write a program in the binary format
+	 *
+	 * @param program The program
+	 * @param debug If true, write the debug section
+	 * @return The bytes of the compiled file
+	 */
+	static byte[] write (Program program, boolean debug) {
+		Map <String, Integer> poolIndex = new HashMap<> ();
+		List <String> pool = new ArrayList<> ();
+		byte[] body = writeBody (program, debug, pool, poolIndex);
+		ByteArrayOutputStream out = new ByteArrayOutputStream (64 + body.length);
+		writeHeader (out, MAGIC);
+		writePool (out, pool);
+		out.write (body, 0, body.length);
+		return out.toByteArray ();
+	}
+
+
+	/**
+	 * Write the body of a program, adding its strings to the pool
+	 *
+	 * @param program The program
+	 * @param debug If true, write the debug section
+	 * @param pool The pool
+	 * @param poolIndex The index of each string in the pool
+	 * @return The bytes of the body
+	 */
+	static byte[] writeBody (Program program, boolean debug, List <String> pool, Map <String, Integer> poolIndex) {
+		List <Instruction> instructions = program.getInstructions ();
+		Map <String, Variable> variables = program.getVariables ();
+		ByteArrayOutputStream body = new ByteArrayOutputStream (16 + instructions.size () * 8);
+		body.write (debug ? FLAG_DEBUG : 0);
+		writeVarint (body, variables.size ());
+		Map <Variable, Integer> symbols = new IdentityHashMap<> (variables.size ());
+		for (Variable variable : variables.values ()) {
+			writeVarint (body, intern (variable.name, pool, poolIndex));
+			body.write (variable.isConstant () ? FLAG_CONST : 0);
+			symbols.put (variable, symbols.size ());
+		}
+		TreeWriter trees = new TreeWriter (body, symbols, pool, poolIndex);
+		writeVarint (body, instructions.size ());
+		for (Instruction instruction : instructions) {
+			int opcode = opcode (instruction);
+			body.write (opcode);
+			if (hasExpression (opcode)) {
+				trees.write (instruction.getExpression ());
+			}
+			switch (opcode) {
+				case IF:
+					writeVarint (body, ((InstructionIf) instruction).getFalseJump () + 1);
+					break;
+				case ELSE_IF:
+					writeVarint (body, ((InstructionElseIf) instruction).getFalseJump () + 1);
+					break;
+				case WHILE:
+					writeVarint (body, ((InstructionWhile) instruction).getFalseJump () + 1);
+					break;
+				case LOOP:
+					writeVarint (body, ((InstructionLoop) instruction).getJumpBack () + 1);
+					break;
+				case JUMP:
+					writeVarint (body, ((InstructionJump) instruction).getJump () + 1);
+					break;
+			}
+		}
+		if (debug) {
+			for (Instruction instruction : instructions) {
+				writeVarint (body, instruction.getLineNumber () - 1);
+				writeVarint (body, instruction.getLine () == null ? 0 : intern (instruction.getLine (), pool, poolIndex) + 1);
+			}
+		}
+		return body.toByteArray ();
+	}
+
+
+	/**
+	 * Write the header
+	 *
+	 * @param out The stream
+	 * @param magic The magic number
+	 */
+	static void writeHeader (ByteArrayOutputStream out, int magic) {
+		out.write (magic >>> 24);
+		out.write (magic >>> 16);
+		out.write (magic >>> 8);
+		out.write (magic);
+		out.write (FORMAT_VERSION >>> 8);
+		out.write (FORMAT_VERSION);
+		out.write (Compiler.VERSION >>> 24);
+		out.write (Compiler.VERSION >>> 16);
+		out.write (Compiler.VERSION >>> 8);
+		out.write (Compiler.VERSION);
+	}
+
+
+	/**
+	 * Write the pool
+	 *
+	 * @param out The stream
+	 * @param pool The pool
+	 */
+	static void writePool (ByteArrayOutputStream out, List <String> pool) {
+		writeVarint (out, pool.size ());
+		for (String string : pool) {
+			byte[] bytes = string.getBytes (StandardCharsets.UTF_8);
+			writeVarint (out, bytes.length);
+			out.write (bytes, 0, bytes.length);
+		}
+	}
+
+
+
+	/**
+	 * Read a program in the binary format, starting from the current position of the buffer
+	 *
+	 * @param buffer The buffer which contains the compiled file
+	 * @return The program
+	 * @throws ProgramFormatException If the buffer doesn't contain a valid program
+	 * @throws CompilatorException If an instruction of the program contains an error
+	 */
+	static Program read (ByteBuffer buffer) throws ProgramFormatException, CompilatorException {
+		try {
+			readHeader (buffer, MAGIC);
+			return readBody (buffer, readPool (buffer));
+		} catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new ProgramFormatException ("Truncated or corrupted program", e);
+		}
+	}
+
+
+	/**
+	 * Read and check the header
+	 *
+	 * @param buffer The buffer
+	 * @param magic The expected magic number
+	 * @throws ProgramFormatException If the header is not valid
+	 */
+	static void readHeader (ByteBuffer buffer, int magic) throws ProgramFormatException {
+		try {
+			if (buffer.getInt () != magic) {
+				throw new ProgramFormatException ("Not a compiled program");
+			} else if (buffer.getShort () != FORMAT_VERSION) {
+				throw new ProgramFormatException ("Unsupported format version");
+			} else if (buffer.getInt () != Compiler.VERSION) {
+				throw new ProgramFormatException ("Program compiled by a different version of the compiler");
+			}
+		} catch (BufferUnderflowException e) {
+			throw new ProgramFormatException ("Truncated or corrupted program", e);
+		}
+	}
+
+
+	/**
+	 * Read the pool. Only the position of each string is read: the strings are decoded when they are requested.
+	 *
+	 * @param buffer The buffer
+	 * @return The pool
+	 * @throws ProgramFormatException If the pool is not valid
+	 */
+	static Pool readPool (ByteBuffer buffer) throws ProgramFormatException {
+		try {
+			return new Pool (buffer);
+		} catch (BufferUnderflowException e) {
+			throw new ProgramFormatException ("Truncated or corrupted program", e);
+		}
+	}
+
+
+	/**
+	 * Read the body of a program
+	 *
+	 * @param buffer The buffer, positioned at the start of the body
+	 * @param pool The pool
+	 * @return The program
+	 * @throws ProgramFormatException If the body is not valid
+	 * @throws CompilatorException If an instruction of the program contains an error
+	 */
+	static Program readBody (ByteBuffer buffer, Pool pool) throws ProgramFormatException, CompilatorException {
+		try {
+			boolean debug = (buffer.get () & FLAG_DEBUG) != 0;
+
+			SymbolTable symbols = new SymbolTable (null);
+			Variable[] variables = new Variable[readVarint (buffer)];
+			List <Variable> constants = new ArrayList<> ();
+			for (int i = 0; i < variables.length; i++) {
+				variables[i] = symbols.get (pool.get (readVarint (buffer)), 0);
+				if ((buffer.get () & FLAG_CONST) != 0) {
+					constants.add (variables[i]);
+				}
+			}
+
+			int n = readVarint (buffer);
+			int[] opcodes = new int[n];
+			Expression[] expressions = new Expression[n];
+			int[] destinations = new int[n];
+			for (int i = 0; i < n; i++) {
+				opcodes[i] = buffer.get ();
+				if (opcodes[i] < 0 || opcodes[i] > CHECKPOINT) {
+					throw new ProgramFormatException ("Unknown opcode " + opcodes[i] + " at instruction " + i);
+				} else if (hasExpression (opcodes[i])) {
+					expressions[i] = readExpression (buffer, pool, variables);
+				}
+				switch (opcodes[i]) {
+					case IF:
+					case ELSE_IF:
+					case WHILE:
+					case LOOP:
+					case JUMP:
+						destinations[i] = readVarint (buffer) - 1;
+						break;
+				}
+			}
+			int[] lineNumbers = new int[n];
+			String[] lines = new String[n];
+			for (int i = 0; i < n; i++) {
+				if (debug) {
+					lineNumbers[i] = readVarint (buffer);
+					int line = readVarint (buffer);
+					lines[i] = line > 0 ? pool.get (line - 1) : null;
+				} else {
+					lineNumbers[i] = i;
+				}
+			}
+
+			List <Instruction> instructions = new ArrayList<> (n);
+			for (int i = 0; i < n; i++) {
+				instructions.add (newInstruction (opcodes[i], lines[i], lineNumbers[i], i, destinations[i], expressions[i]));
+			}
+			for (Variable variable : constants) {
+				Program.variableAccess.setConstant (variable);
+			}
+			return new Program (instructions, symbols.toMap ());
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+			throw new ProgramFormatException ("Truncated or corrupted program", e);
+		}
+	}
+
+
+
+	/**
+	 * Create an instruction read from a compiled file
+	 *
+	 * @param opcode The opcode
+	 * @param line The source line, or null if it has not been saved
+	 * @param lineNumber The line number
+	 * @param compiledLineNumber The compiled line number
+	 * @param destination The jump destination
+	 * @param expression The expression, or null
+	 * @return The instruction
+	 * @throws CompilatorException If the expression is not valid for the instruction
+	 */
+	private static Instruction newInstruction (int opcode, String line, int lineNumber, int compiledLineNumber, int destination, Expression expression) throws CompilatorException {
+		switch (opcode) {
+			case IF:
+				InstructionIf instructionIf = new InstructionIf (line, lineNumber, compiledLineNumber, expression);
+				instructionIf.setFalseJump (destination);
+				return instructionIf;
+			case ELSE_IF:
+				InstructionElseIf instructionElseIf = new InstructionElseIf (line, lineNumber, compiledLineNumber, expression);
+				instructionElseIf.setFalseJump (destination);
+				return instructionElseIf;
+			case ELSE:
+				return new InstructionElse (line, lineNumber, compiledLineNumber);
+			case END_IF:
+				return new InstructionEndIf (line, lineNumber, compiledLineNumber);
+			case WHILE:
+				InstructionWhile instructionWhile = new InstructionWhile (line, lineNumber, compiledLineNumber, expression);
+				instructionWhile.setFalseJump (destination);
+				return instructionWhile;
+			case LOOP:
+				InstructionLoop instructionLoop = new InstructionLoop (line, lineNumber, compiledLineNumber);
+				instructionLoop.setJumpBack (destination);
+				return instructionLoop;
+			case PRINT:
+				return new InstructionPrint (line, lineNumber, compiledLineNumber, expression);
+			case PRINTLN:
+				return new InstructionPrintln (line, lineNumber, compiledLineNumber, expression);
+			case READ:
+				return new InstructionRead (line, lineNumber, compiledLineNumber, expression);
+			case RETURN:
+				return new InstructionReturn (line, lineNumber, compiledLineNumber);
+			case JUMP:
+				return new InstructionJump (line, lineNumber, compiledLineNumber, destination);
+			case CHECKPOINT:
+				return new InstructionCheckpoint (line, lineNumber, compiledLineNumber);
+			default:
+				return new InstructionExpression (line, lineNumber, compiledLineNumber, expression);
+		}
+	}
+
+
+
+	/**
+	 * Check if the instructions of an opcode have an expression
+	 *
+	 * @param opcode The opcode
+	 * @return true if the expression tree is saved after the opcode
+	 */
+	private static boolean hasExpression (int opcode) {
+		return opcode != JUMP && Compiler.expressionStart (KEYWORDS[opcode]) >= 0;
+	}
+
+
+	/**
+	 * Read an expression tree
+	 *
+	 * @param buffer The buffer, positioned at the tag of the root
+	 * @param pool The pool
+	 * @param variables The variables, in the order of the symbol table
+	 * @return The expression, or null if the instruction has no expression
+	 * @throws ProgramFormatException If the tree is not valid
+	 */
+	private static Expression readExpression (ByteBuffer buffer, Pool pool, Variable[] variables) throws ProgramFormatException {
+		int tag = buffer.get ();
+		switch (tag) {
+			case NONE:
+				return null;
+			case UNARY:
+				Operator unary = readOperator (buffer);
+				if (unary.unaryOp == null) {
+					throw new ProgramFormatException ("The operator " + unary + " is not unary");
+				}
+				return new UnaryNode (unary, readOperand (buffer, pool, variables));
+			case BINARY:
+			case LAZY:
+			case ASSIGN:
+				Operator binary = readOperator (buffer);
+				if (binary.binaryOp == null || (tag == LAZY) != (binary.lazyOp != null) || (tag == ASSIGN) != AssignNode.isAssignment (binary)) {
+					throw new ProgramFormatException ("The operator " + binary + " can't be used in a node of type " + tag);
+				}
+				Expression left = readOperand (buffer, pool, variables);
+				Expression right = readOperand (buffer, pool, variables);
+				return tag == LAZY ? new LazyNode (binary, left, right) : tag == ASSIGN ? new AssignNode (binary, left, right) : new BinaryNode (binary, left, right);
+			case ELEMENT_AT:
+				Expression array = readOperand (buffer, pool, variables);
+				return new ElementAtNode (array, readOperand (buffer, pool, variables));
+			case CALL:
+				int function = readVarint (buffer);
+				if (function >= FUNCTIONS.length) {
+					throw new ProgramFormatException ("Unknown function " + function);
+				}
+				Expression[] params = new Expression[readVarint (buffer)];
+				for (int i = 0; i < params.length; i++) {
+					params[i] = readOperand (buffer, pool, variables);
+				}
+				return new CallNode (FUNCTIONS[function], params);
+			default:
+				return readValue (tag, buffer, pool, variables);
+		}
+	}
+
+
+	/**
+	 * Read an operand of a node, which can't be missing
+	 *
+	 * @param buffer The buffer, positioned at the tag of the operand
+	 * @param pool The pool
+	 * @param variables The variables, in the order of the symbol table
+	 * @return The operand
+	 * @throws ProgramFormatException If the tree is not valid
+	 */
+	private static Expression readOperand (ByteBuffer buffer, Pool pool, Variable[] variables) throws ProgramFormatException {
+		Expression operand = readExpression (buffer, pool, variables);
+		if (operand == null) {
+			throw new ProgramFormatException ("Missing operand");
+		}
+		return operand;
+	}
+
+
+	/**
+	 * Read a leaf of an expression tree
+	 *
+	 * @param tag The tag of the leaf, already read
+	 * @param buffer The buffer, positioned after the tag
+	 * @param pool The pool
+	 * @param variables The variables, in the order of the symbol table
+	 * @return The value
+	 * @throws ProgramFormatException If the leaf is not valid
+	 */
+	private static Value readValue (int tag, ByteBuffer buffer, Pool pool, Variable[] variables) throws ProgramFormatException {
+		switch (tag) {
+			case VARIABLE:
+				return variables[readVarint (buffer)];
+			case NUMBER:
+				return ValNumber.getNumber (buffer.getFloat ());
+			case STRING:
+				return new ValString (pool.get (readVarint (buffer)));
+			case TRUE:
+				return Value.True;
+			case FALSE:
+				return Value.False;
+			case NULL:
+				return Value.Null;
+			case ARRAY:
+			case CONST_ARRAY:
+				int size = readVarint (buffer);
+				List <Primitive> elements = new ArrayList<> (Math.min (size, buffer.remaining ()));
+				for (int i = 0; i < size; i++) {
+					Value element = readValue (buffer.get (), buffer, pool, variables);
+					if (element instanceof Primitive == false) {
+						throw new ProgramFormatException ("Invalid element of a constant array");
+					}
+					elements.add ((Primitive) element);
+				}
+				return tag == CONST_ARRAY ? new ValArrayConst (elements) : new ValArray (elements);
+			default:
+				throw new ProgramFormatException ("Unknown node type " + tag);
+		}
+	}
+
+
+	/**
+	 * Read the operator of a node
+	 *
+	 * @param buffer The buffer
+	 * @return The operator
+	 * @throws ProgramFormatException If the operator doesn't exist
+	 */
+	private static Operator readOperator (ByteBuffer buffer) throws ProgramFormatException {
+		int operator = readVarint (buffer);
+		if (operator >= OPERATORS.length) {
+			throw new ProgramFormatException ("Unknown operator " + operator);
+		}
+		return OPERATORS[operator];
+	}
+
+
+
+	/**
+	 * Get the opcode of an instruction
+	 *
+	 * @param instruction The instruction
+	 * @return The opcode
+	 */
+	private static int opcode (Instruction instruction) {
+		if (instruction instanceof InstructionIf) {
+			return IF;
+		} else if (instruction instanceof InstructionElseIf) {
+			return ELSE_IF;
+		} else if (instruction instanceof InstructionElse) {
+			return ELSE;
+		} else if (instruction instanceof InstructionEndIf) {
+			return END_IF;
+		} else if (instruction instanceof InstructionWhile) {
+			return WHILE;
+		} else if (instruction instanceof InstructionLoop) {
+			return LOOP;
+		} else if (instruction instanceof InstructionPrintln) {
+			return PRINTLN;
+		} else if (instruction instanceof InstructionPrint) {
+			return PRINT;
+		} else if (instruction instanceof InstructionRead) {
+			return READ;
+		} else if (instruction instanceof InstructionReturn) {
+			return RETURN;
+		} else if (instruction instanceof InstructionJump) {
+			return JUMP;
+		} else if (instruction instanceof InstructionCheckpoint) {
+			return CHECKPOINT;
+		}
+		return EXPRESSION;
+	}
+
+
+	/**
+	 * Get the index of a string in the pool, adding it if it's not there
+	 *
+	 * @param string The string
+	 * @param pool The pool
+	 * @param poolIndex The index of each string in the pool
+	 * @return The index
+	 */
+	static int intern (String string, List <String> pool, Map <String, Integer> poolIndex) {
+		Integer index = poolIndex.get (string);
+		if (index == null) {
+			index = pool.size ();
+			pool.add (string);
+			poolIndex.put (string, index);
+		}
+		return index;
+	}
+
+
+	/**
+	 * Write an unsigned variable-length integer
+	 *
+	 * @param out The stream
+	 * @param value The value
+	 */
+	static void writeVarint (ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write (value);
+	}
+
+
+	/**
+	 * Read an unsigned variable-length integer
+	 *
+	 * @param buffer The buffer
+	 * @return The value
+	 * @throws ProgramFormatException If the value is too long
+	 */
+	static int readVarint (ByteBuffer buffer) throws ProgramFormatException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			byte b = buffer.get ();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new ProgramFormatException ("Malformed number");
+	}
+
+
+	/**
+	 * Writes the expression trees of a program in prefix order
+	 *
+	 * @author MarcoForlini
+	 */
+	private static final class TreeWriter implements NodeVisitor <Void> {
+
+		private final ByteArrayOutputStream		out;
+		/** The index of each variable in the symbol table */
+		private final Map <Variable, Integer>	symbols;
+		private final List <String>				pool;
+		private final Map <String, Integer>		poolIndex;
+
+
+
+		TreeWriter (ByteArrayOutputStream out, Map <Variable, Integer> symbols, List <String> pool, Map <String, Integer> poolIndex) {
+			this.out = out;
+			this.symbols = symbols;
+			this.pool = pool;
+			this.poolIndex = poolIndex;
+		}
+
+
+
+		/**
+		 * Write an expression tree
+		 *
+		 * @param expression The root, or null
+		 */
+		void write (Expression expression) {
+			if (expression == null) {
+				out.write (NONE);
+			} else {
+				Node.accept (expression, this);
+			}
+		}
+
+
+		@Override
+		public Void visitValue (Value value) {
+			if (value instanceof Variable) {
+				Integer index = symbols.get (value);
+				if (index == null) {
+					throw new IllegalArgumentException ("The variable " + ((Variable) value).name + " is not in the symbol table of the program");
+				}
+				out.write (VARIABLE);
+				writeVarint (out, index);
+			} else if (value instanceof ValBoolean) {
+				out.write (value == Value.True ? TRUE : FALSE);
+			} else if (value instanceof ValNumber) {
+				int bits = Float.floatToRawIntBits (((ValNumber) value).value ());
+				out.write (NUMBER);
+				out.write (bits >>> 24);
+				out.write (bits >>> 16);
+				out.write (bits >>> 8);
+				out.write (bits);
+			} else if (value instanceof ValString) {
+				out.write (STRING);
+				writeVarint (out, intern (value.toString (), pool, poolIndex));
+			} else if (value == Value.Null) {
+				out.write (NULL);
+			} else if (value instanceof ValArray) {
+				List <Primitive> elements = ((ValArray) value).getElements ();
+				out.write (value instanceof ValArrayConst ? CONST_ARRAY : ARRAY);
+				writeVarint (out, elements.size ());
+				for (Primitive element : elements) {
+					visitValue (element);
+				}
+			} else {
+				throw new IllegalArgumentException ("The value " + value + " can't be saved");
+			}
+			return null;
+		}
+
+
+		@Override
+		public Void visitUnary (UnaryNode node) {
+			out.write (UNARY);
+			writeVarint (out, node.getOperator ().ordinal ());
+			write (node.getOperand ());
+			return null;
+		}
+
+
+		@Override
+		public Void visitBinary (BinaryNode node) {
+			out.write (BINARY);
+			writeVarint (out, node.getOperator ().ordinal ());
+			write (node.getLeft ());
+			write (node.getRight ());
+			return null;
+		}
+
+
+		@Override
+		public Void visitLazy (LazyNode node) {
+			out.write (LAZY);
+			writeVarint (out, node.getOperator ().ordinal ());
+			write (node.getLeft ());
+			write (node.getRight ());
+			return null;
+		}
+
+
+		@Override
+		public Void visitAssign (AssignNode node) {
+			out.write (ASSIGN);
+			writeVarint (out, node.getOperator ().ordinal ());
+			write (node.getTarget ());
+			write (node.getValue ());
+			return null;
+		}
+
+
+		@Override
+		public Void visitElementAt (ElementAtNode node) {
+			out.write (ELEMENT_AT);
+			write (node.getArray ());
+			write (node.getIndex ());
+			return null;
+		}
+
+
+		@Override
+		public Void visitCall (CallNode node) {
+			Expression[] params = node.getChildren ();
+			out.write (CALL);
+			writeVarint (out, node.getFunction ().ordinal ());
+			writeVarint (out, params.length);
+			for (Expression param : params) {
+				write (param);
+			}
+			return null;
+		}
+
+	}
+
+
+
+
+	/**
+	 * The strings of a pool, decoded from the buffer only when they are requested
+	 *
+	 * @author MarcoForlini
+	 */
+	static final class Pool {
+
+		private final ByteBuffer	buffer;
+		/** The position of each string in the buffer */
+		private final int[]			offsets;
+		/** The length of each string, in bytes */
+		private final int[]			lengths;
+
+
+
+		/**
+		 * Create a new {@link Pool}, reading the offsets of the strings. The buffer is positioned after the pool.
+		 *
+		 * @param buffer The buffer, positioned at the start of the pool
+		 * @throws ProgramFormatException If the pool is not valid
+		 */
+		Pool (ByteBuffer buffer) throws ProgramFormatException {
+			int n = readVarint (buffer);
+			if (n < 0 || n > buffer.remaining ()) {
+				throw new ProgramFormatException ("Truncated or corrupted program");
+			}
+			offsets = new int[n];
+			lengths = new int[n];
+			for (int i = 0; i < n; i++) {
+				lengths[i] = readVarint (buffer);
+				offsets[i] = buffer.position ();
+				if (lengths[i] < 0 || lengths[i] > buffer.remaining ()) {
+					throw new ProgramFormatException ("Truncated or corrupted program");
+				}
+				buffer.position (offsets[i] + lengths[i]);
+			}
+			this.buffer = buffer;
+		}
+
+
+
+		/**
+		 * Decode a string of the pool
+		 *
+		 * @param index The index of the string
+		 * @return The string
+		 * @throws IndexOutOfBoundsException If the pool has no string with the given index
+		 */
+		String get (int index) {
+			byte[] bytes = new byte[lengths[index]];
+			ByteBuffer string = buffer.duplicate ();
+			string.position (offsets[index]);
+			string.get (bytes);
+			return new String (bytes, StandardCharsets.UTF_8);
+		}
+
+	}
+
+}
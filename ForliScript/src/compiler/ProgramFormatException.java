@@ -0,0 +1,31 @@
+package compiler;
+
+import java.io.IOException;
+
+
+/**
+ * An exception happened when a file doesn't contain a valid compiled program
+ * @author MarcoForlini
+ */
+public class ProgramFormatException extends IOException {
+
+	private static final long serialVersionUID = 6302845739460188236L;
+
+	/**
+	 * Creates a new {@link ProgramFormatException}
+	 * @param message	The message
+	 */
+	public ProgramFormatException (String message) {
+		super (message);
+	}
+
+	/**
+	 * Creates a new {@link ProgramFormatException}
+	 * @param message	The message
+	 * @param cause		The cause
+	 */
+	public ProgramFormatException (String message, Throwable cause) {
+		super (message, cause);
+	}
+
+}
@@ -0,0 +1,135 @@
+package compiler;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A bounded pool of {@link ExecutionContext}s of the same {@link CompiledProgram}, to run a program many times with different bindings
+ * without creating a new context for each execution.
+ * <p>
+ * A thread borrows a context, binds its variables, runs it and releases it. The released context is reset to its initial values, so the
+ * next borrower finds it like a new one. The contexts are created when they're first needed, up to the capacity of the pool;
+ * when all of them are in use, {@link #borrow()} waits until one is released.
+ * <p>
+ * The contexts share the {@link Output} and the {@link Input} of the prototype: the contexts which run at the same time need thread-safe
+ * channels, like the ones created by the factories of {@link Output} and {@link Input}.
+ *
+ * @author MarcoForlini
+ */
+public final class ProgramPool {
+
+	/** The context copied by each new context: its values are the initial values of the pool */
+	private final ExecutionContext					template;
+	private final BlockingQueue <ExecutionContext>	idle;
+	/** The contexts on loan, which can be released */
+	private final Set <ExecutionContext>			borrowed	= Collections.synchronizedSet (Collections.newSetFromMap (new IdentityHashMap<> ()));
+	private final int								capacity;
+	/** The number of contexts created */
+	private final AtomicInteger						created	= new AtomicInteger ();
+
+
+
+	/**
+	 * Create a new {@link ProgramPool}, whose contexts start with all the variables null
+	 *
+	 * @param program The compiled program
+	 * @param capacity The maximum number of contexts
+	 * @throws IllegalArgumentException If the capacity is not positive
+	 */
+	public ProgramPool (CompiledProgram program, int capacity) {
+		this (program.newContext (), capacity);
+	}
+
+
+	/**
+	 * Create a new {@link ProgramPool}, whose contexts start with the current values of the given context. Later changes to the given context
+	 * don't affect the pool.
+	 *
+	 * @param prototype The context which contains the initial values
+	 * @param capacity The maximum number of contexts
+	 * @throws IllegalArgumentException If the capacity is not positive
+	 */
+	public ProgramPool (ExecutionContext prototype, int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException ("The capacity must be positive: " + capacity);
+		}
+		template = prototype.copy ();
+		idle = new ArrayBlockingQueue<> (capacity);
+		this.capacity = capacity;
+	}
+
+
+
+	/**
+	 * Get the program executed by the contexts of this pool
+	 *
+	 * @return The compiled program
+	 */
+	public CompiledProgram getProgram () {
+		return template.getProgram ();
+	}
+
+
+	/**
+	 * Borrow a context, waiting until one is available if the pool is exhausted
+	 *
+	 * @return A context with its initial values
+	 * @throws InterruptedException If the thread is interrupted while waiting
+	 */
+	public ExecutionContext borrow () throws InterruptedException {
+		ExecutionContext context = idle.poll ();
+		if (context == null) {
+			for (int n = created.get (); n < capacity && context == null; n = created.get ()) {
+				if (created.compareAndSet (n, n + 1)) {
+					context = template.copy ();
+				}
+			}
+			if (context == null) {
+				context = idle.take ();
+			}
+		}
+		borrowed.add (context);
+		return context;
+	}
+
+
+	/**
+	 * Give back a borrowed context. The context is reset, and it must not be used after it has been released.
+	 *
+	 * @param context The context
+	 * @throws IllegalArgumentException If the context has not been borrowed from this pool, or it has already been released
+	 */
+	public void release (ExecutionContext context) {
+		if (!borrowed.remove (context)) {
+			throw new IllegalArgumentException ("The context is not on loan from this pool");
+		}
+		context.reset ();
+		idle.add (context);
+	}
+
+
+	/**
+	 * Get the number of contexts created by the pool
+	 *
+	 * @return The number of contexts, at most the capacity
+	 */
+	public int getSize () {
+		return created.get ();
+	}
+
+
+	/**
+	 * Get the maximum number of contexts
+	 *
+	 * @return The capacity
+	 */
+	public int getCapacity () {
+		return capacity;
+	}
+
+}
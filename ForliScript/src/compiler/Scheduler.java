@@ -0,0 +1,409 @@
+package compiler;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import compiler.ExecutionContext.Status;
+
+
+/**
+ * Executes many programs on a few carrier threads, giving each one a quantum of operations at a time.
+ * <p>
+ * Each submitted {@link ExecutionContext} becomes a {@link Session}. A carrier executes a session until it uses its quantum, suspends on a
+ * Read or ends; a session which has used its quantum is queued again behind the others, so a long loop can't delay the other programs. A
+ * session waiting for input doesn't hold a thread, and it's queued again when its line arrives with {@link Session#supply(String)}: a
+ * scheduler can host many thousands of mostly idle programs. A program which never ends still holds its share of the carriers: give its
+ * context a {@link Budget}, and the session fails when the program exceeds it.
+ * <p>
+ * Each carrier has its own deque of sessions, which it executes in turn. The new sessions and the sessions whose input has arrived are put
+ * into a shared queue, which the carriers check before their own deque; a carrier with nothing to do steals from the deques of the others.
+ *
+ * @author MarcoForlini
+ */
+public final class Scheduler implements AutoCloseable {
+
+	/** The quantum used when none is given: the number of operations executed by a session before yielding */
+	public static final int							DEFAULT_QUANTUM	= 10000;
+
+	private final Carrier[]							carriers;
+	private final int								quantum;
+	/** The sessions queued by the threads which are not carriers */
+	private final Queue <Session>					injected		= new ConcurrentLinkedQueue<> ();
+	/** The sessions which haven't ended */
+	private final Set <Session>						sessions		= ConcurrentHashMap.newKeySet ();
+	/** The number of carriers waiting for a session */
+	private final AtomicInteger						idle			= new AtomicInteger ();
+	/** The lock of the idle carriers */
+	private final Object							monitor			= new Object ();
+	private volatile boolean						closed;
+
+
+
+	/**
+	 * Create a new {@link Scheduler} with the {@link #DEFAULT_QUANTUM}
+	 *
+	 * @param carriers The number of carrier threads
+	 * @throws IllegalArgumentException If the number of carriers is not positive
+	 */
+	public Scheduler (int carriers) {
+		this (carriers, DEFAULT_QUANTUM);
+	}
+
+
+	/**
+	 * Create a new {@link Scheduler}
+	 *
+	 * @param carriers The number of carrier threads
+	 * @param quantum The number of operations a session executes before yielding to the others (see {@link ExecutionContext#setQuantum(int)})
+	 * @throws IllegalArgumentException If the number of carriers or the quantum are not positive
+	 */
+	public Scheduler (int carriers, int quantum) {
+		if (carriers <= 0) {
+			throw new IllegalArgumentException ("The number of carriers must be positive: " + carriers);
+		} else if (quantum <= 0) {
+			throw new IllegalArgumentException ("The quantum must be positive: " + quantum);
+		}
+		this.quantum = quantum;
+		this.carriers = new Carrier[carriers];
+		for (int i = 0; i < carriers; i++) {
+			this.carriers[i] = new Carrier (i);
+		}
+		for (Carrier carrier : this.carriers) {
+			carrier.start ();
+		}
+	}
+
+
+
+	/**
+	 * Start the execution of a context. The scheduler sets the quantum of the context, which must not be used by other threads until the
+	 * session ends.
+	 *
+	 * @param context The context, with its variables bound
+	 * @return The session which executes the context
+	 * @throws RejectedExecutionException If the scheduler has been closed
+	 */
+	public Session submit (ExecutionContext context) {
+		if (closed) {
+			throw new RejectedExecutionException ("The scheduler has been closed");
+		}
+		context.setQuantum (quantum);
+		Session session = new Session (context);
+		sessions.add (session);
+		synchronized (session) {
+			session.scheduled = true;
+		}
+		inject (session);
+		return session;
+	}
+
+
+	/**
+	 * Get the number of sessions which haven't ended: running, queued or waiting for input
+	 *
+	 * @return The number of sessions
+	 */
+	public int getSessions () {
+		return sessions.size ();
+	}
+
+
+	/**
+	 * Get the number of carrier threads
+	 *
+	 * @return The number of carriers
+	 */
+	public int getCarriers () {
+		return carriers.length;
+	}
+
+
+	/**
+	 * Get the number of operations a session executes before yielding
+	 *
+	 * @return The quantum
+	 */
+	public int getQuantum () {
+		return quantum;
+	}
+
+
+	/**
+	 * Close the scheduler: the running sessions complete their quantum, then all the sessions which haven't ended are cancelled and the
+	 * carriers stop
+	 */
+	@Override
+	public void close () {
+		closed = true;
+		synchronized (monitor) {
+			monitor.notifyAll ();
+		}
+		for (Session session : sessions) {
+			session.cancel ();
+		}
+	}
+
+
+
+	/**
+	 * Queue a session in the shared queue, and wake a carrier if one is idle
+	 *
+	 * @param session The session
+	 */
+	private void inject (Session session) {
+		injected.add (session);
+		signal ();
+	}
+
+
+	/**
+	 * Wake an idle carrier, if there is one
+	 */
+	private void signal () {
+		if (idle.get () > 0) {
+			synchronized (monitor) {
+				monitor.notify ();
+			}
+		}
+	}
+
+
+	/**
+	 * Check if a carrier has queued sessions which can be stolen
+	 *
+	 * @return True if a deque is not empty
+	 */
+	private boolean stealable () {
+		for (Carrier carrier : carriers) {
+			if (!carrier.deque.isEmpty ()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+
+	/**
+	 * A thread which executes the sessions
+	 *
+	 * @author MarcoForlini
+	 */
+	private final class Carrier extends Thread {
+
+		/** The sessions yielded by this carrier: it takes them from the head, the others steal them from the tail */
+		final ConcurrentLinkedDeque <Session>	deque	= new ConcurrentLinkedDeque<> ();
+		private final int						index;
+
+
+		Carrier (int index) {
+			super ("ForliScript-carrier-" + index);
+			this.index = index;
+			setDaemon (true);
+		}
+
+
+		@Override
+		public void run () {
+			while (!closed) {
+				Session session = next ();
+				if (session == null) {
+					waitForWork ();
+				} else if (session.runQuantum ()) {
+					if (closed) {
+						session.cancel ();
+					} else {
+						deque.addLast (session);
+						signal (); // Another carrier may steal it
+					}
+				}
+			}
+		}
+
+
+		private Session next () {
+			Session session = injected.poll ();
+			if (session == null) {
+				session = deque.pollFirst ();
+			}
+			for (int i = 1; session == null && i < carriers.length; i++) {
+				session = carriers[(index + i) % carriers.length].deque.pollLast ();
+			}
+			return session;
+		}
+
+
+		private void waitForWork () {
+			idle.incrementAndGet ();
+			try {
+				synchronized (monitor) {
+					while (!closed && injected.isEmpty () && !stealable ()) {
+						monitor.wait ();
+					}
+				}
+			} catch (InterruptedException e) {
+				interrupt ();
+			} finally {
+				idle.decrementAndGet ();
+			}
+		}
+
+	}
+
+
+
+	/**
+	 * The execution of a context by a {@link Scheduler}
+	 *
+	 * @author MarcoForlini
+	 */
+	public final class Session {
+
+		private final ExecutionContext						context;
+		private final CompletableFuture <ExecutionContext>	completion	= new CompletableFuture<> ();
+		/** The lines supplied while the program wasn't waiting for them */
+		private final Queue <String>						lines		= new ArrayDeque<> ();
+		/** The state after the last quantum, or null if the session hasn't run yet */
+		private Status										status;
+		/** True if the session is queued or running */
+		private boolean										scheduled;
+		/** The line assigned by the next quantum, or null */
+		private String										line;
+
+
+
+		private Session (ExecutionContext context) {
+			this.context = context;
+		}
+
+
+
+		/**
+		 * Get the context executed by this session. Its variables can be read when the session has ended.
+		 *
+		 * @return The context
+		 */
+		public ExecutionContext getContext () {
+			return context;
+		}
+
+
+		/**
+		 * Get the state of the program after its last quantum
+		 *
+		 * @return The state, or null if the session hasn't run yet
+		 */
+		public synchronized Status getStatus () {
+			return status;
+		}
+
+
+		/**
+		 * Get the future completed when the session ends: with the context when the program ends, exceptionally if the program fails or the
+		 * session is cancelled
+		 *
+		 * @return The future
+		 */
+		public CompletableFuture <ExecutionContext> getCompletion () {
+			return completion;
+		}
+
+
+		/**
+		 * Supply a line to the program. If the program is waiting for input, it's queued again; otherwise the line is kept for its next Read.
+		 *
+		 * @param line The line, without the line separator
+		 * @throws IllegalStateException If the session has ended
+		 */
+		public void supply (String line) {
+			Objects.requireNonNull (line);
+			synchronized (this) {
+				if (completion.isDone ()) {
+					throw new IllegalStateException ("The session has ended");
+				}
+				if (status != Status.WAITING_FOR_INPUT || scheduled) {
+					lines.add (line);
+					return;
+				}
+				this.line = line;
+				scheduled = true;
+			}
+			if (closed) {
+				cancel ();
+			} else {
+				inject (this);
+			}
+		}
+
+
+		/**
+		 * Stop the session: a quantum which is running completes, but the program doesn't run again
+		 *
+		 * @return True if the session has been cancelled, false if it had already ended
+		 */
+		public boolean cancel () {
+			sessions.remove (this);
+			return completion.completeExceptionally (new CancellationException ("The session has been cancelled"));
+		}
+
+
+		/**
+		 * Execute a quantum
+		 *
+		 * @return True if the session must be queued again: it has used its quantum, or its input had already arrived
+		 */
+		boolean runQuantum () {
+			if (completion.isDone ()) {
+				return false;
+			}
+			Status status;
+			try {
+				String line;
+				Status previous;
+				synchronized (this) {
+					line = this.line;
+					this.line = null;
+					previous = this.status;
+				}
+				if (previous == null) {
+					status = context.start ();
+				} else if (previous == Status.YIELDED) {
+					status = context.resume ();
+				} else {
+					status = context.resume (line);
+				}
+			} catch (Throwable e) {
+				sessions.remove (this);
+				completion.completeExceptionally (e);
+				return false;
+			}
+			synchronized (this) {
+				this.status = status;
+				if (status == Status.FINISHED) {
+					scheduled = false;
+					sessions.remove (this);
+					completion.complete (context);
+					return false;
+				} else if (status == Status.WAITING_FOR_INPUT) {
+					line = lines.poll ();
+					if (line == null) {
+						scheduled = false;
+						return false;
+					}
+				}
+				return true;
+			}
+		}
+
+	}
+
+}
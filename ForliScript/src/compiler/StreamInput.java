@@ -0,0 +1,96 @@
+package compiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * An {@link Input} which reads a stream in blocks of bytes and splits them into lines, without the parsing of a {@link java.util.Scanner}.
+ * The lines end with \n or \r\n. Created by the factories of {@link Input}.
+ * <p>
+ * The input can be shared by many contexts: each line is read by only one of them.
+ * @author MarcoForlini
+ */
+public final class StreamInput implements Input, Closeable {
+
+	private static final int SIZE = 8192;
+
+	private final InputStream stream;
+	private final Charset charset;
+	/** If true, {@link #close()} closes the stream */
+	private final boolean closes;
+	private byte[] buffer = new byte[SIZE];
+	/** The start of the next line */
+	private int position;
+	/** The end of the bytes read */
+	private int limit;
+	/** True if the stream has ended */
+	private boolean end;
+
+	/**
+	 * Create a new {@link StreamInput}
+	 * @param stream	The stream
+	 * @param charset	The charset of the text
+	 * @param closes	If true, {@link #close()} closes the stream
+	 */
+	StreamInput(InputStream stream, Charset charset, boolean closes){
+		this.stream = stream;
+		this.charset = charset;
+		this.closes = closes;
+	}
+
+	@Override
+	public synchronized String readLine() throws IOException {
+		int scan = position;
+		for (;;){
+			for (; scan < limit; scan++){
+				if (buffer[scan] == '\n'){
+					String line = decode(position, scan);
+					position = scan + 1;
+					return line;
+				}
+			}
+			if (end){
+				if (position < limit){
+					String line = decode(position, limit);
+					position = limit;
+					return line;
+				}
+				throw new NoSuchElementException("No line found");
+			}
+			if (position > 0){
+				System.arraycopy(buffer, position, buffer, 0, limit - position);
+				limit -= position;
+				scan -= position;
+				position = 0;
+			}
+			if (limit == buffer.length){
+				buffer = Arrays.copyOf(buffer, buffer.length << 1);
+			}
+			int n = stream.read(buffer, limit, buffer.length - limit);
+			if (n < 0){
+				end = true;
+			} else {
+				limit += n;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closes){
+			stream.close();
+		}
+	}
+
+	private String decode(int from, int to){
+		if (to > from && buffer[to - 1] == '\r'){
+			to--;
+		}
+		return new String(buffer, from, to - from, charset);
+	}
+
+}
@@ -0,0 +1,125 @@
+package compiler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import expressions.BadExpressionException;
+import expressions.Variable;
+
+
+/**
+ * The table of the variables created while compiling a program. It can be shared by many {@link Parser}s running on different threads.
+ * <p>
+ * For each variable the table remembers the first line where it appears, so a "const" declaration can be validated in line order
+ * (it must be the first occurrence of the variable) no matter in which order the lines have been parsed.
+ *
+ * @author MarcoForlini
+ */
+final class SymbolTable {
+
+	private final ConcurrentHashMap <String, Symbol>	symbols	= new ConcurrentHashMap<> ();
+	private final Map <String, Variable>				previous;
+
+
+
+	/**
+	 * Create a new {@link SymbolTable}
+	 *
+	 * @param previous The variables of a previous version of the program, which are reused (and reset) instead of creating new ones. Can be null.
+	 */
+	SymbolTable (Map <String, Variable> previous) {
+		this.previous = previous;
+	}
+
+
+
+	/**
+	 * Get the variable with the given name. If no variable exists, create a new Variable.
+	 *
+	 * @param name The name
+	 * @param line The line where the variable appears
+	 * @return The (new) variable associated to the given name
+	 */
+	Variable get (String name, int line) {
+		Symbol symbol = symbols.get (name);
+		if (symbol == null) {
+			symbol = symbols.computeIfAbsent (name, (String key) -> new Symbol (newVariable (key), line));
+		}
+		symbol.seen (line);
+		return symbol.variable;
+	}
+
+
+	/**
+	 * Make the variable constant, after checking that the given line is the first where it appears
+	 *
+	 * @param name The name
+	 * @param line The line where the variable is declared as "const"
+	 * @throws BadExpressionException If the variable already appeared in a previous line
+	 */
+	void declareConstant (String name, int line) throws BadExpressionException {
+		Symbol symbol = symbols.get (name);
+		if (symbol.firstLine.get () != line) {
+			throw new BadExpressionException ("Misplaced token \"const\"");
+		}
+		Program.variableAccess.setConstant (symbol.variable);
+	}
+
+
+	/**
+	 * Create a new variable, or reset the one with the same name in the previous version of the program
+	 *
+	 * @param name The name
+	 * @return The variable
+	 */
+	private Variable newVariable (String name) {
+		Variable variable = previous != null ? previous.get (name) : null;
+		if (variable == null) {
+			return new Variable (name, false);
+		}
+		Program.variableAccess.reset (variable);
+		return variable;
+	}
+
+
+	/**
+	 * Build the map of variables
+	 *
+	 * @return A new map with all variables
+	 */
+	Map <String, Variable> toMap () {
+		Map <String, Variable> variables = new HashMap<> (symbols.size () * 4 / 3 + 1);
+		for (Symbol symbol : symbols.values ()) {
+			variables.put (symbol.variable.name, symbol.variable);
+		}
+		return variables;
+	}
+
+
+
+	/**
+	 * A variable with the first line where it appears
+	 *
+	 * @author MarcoForlini
+	 */
+	private static final class Symbol {
+
+		final Variable		variable;
+		final AtomicInteger	firstLine;
+
+		Symbol (Variable variable, int line) {
+			this.variable = variable;
+			firstLine = new AtomicInteger (line);
+		}
+
+		void seen (int line) {
+			int first;
+			while (line < (first = firstLine.get ()) && !firstLine.compareAndSet (first, line)) {
+				// Another parser updated the line, try again
+			}
+		}
+	}
+
+}
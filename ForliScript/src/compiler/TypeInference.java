@@ -0,0 +1,318 @@
+package compiler;
+
+import java.util.BitSet;
+
+import expressions.Operator;
+import expressions.ValNumber;
+import expressions.Value;
+import expressions.Variable;
+
+
+/**
+ * Infers the types of the registers of a {@link Bytecode}, so that {@link JvmProgram} can keep the numbers in primitive local variables.
+ * <p>
+ * A variable is a number variable if the program proves that it only contains numbers:
+ * <ul>
+ * <li>it's not constant and it's not read by a Read instruction</li>
+ * <li>each assignment stores a number, with =, += or -=</li>
+ * <li>it's only used by the operations with a numeric fast path, by Print and by the conditions (never by generic operators or functions, which
+ * may see or change the variable itself)</li>
+ * <li>on every path, the program assigns it before reading it, so the value it contains before the execution doesn't matter</li>
+ * </ul>
+ * The inference starts assuming that every candidate is a number variable, then removes the variables which break a rule until nothing changes.
+ * <p>
+ * The result of each operation is {@link #NUMBER} or {@link #BOOLEAN} if its operands are numbers and the operation can't fail, {@link #ANY}
+ * otherwise. The temporary registers don't live across the instructions, so their type is the type of the operation which wrote them last.
+ *
+ * @author MarcoForlini
+ */
+final class TypeInference {
+
+	/** Any value, in an Object register */
+	static final int		ANY			= 0;
+	/** A {@link ValNumber}, kept as a float */
+	static final int		NUMBER		= 1;
+	/** True or False, kept as an int */
+	static final int		BOOLEAN		= 2;
+
+	private static final int	NEGATION	= Operator.neg.ordinal ();
+	private static final int	NOT			= Operator.not.ordinal ();
+
+	private final int[]		code;
+	private final int		values;
+	/** The type of each constant and variable */
+	private final int[]		registers;
+	/** The type of the result of the operation at each position */
+	private final byte[]	results;
+	/** The registers which contain a variable */
+	private final boolean[]	variables;
+	/** The type of each temporary register while scanning the code */
+	private final int[]		temporaries;
+
+
+
+	private TypeInference (Bytecode bytecode) {
+		code = bytecode.code;
+		values = bytecode.values.length;
+		registers = new int[values];
+		variables = new boolean[values];
+		results = new byte[code.length];
+		temporaries = new int[values + bytecode.temporaries];
+	}
+
+
+
+	/**
+	 * Infer the types of the registers of a bytecode
+	 *
+	 * @param bytecode The bytecode
+	 * @return The types
+	 */
+	static TypeInference infer (Bytecode bytecode) {
+		TypeInference types = new TypeInference (bytecode);
+		for (int r = 0; r < types.values; r++) {
+			Value value = bytecode.values[r];
+			if (value.getClass () == Variable.class && !((Variable) value).isConstant ()) {
+				types.registers[r] = NUMBER;
+				types.variables[r] = true;
+			} else if (value.getClass () == ValNumber.class) {
+				types.registers[r] = NUMBER;
+			}
+		}
+		for (int pc = 0; pc < types.code.length; pc += Bytecode.length (types.code, pc)) {
+			if (types.code[pc] == Bytecode.READ) {
+				types.registers[types.code[pc + 1]] = ANY;
+			}
+		}
+		while (types.scan () | types.flow ()) {
+			// Repeat until no variable is removed
+		}
+		return types;
+	}
+
+
+
+	/**
+	 * Check if a constant or a variable is a number
+	 *
+	 * @param register The register
+	 * @return true if the register always contains a number
+	 */
+	boolean isNumber (int register) {
+		return register < values && registers[register] == NUMBER;
+	}
+
+
+	/**
+	 * Check if a register is a variable which only contains numbers
+	 *
+	 * @param register The register
+	 * @return true if the register is a number variable
+	 */
+	boolean isNumberVariable (int register) {
+		return isVariable (register);
+	}
+
+
+	/**
+	 * Get the type of the result of an operation
+	 *
+	 * @param pc The position of the operation
+	 * @return The type
+	 */
+	int result (int pc) {
+		return results[pc];
+	}
+
+
+
+	/**
+	 * Compute the type of each operation and remove the variables used in a way which needs the boxed value
+	 *
+	 * @return true if a variable has been removed
+	 */
+	private boolean scan () {
+		boolean changed = false;
+		for (int pc = 0; pc < code.length; pc += Bytecode.length (code, pc)) {
+			int op = code[pc];
+			int type = ANY;
+			switch (op) {
+				case Bytecode.UNARY:
+					if (type (code[pc + 3]) == NUMBER && code[pc + 1] == NEGATION) {
+						type = NUMBER;
+					} else if (type (code[pc + 3]) == NUMBER && code[pc + 1] == NOT) {
+						type = BOOLEAN;
+					} else {
+						changed |= remove (code[pc + 3]);
+					}
+					break;
+				case Bytecode.CALL:
+					for (int i = 0; i < code[pc + 2]; i++) {
+						changed |= remove (code[pc + 4 + i]);
+					}
+					break;
+				case Bytecode.ADD:
+				case Bytecode.MULTIPLY:
+				case Bytecode.DIVIDE:
+				case Bytecode.MODULE:
+					type = numbers (pc) ? NUMBER : ANY;
+					break;
+				case Bytecode.SUBTRACT:
+					type = numbers (pc) && !isVariable (code[pc + 4]) ? NUMBER : ANY; // The right operand must be a number, not a variable
+					break;
+				case Bytecode.LESS:
+				case Bytecode.LESS_EQUAL:
+				case Bytecode.GREATER:
+				case Bytecode.GREATER_EQUAL:
+				case Bytecode.EQUAL:
+				case Bytecode.DIFFERENT:
+					type = numbers (pc) ? BOOLEAN : ANY;
+					break;
+				case Bytecode.ASSIGN:
+				case Bytecode.ADD_SET:
+				case Bytecode.SUBTRACT_SET:
+					if (isVariable (code[pc + 3]) && type (code[pc + 4]) == NUMBER && (op != Bytecode.SUBTRACT_SET || !isVariable (code[pc + 4]))) {
+						type = NUMBER;
+					}
+					break;
+				case Bytecode.BINARY:
+					break;
+				case Bytecode.TEST: // True or False, from any value
+					results[pc] = BOOLEAN;
+					temporaries[code[pc + 1]] = BOOLEAN;
+					continue;
+				default:
+					continue;
+			}
+			if (type == ANY && op != Bytecode.CALL) {
+				// The generic operations receive the variable itself, not its value
+				changed |= remove (code[pc + 3]);
+				if (op != Bytecode.UNARY) {
+					changed |= remove (code[pc + 4]);
+				}
+			}
+			results[pc] = (byte) type;
+			temporaries[code[pc + (op == Bytecode.CALL ? 3 : 2)]] = type;
+		}
+		return changed;
+	}
+
+
+	/**
+	 * Remove the variables which may be read before being assigned, with a forward analysis of the assignments on every path
+	 *
+	 * @return true if a variable has been removed
+	 */
+	private boolean flow () {
+		// The variables surely assigned before each operation, null if the operation hasn't been reached yet
+		BitSet[] assigned = new BitSet[code.length + 1];
+		assigned[0] = new BitSet (values);
+		boolean changed = false, removed = false;
+		do {
+			changed = false;
+			for (int pc = 0; pc < code.length; pc += Bytecode.length (code, pc)) {
+				if (assigned[pc] == null) {
+					continue;
+				}
+				BitSet state = (BitSet) assigned[pc].clone ();
+				int op = code[pc];
+				int next = pc + Bytecode.length (code, pc), jump = -1;
+				switch (op) {
+					case Bytecode.ASSIGN:
+						removed |= read (state, code[pc + 4]);
+						state.set (code[pc + 3]);
+						break;
+					case Bytecode.CALL:
+						for (int i = 0; i < code[pc + 2]; i++) {
+							removed |= read (state, code[pc + 4 + i]);
+						}
+						break;
+					case Bytecode.UNARY:
+						removed |= read (state, code[pc + 3]);
+						break;
+					case Bytecode.PRINT:
+					case Bytecode.PRINTLN:
+						removed |= read (state, code[pc + 1]);
+						break;
+					case Bytecode.JUMP:
+						jump = code[pc + 1];
+						next = -1;
+						break;
+					case Bytecode.JUMP_IF_FALSE:
+					case Bytecode.JUMP_IF_TRUE:
+						removed |= read (state, code[pc + 1]);
+						jump = code[pc + 2];
+						break;
+					case Bytecode.TEST:
+						removed |= read (state, code[pc + 2]);
+						break;
+					case Bytecode.READ:
+						state.set (code[pc + 1]);
+						break;
+					case Bytecode.EXECUTE:
+					case Bytecode.CHECKPOINT:
+						break;
+					case Bytecode.HALT:
+					case Bytecode.TRAP:
+						next = -1;
+						break;
+					default:
+						removed |= read (state, code[pc + 3]) | read (state, code[pc + 4]);
+				}
+				changed |= merge (assigned, next, state) | merge (assigned, jump, state);
+			}
+		} while (changed);
+		return removed;
+	}
+
+
+	private boolean read (BitSet assigned, int register) {
+		return !assigned.get (register) && isVariable (register) && remove (register);
+	}
+
+
+	/**
+	 * Merge a state into the state of an operation: only the variables assigned on both paths are surely assigned
+	 *
+	 * @return true if the state of the operation changed
+	 */
+	private static boolean merge (BitSet[] assigned, int pc, BitSet state) {
+		if (pc < 0) {
+			return false;
+		} else if (assigned[pc] == null) {
+			assigned[pc] = (BitSet) state.clone ();
+			return true;
+		}
+		int before = assigned[pc].cardinality ();
+		assigned[pc].and (state);
+		return assigned[pc].cardinality () != before;
+	}
+
+
+	private boolean numbers (int pc) {
+		return type (code[pc + 3]) == NUMBER && type (code[pc + 4]) == NUMBER;
+	}
+
+
+	private int type (int register) {
+		return register < values ? registers[register] : temporaries[register];
+	}
+
+
+	/**
+	 * Check if a register is a variable which is still a number variable
+	 */
+	private boolean isVariable (int register) {
+		return register < values && registers[register] == NUMBER && variables[register];
+	}
+
+
+	private boolean remove (int register) {
+		if (isVariable (register)) {
+			registers[register] = ANY;
+			return true;
+		}
+		return false;
+	}
+
+}
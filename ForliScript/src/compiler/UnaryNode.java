@@ -0,0 +1,129 @@
+package compiler;
+
+import expressions.Expression;
+import expressions.Operator;
+import expressions.ValNumber;
+import expressions.Value;
+
+
+/**
+ * An expression which applies a unary {@link Operator} to an expression, and specializes itself on numbers like {@link BinaryNode}.
+ *
+ * @author MarcoForlini
+ */
+final class UnaryNode implements Node {
+
+	private static final long	serialVersionUID	= -2290624410405520146L;
+
+	/** The number of evaluations recorded before choosing a state */
+	private static final int	WARMUP				= 8;
+	/** The number of deoptimizations after which the node stays generic */
+	private static final int	MAX_DEOPTIMIZATIONS	= 4;
+
+	/** Recording the types of the operand */
+	private static final int	UNINITIALIZED		= 0;
+	/** Apply the operator */
+	private static final int	GENERIC				= 1;
+	/** The operand is a number */
+	private static final int	NUMBER				= 2;
+
+	private final Operator		oper;
+	private final Expression	rExpr;
+	private transient int		state;
+	/** The number of evaluations whose operand was a number, while warming up */
+	private transient int		numbers;
+	private transient int		samples;
+	private transient int		deoptimizations;
+
+
+
+	/**
+	 * Create a new {@link UnaryNode}
+	 *
+	 * @param oper The operator
+	 * @param rExpr The operand
+	 */
+	UnaryNode (Operator oper, Expression rExpr) {
+		this.oper = oper;
+		this.rExpr = rExpr;
+		state = oper == Operator.neg || oper == Operator.not ? UNINITIALIZED : GENERIC;
+	}
+
+
+	/**
+	 * Start from the initial state when the node is read from a file
+	 *
+	 * @return A new node
+	 */
+	private Object readResolve () {
+		return new UnaryNode (oper, rExpr);
+	}
+
+
+
+	@Override
+	public Value eval () throws ExecutionException {
+		Value r = rExpr.eval ();
+		switch (state) {
+			case NUMBER:
+				ValNumber rn = Bytecode.number (r);
+				if (rn != null) {
+					if (oper == Operator.neg) {
+						return Bytecode.result (rn, -rn.value ());
+					}
+					return rn.value () == 0 ? Value.True : Value.False;
+				}
+				deoptimize ();
+				return oper.unaryOp.eval (r);
+			case UNINITIALIZED:
+				if (Bytecode.number (r) != null) {
+					numbers++;
+				}
+				if (++samples == WARMUP) {
+					state = numbers == WARMUP ? NUMBER : GENERIC;
+				}
+				return oper.unaryOp.eval (r);
+			default:
+				return oper.unaryOp.eval (r);
+		}
+	}
+
+
+	@Override
+	public <R> R accept (NodeVisitor <R> visitor) {
+		return visitor.visitUnary (this);
+	}
+
+
+	@Override
+	public Expression[] getChildren () {
+		return new Expression[] { rExpr };
+	}
+
+
+	/**
+	 * @return The operator
+	 */
+	Operator getOperator () {
+		return oper;
+	}
+
+
+	/**
+	 * @return The operand
+	 */
+	Expression getOperand () {
+		return rExpr;
+	}
+
+
+	/**
+	 * Go back to the generic state after the guard failed, and record the types again unless the node deoptimized too many times
+	 */
+	private void deoptimize () {
+		numbers = 0;
+		samples = 0;
+		state = ++deoptimizations < MAX_DEOPTIMIZATIONS ? UNINITIALIZED : GENERIC;
+	}
+
+}
@@ -0,0 +1,27 @@
+package expressions;
+
+import java.io.Serializable;
+
+import compiler.ExecutionException;
+
+/**
+ * Represents an operation that accepts a left expression and a right expression, and decides itself which ones to evaluate.
+ * Used by the operators which don't always need both operands, like the logic and/or.
+ *
+ * <p>This is a <a href="package-summary.html">functional interface</a>
+ * whose functional method is {@link #eval(Expression, Expression)}.
+ */
+@FunctionalInterface
+public interface LazyOperation extends Serializable {
+
+	/**
+	 * Applies this operation to the given expressions, which are not evaluated yet.
+	 *
+	 * @param lExpr the left expression
+	 * @param rExpr the right expression
+	 * @return the result Value
+	 * @throws ExecutionException		If an error occur while evaluating an expression or executing the operation
+	 */
+	Value eval(Expression lExpr, Expression rExpr) throws ExecutionException;
+
+}
@@ -107,14 +107,14 @@ public enum Operator implements Token {
 		return ValBoolean.getBool (!rValue.isTrue ());
 	}),
 
-	/** Logic And */
-	and ("&&", 11, (Value lValue, Value rValue) -> {
-		return ValBoolean.getBool (lValue.isTrue () && rValue.isTrue ());
+	/** Logic And: the right expression is evaluated only if the left one is true */
+	and ("&&", 11, (LazyOperation) (Expression lExpr, Expression rExpr) -> {
+		return ValBoolean.getBool (lExpr.eval ().isTrue () && rExpr.eval ().isTrue ());
 	}),
 
-	/** Logic Or */
-	or ("||", 10, (Value lValue, Value rValue) -> {
-		return ValBoolean.getBool (lValue.isTrue () || rValue.isTrue ());
+	/** Logic Or: the right expression is evaluated only if the left one is false */
+	or ("||", 10, (LazyOperation) (Expression lExpr, Expression rExpr) -> {
+		return ValBoolean.getBool (lExpr.eval ().isTrue () || rExpr.eval ().isTrue ());
 	}),
 
 
@@ -262,6 +262,8 @@ public enum Operator implements Token {
 	public final UnaryOperation		unaryOp;
 	/** Operator code */
 	public final BinaryOperation	binaryOp;
+	/** Operator code which receives the unevaluated operands, or null if the operator always evaluates both */
+	public final LazyOperation		lazyOp;
 
 
 	private Operator (String name, int priority, UnaryOperation unaryOp) {
@@ -269,6 +271,7 @@ public enum Operator implements Token {
 		this.priority = priority;
 		this.unaryOp = unaryOp;
 		binaryOp = null;
+		lazyOp = null;
 	}
 
 	private Operator (String name, int priority, BinaryOperation binaryOp) {
@@ -276,6 +279,15 @@ public enum Operator implements Token {
 		this.priority = priority;
 		this.binaryOp = binaryOp;
 		unaryOp = null;
+		lazyOp = null;
+	}
+
+	private Operator (String name, int priority, LazyOperation lazyOp) {
+		this.name = name;
+		this.priority = priority;
+		this.lazyOp = lazyOp;
+		binaryOp = lazyOp::eval; // Values are expressions which evaluate to themselves
+		unaryOp = null;
 	}
 
 
@@ -289,41 +301,53 @@ public enum Operator implements Token {
 	 * @return the operator, or null if no operator is found
 	 */
 	public static Operator parse (String text, int from, int to) {
+		char c = text.charAt (from);
 		if (to - from > 1) {
-			switch (text.substring (from, from + 2)) {
-				case "==":
-					return equalTo;
-				case "!=":
-					return differentThan;
-				case "<=":
-					return lessEqualsThan;
-				case ">=":
-					return greaterEqualsThan;
-				case "&&":
-					return and;
-				case "||":
-					return or;
-				case "+=":
-					return sumAndAssign;
-				case "-=":
-					return diffAndAssign;
-				case "*=":
-					return multAndAssign;
-				case "/=":
-					return divAndAssign;
-				case "%=":
-					return modAndAssign;
-				case "^=":
-					return powerAndAssign;
-				case "#?":
-					return isNumber;
-				case "$?":
-					return isString;
-				case "?":
-					return isArray;
+			char next = text.charAt (from + 1);
+			if (next == '=') {
+				switch (c) {
+					case '=':
+						return equalTo;
+					case '!':
+						return differentThan;
+					case '<':
+						return lessEqualsThan;
+					case '>':
+						return greaterEqualsThan;
+					case '+':
+						return sumAndAssign;
+					case '-':
+						return diffAndAssign;
+					case '*':
+						return multAndAssign;
+					case '/':
+						return divAndAssign;
+					case '%':
+						return modAndAssign;
+					case '^':
+						return powerAndAssign;
+				}
+			} else if (next == '?') {
+				switch (c) {
+					case '#':
+						return isNumber;
+					case '$':
+						return isString;
+					case '':
+						return isArray;
+				}
+			} else if (next == c) {
+				switch (c) {
+					case '&':
+						return and;
+					case '|':
+						return or;
+					case '/':
+						return comment;
+				}
 			}
 		}
-		switch (text.charAt (from)) {
+		switch (c) {
 			case '+':
 				return sum;
 			case '-':
@@ -45,6 +45,14 @@ public class ValBoolean extends ValNumber {
 		super(value);
 	}
 	
+	/**
+	 * Can't create more instances, even when reading a program from a file
+	 * @return	The boolean object
+	 */
+	private Object readResolve () {
+		return getBool(value());
+	}
+	
 	
 	
 
@@ -24,6 +24,14 @@ public class ValNull implements Constant {
 	/** Only allow one NULL object */
 	private ValNull (){}
 	
+	/**
+	 * Only allow one NULL object, even when reading a program from a file
+	 * @return	The object NULL
+	 */
+	private Object readResolve () {
+		return objNull;
+	}
+	
 
 	@Override
 	public ValNull eval () {
@@ -12,6 +12,10 @@ public class Variable implements VariableValue, VariableContent, SubValue  {
 	
 	private static final ExecutionException constantVariable = new ExecutionException ("Can't assign a new value to a constant variable");
 
+	static {
+		compiler.Program.grant(new Access());
+	}
+
 	
 
 	/** Name of the variable */
@@ -20,8 +24,8 @@ public class Variable implements VariableValue, VariableContent, SubValue  {
 	/** Value of variable */
 	private Primitive value;
 
-	/** If true, the variable is constant */
-	private final boolean constant;
+	/** If true, the variable is constant. Only the compiler and the runtime can change it, through {@link Access}. */
+	private boolean constant;
 
 
 
@@ -71,6 +75,14 @@ public class Variable implements VariableValue, VariableContent, SubValue  {
 		return value.getPrimitive();
 	}
 	
+	/**
+	 * Get the value contained in the variable, as it is (without extracting its primitive)
+	 * @return 	The value contained in this variable
+	 */
+	public Primitive getValue() {
+		return value;
+	}
+	
 	
 	
 	/**
@@ -107,6 +119,15 @@ public class Variable implements VariableValue, VariableContent, SubValue  {
 	}
 	
 	
+	/**
+	 * Check if the variable is constant
+	 * @return	true if the variable is constant
+	 */
+	public boolean isConstant(){
+		return constant;
+	}
+	
+	
 	/**
 	 * @return The result of value.get(i)
 	 */
@@ -446,6 +467,44 @@ public class Variable implements VariableValue, VariableContent, SubValue  {
 	}
 
 	
+	/**
+	 * The operations of the compiler and the runtime on the variables, which ignore the "const" flag.
+	 * The only instance is given to {@link compiler.Program} when this class is loaded, so the hosts can't use them.
+	 * @author MarcoForlini
+	 */
+	public static final class Access {
+		
+		private Access(){}
+		
+		/**
+		 * Make a variable constant. Used when the "const" declaration is validated after the variable has been created.
+		 * @param variable	The variable
+		 */
+		public void setConstant(Variable variable){
+			variable.constant = true;
+		}
+		
+		/**
+		 * Remove the value and the const flag from a variable. Used when a variable is reused by a new version of a program.
+		 * @param variable	The variable
+		 */
+		public void reset(Variable variable){
+			variable.value = Null;
+			variable.constant = false;
+		}
+		
+		/**
+		 * Restore a previous value of a variable, even if it's constant. Used by the execution contexts to start a new execution from their initial values.
+		 * @param variable	The variable
+		 * @param value		The value
+		 */
+		public void restore(Variable variable, Primitive value){
+			variable.value = value;
+		}
+		
+	}
+	
+	
 	@Override
 	public String toString () {
 		return value.toString();
@@ -4,6 +4,7 @@ import java.io.Serializable;
 
 import compiler.ExecutionException;
 import compiler.Program;
+import expressions.Expression;
 
 /**
  * Represents an executable instruction
@@ -41,6 +42,24 @@ public abstract class Instruction implements Serializable {
 	public abstract boolean execute(Program program) throws ExecutionException;
 
 
+	/**
+	 * Get the source line of this instruction
+	 * @return	The line, or null if the instruction has been added by the compiler
+	 */
+	public String getLine(){
+		return line;
+	}
+
+
+	/**
+	 * Get the expression evaluated by this instruction
+	 * @return	The expression, or null if the instruction doesn't evaluate an expression
+	 */
+	public Expression getExpression(){
+		return null;
+	}
+
+
 	/**
 	 * Get the line number of this instruction
 	 * @return	The line number
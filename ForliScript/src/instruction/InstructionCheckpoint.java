@@ -0,0 +1,32 @@
+package instruction;
+
+import compiler.ExecutionException;
+import compiler.Program;
+
+/**
+ * Represents an instruction which marks a point where the state of the program can be saved.
+ * A context with a checkpoint sink saves a checkpoint when it reaches the instruction; otherwise the instruction does nothing.
+ * @author MarcoForlini
+ */
+public class InstructionCheckpoint extends Instruction {
+
+	private static final long serialVersionUID = 2158834206633187545L;
+	
+
+
+	/**
+	 * Create a new {@link InstructionCheckpoint}
+	 * @param line					The line
+	 * @param lineNumber			The line number
+	 * @param compiledLineNumber	The compiled line number
+	 */
+	public InstructionCheckpoint (String line, int lineNumber, int compiledLineNumber) {
+		super(line, lineNumber, compiledLineNumber);
+	}
+	
+	@Override
+	public boolean execute (Program program) throws ExecutionException {
+		return true;
+	}
+
+}
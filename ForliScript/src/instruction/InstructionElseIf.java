@@ -35,7 +35,20 @@ public class InstructionElseIf extends Instruction {
 	 */
 	public void setFalseJump (int falseDestination) {
 		this.falseDestination = falseDestination;	}
+
+	/**
+	 * Get the position where to jump if condition is false
+	 * @return	the destination of the jump if condition is false
+	 */
+	public int getFalseJump () {
+		return falseDestination;
+	}
 	
+	@Override
+	public Expression getExpression() {
+		return condition;
+	}
+
 	@Override
 	public boolean execute(Program program) throws ExecutionException {
 		if (condition.eval().isTrue()){
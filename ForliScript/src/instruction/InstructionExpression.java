@@ -28,6 +28,11 @@ public class InstructionExpression extends Instruction {
 		this.expression = expression;
 	}
 
+	@Override
+	public Expression getExpression() {
+		return expression;
+	}
+
 	@Override
 	public boolean execute (Program program) throws ExecutionException {
 		expression.eval();
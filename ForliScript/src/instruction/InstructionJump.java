@@ -44,6 +44,14 @@ public class InstructionJump extends Instruction {
 	public void setJump (int destination) {
 		this.destination = destination;	}
 	
+	/**
+	 * Get the position where to jump
+	 * @return	the position where to jump
+	 */
+	public int getJump () {
+		return destination;
+	}
+	
 	@Override
 	public boolean execute(Program program) throws ExecutionException {
 		program.jumpTo(destination);
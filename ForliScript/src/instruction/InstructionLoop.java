@@ -34,6 +34,14 @@ public class InstructionLoop extends Instruction {
 		this.jumpBack = jumpBack;
 	}
 	
+	/**
+	 * Get the position where to jump back
+	 * @return	the position of the While instruction
+	 */
+	public int getJumpBack () {
+		return jumpBack;
+	}
+	
 	@Override
 	public boolean execute(Program program) throws ExecutionException {
 		program.jumpTo(jumpBack);
@@ -1,5 +1,7 @@
 package instruction;
 
+import java.io.IOException;
+
 import compiler.ExecutionException;
 import compiler.Program;
 import expressions.Expression;
@@ -28,9 +30,18 @@ public class InstructionPrint extends Instruction {
 		this.expression = expression;
 	}
 
+	@Override
+	public Expression getExpression() {
+		return expression;
+	}
+
 	@Override
 	public boolean execute (Program program) throws ExecutionException {
-		System.out.print(expression.eval());
+		try {
+			program.getOutput().print(String.valueOf(expression.eval()));
+		} catch (IOException e){
+			throw new ExecutionException("Can't write the output", e);
+		}
 		return true;
 	}
 	
@@ -1,10 +1,14 @@
 package instruction;
 
+import java.io.IOException;
+
 import compiler.CompilatorException;
 import compiler.ExecutionException;
+import compiler.Input;
 import compiler.Program;
 import compiler.Utils;
 import expressions.Expression;
+import expressions.Primitive;
 import expressions.ValNumber;
 import expressions.ValString;
 import expressions.Variable;
@@ -38,16 +42,52 @@ public class InstructionRead extends Instruction {
 		}
 	}
 	
+	/**
+	 * Get the variable which receives the input
+	 * @return	The variable
+	 */
+	public Variable getVariable(){
+		return variable;
+	}
+	
+	@Override
+	public Expression getExpression() {
+		return variable;
+	}
+
 	@Override
 	public boolean execute (Program program) throws ExecutionException {
-		String input = Utils.scanner.nextLine();
+		variable.set(input(program.getInput()));
+		return true;
+	}
+	
+	/**
+	 * Read a line from the given input
+	 * @param in	The input
+	 * @return		The number written in the line, or the line as a text if it's not a number
+	 * @throws ExecutionException	If the input can't be read
+	 */
+	public static Primitive input(Input in) throws ExecutionException {
+		String input;
+		try {
+			input = in.readLine();
+		} catch (IOException e){
+			throw new ExecutionException("Can't read the input", e);
+		}
+		return parse(input);
+	}
+	
+	/**
+	 * Get the value of a line of input
+	 * @param line	The line
+	 * @return		The number written in the line, or the line as a text if it's not a number
+	 */
+	public static Primitive parse(String line){
 		try {
-			float number = Utils.toNumber(input);
-			variable.set(ValNumber.getNumber(number));
+			return ValNumber.getNumber(Utils.toNumber(line));
 		} catch (NumberFormatException e){
-			variable.set(new ValString(input));
+			return new ValString(line);
 		}
-		return true;
 	}
 
 }
@@ -41,6 +41,19 @@ public class InstructionWhile extends Instruction {
 		this.falseDestination = falseDestination;
 	}
 	
+	/**
+	 * Get the position where to jump if condition is false
+	 * @return	the destination of the jump if condition is false
+	 */
+	public int getFalseJump () {
+		return falseDestination;
+	}
+	
+	@Override
+	public Expression getExpression() {
+		return condition;
+	}
+
 	@Override
 	public boolean execute (Program program) throws ExecutionException {
 		if (condition.eval().isTrue()) {
@@ -0,0 +1,84 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import compiler.BatchRunner;
+import compiler.CompilatorException;
+import compiler.CompiledProgram;
+import compiler.Compiler;
+import compiler.Engine;
+import compiler.ExecutionException;
+import compiler.Program;
+
+
+/**
+ * Checks that a {@link BatchRunner} delivers the result of every record, even when a record throws an {@link Error}
+ *
+ * @author MarcoForlini
+ */
+public class BatchTest {
+
+	/** The number of records of each batch */
+	private static final int	RECORDS	= 1000;
+	/** The record which overflows the stack, by printing an array which contains itself */
+	private static final int	BROKEN	= 500;
+
+
+
+	/**
+	 * Run the batches, and fail with an {@link AssertionError} if a result is missing or wrong
+	 *
+	 * @param args Not used
+	 * @throws CompilatorException If the program can't be compiled
+	 * @throws ExecutionException If the program has no variable "y"
+	 * @throws InterruptedException If the thread is interrupted while waiting for the workers
+	 */
+	public static void main (String[] args) throws CompilatorException, ExecutionException, InterruptedException {
+		Program program = Compiler.compile (Arrays.asList (
+			"a = Array(1, 2)",
+			"If x == " + BROKEN,
+			"a[0] = a",
+			"z = \"\" + a",
+			"EndIf",
+			"y = x * 2"));
+		List <Map <String, Object>> records = new ArrayList<> (RECORDS);
+		for (int i = 0; i < RECORDS; i++) {
+			records.add (Collections.singletonMap ("x", i));
+		}
+
+		for (Engine engine : Arrays.asList (Engine.BYTECODE, Engine.JVM)) {
+			CompiledProgram compiled = program.compile (engine);
+			for (boolean ordered : new boolean[] { true, false }) {
+				BatchRunner.Result[] results = new BatchRunner.Result[RECORDS];
+				BatchRunner.Report report = new BatchRunner (compiled, 4, ordered, "y").run (records, result -> {
+					check (results[(int) result.getIndex ()] == null, "record " + result.getIndex () + " delivered twice");
+					results[(int) result.getIndex ()] = result;
+				});
+				check (report.getRecords () == RECORDS, "records: " + report.getRecords ());
+				check (report.getFailed () == 1, "failed: " + report.getFailed ());
+				for (int i = 0; i < RECORDS; i++) {
+					check (results[i] != null, "record " + i + " not delivered");
+					if (i == BROKEN) {
+						check (results[i].isFailed () && results[i].getError ().getCause () instanceof StackOverflowError,
+							"record " + i + " should fail with a StackOverflowError: " + results[i].getError ());
+					} else {
+						check (!results[i].isFailed () && results[i].get ("y").value () == i * 2, "wrong result of record " + i);
+					}
+				}
+				System.out.println (engine + (ordered ? " ordered: " : " unordered: ") + report);
+			}
+		}
+	}
+
+
+	private static void check (boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError (message);
+		}
+	}
+
+}
@@ -1,12 +1,12 @@
 package test;
 
 import java.io.IOException;
-import java.util.List;
 
 import compiler.CompilatorException;
-import compiler.Compiler;
+import compiler.Engine;
 import compiler.ExecutionException;
 import compiler.FileManager;
+import compiler.Profiler;
 import compiler.Program;
 import compiler.Utils;
 
@@ -21,7 +21,8 @@ public class Test {
 	/**
 	 * Main... what else?
 	 *
-	 * @param args Unused args...
+	 * @param args The file to run and the engine ("tree", "bytecode" or "jvm"), "profile" to run it with the tree engine and print the
+	 *            slowest lines, or "jar" to compile the file into a runnable JAR
 	 */
 	public static void main (String[] args) {
 		try {
@@ -44,26 +45,35 @@ public class Test {
 			}
 
 			if (isSource) {
-				System.out.println ("Read source code from file...");
-				List <String> sourceCode = FileManager.readSource (filePath);
-				System.out.println ("Compile source code...");
-				program = Compiler.compile (sourceCode);
-				try {
-					System.out.println ("Save program to file...");
-					FileManager.saveProgram (filePath + 'p', program);
-				} catch (IOException e) {
-					System.out.println (e.getMessage ());
-				}
+				System.out.println ("Read program from cache or compile source code...");
+				program = FileManager.compile (filePath);
 			} else {
 				System.out.println ("Read program from file...");
 				program = FileManager.readProgram (filePath);
 			}
 
+			if (args.length > 1 && args[1].equalsIgnoreCase ("jar")) {
+				String jarPath = filePath.substring (0, filePath.lastIndexOf ('.')) + ".jar";
+				System.out.println ("Save program to " + jarPath + "...");
+				FileManager.saveJar (jarPath, program);
+				return;
+			}
+
 			program.setVariable ("someVar1", "Mannaggia i sassi!");
 			program.setVariable ("someVar2", 1762);
 			System.out.println ("Run program\n\n\n");
-			program.run ();
-		} catch (IOException | CompilatorException | ExecutionException | ClassNotFoundException e) {
+			if (args.length > 1 && args[1].equalsIgnoreCase ("profile")) {
+				Profiler profiler = new Profiler ();
+				program.setProfiler (profiler);
+				try {
+					program.run ();
+				} finally {
+					System.out.println ("\n\n\n" + profiler.report (20));
+				}
+				return;
+			}
+			program.run (args.length > 1 ? Engine.valueOf (args[1].toUpperCase ()) : Engine.TREE);
+		} catch (IOException | CompilatorException | ExecutionException e) {
 			e.printStackTrace ();
 		}
 	}